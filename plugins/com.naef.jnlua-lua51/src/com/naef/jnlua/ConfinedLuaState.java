@@ -0,0 +1,380 @@
+/*
+ * $Id$
+ * See LICENSE.txt for license terms.
+ */
+
+package com.naef.jnlua;
+
+/**
+ * Lua state confined to a single thread.
+ *
+ * <p>
+ * A regular Lua state acquires its monitor on every call. A confined Lua
+ * state is owned by a thread, the thread creating it at first. Every method
+ * reaching the native library checks ownership, closing included, and throws
+ * an <code>IllegalStateException</code> when it is invoked from an other
+ * thread. Ownership is handed to an other thread with
+ * {@link #transferOwnership(Thread)}.
+ * </p>
+ *
+ * <p>
+ * The most used stack, table and argument methods check ownership instead of
+ * acquiring the monitor. Other methods are inherited, they still acquire the
+ * monitor, which is never contended.
+ * </p>
+ */
+public class ConfinedLuaState extends LuaState {
+	// -- Static
+	/**
+	 * Lua types by ordinal.
+	 */
+	private static final LuaType[] TYPES = LuaType.values();
+
+	// -- State
+	/**
+	 * The owning thread, or <code>null</code> if this Lua state is not owned.
+	 */
+	private volatile Thread owner;
+
+	/**
+	 * Whether construction is complete, the constructing thread has access
+	 * until then.
+	 */
+	private volatile boolean constructed;
+
+	// -- Construction
+	/**
+	 * Creates a new instance, owned by the calling thread.
+	 */
+	public ConfinedLuaState() {
+		owner = Thread.currentThread();
+		constructed = true;
+	}
+
+	// -- Ownership
+	/**
+	 * Returns the owning thread.
+	 *
+	 * @return the owning thread, or <code>null</code> if this Lua state is not
+	 *         owned
+	 */
+	public Thread getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Hands this Lua state to another thread. The method must be invoked by the
+	 * owning thread, or by any thread if this Lua state is not owned.
+	 *
+	 * <p>
+	 * Work done by the previous owner is visible to the new owner.
+	 * </p>
+	 *
+	 * @param thread
+	 *            the new owning thread, or <code>null</code> to release this
+	 *            Lua state
+	 */
+	public synchronized void transferOwnership(Thread thread) {
+		Thread current = owner;
+		if (current != null && current != Thread.currentThread()) {
+			throw new IllegalStateException(String.format(
+					"Lua state is owned by %s", current.getName()));
+		}
+		owner = thread;
+	}
+
+	// -- Life cycle
+	@Override
+	public void call(int argCount, int returnCount) {
+		check();
+		int base = lua_gettop() - argCount - 1;
+		lua_pcall(argCount, returnCount);
+		checkMemory(base);
+	}
+
+	// -- Global
+	@Override
+	public void getGlobal(String name) {
+		check();
+		lua_getglobal(name);
+	}
+
+	@Override
+	public void setGlobal(String name) {
+		check();
+		lua_setglobal(name);
+	}
+
+	// -- Stack push
+	@Override
+	public void pushBoolean(boolean b) {
+		check();
+		lua_pushboolean(b ? 1 : 0);
+	}
+
+	@Override
+	public void pushInteger(int n) {
+		check();
+		lua_pushinteger(n);
+	}
+
+	@Override
+	public void pushJavaFunction(JavaFunction javaFunction) {
+		check();
+		lua_pushjavafunction(javaFunction);
+	}
+
+	@Override
+	public void pushNil() {
+		check();
+		lua_pushnil();
+	}
+
+	@Override
+	public void pushNumber(double n) {
+		check();
+		lua_pushnumber(n);
+	}
+
+	@Override
+	public void pushString(String s) {
+		check();
+		lua_pushstring(s);
+	}
+
+	// -- Stack type test
+	@Override
+	public boolean isBoolean(int index) {
+		check();
+		return lua_isboolean(index) != 0;
+	}
+
+	@Override
+	public boolean isFunction(int index) {
+		check();
+		return lua_isfunction(index) != 0;
+	}
+
+	@Override
+	public boolean isNil(int index) {
+		check();
+		return lua_isnil(index) != 0;
+	}
+
+	@Override
+	public boolean isNoneOrNil(int index) {
+		check();
+		return lua_isnoneornil(index) != 0;
+	}
+
+	@Override
+	public boolean isNumber(int index) {
+		check();
+		return lua_isnumber(index) != 0;
+	}
+
+	@Override
+	public boolean isString(int index) {
+		check();
+		return lua_isstring(index) != 0;
+	}
+
+	@Override
+	public boolean isTable(int index) {
+		check();
+		return lua_istable(index) != 0;
+	}
+
+	// -- Stack query
+	@Override
+	public boolean toBoolean(int index) {
+		check();
+		return lua_toboolean(index) != 0;
+	}
+
+	@Override
+	public int toInteger(int index) {
+		check();
+		return lua_tointeger(index);
+	}
+
+	@Override
+	public double toNumber(int index) {
+		check();
+		return lua_tonumber(index);
+	}
+
+	@Override
+	public String toString(int index) {
+		check();
+		return lua_tostring(index);
+	}
+
+	@Override
+	public LuaType type(int index) {
+		check();
+		int type = lua_type(index);
+		return type >= 0 ? TYPES[type] : null;
+	}
+
+	// -- Stack operation
+	@Override
+	public int getTop() {
+		check();
+		return lua_gettop();
+	}
+
+	@Override
+	public void insert(int index) {
+		check();
+		lua_insert(index);
+	}
+
+	@Override
+	public void pop(int count) {
+		check();
+		lua_pop(count);
+	}
+
+	@Override
+	public void pushValue(int index) {
+		check();
+		lua_pushvalue(index);
+	}
+
+	@Override
+	public void remove(int index) {
+		check();
+		lua_remove(index);
+	}
+
+	@Override
+	public void replace(int index) {
+		check();
+		lua_replace(index);
+	}
+
+	@Override
+	public void setTop(int index) {
+		check();
+		lua_settop(index);
+	}
+
+	// -- Table
+	@Override
+	public void getTable(int index) {
+		check();
+		lua_gettable(index);
+	}
+
+	@Override
+	public void getField(int index, String key) {
+		check();
+		lua_getfield(index, key);
+	}
+
+	@Override
+	public void newTable() {
+		check();
+		lua_newtable();
+	}
+
+	@Override
+	public void newTable(int arrayCount, int recordCount) {
+		check();
+		lua_createtable(arrayCount, recordCount);
+	}
+
+	@Override
+	public boolean next(int index) {
+		check();
+		return lua_next(index) != 0;
+	}
+
+	@Override
+	public void rawGet(int index) {
+		check();
+		lua_rawget(index);
+	}
+
+	@Override
+	public void rawGet(int index, int key) {
+		check();
+		lua_rawgeti(index, key);
+	}
+
+	@Override
+	public void rawSet(int index) {
+		check();
+		lua_rawset(index);
+	}
+
+	@Override
+	public void rawSet(int index, int key) {
+		check();
+		lua_rawseti(index, key);
+	}
+
+	@Override
+	public void setTable(int index) {
+		check();
+		lua_settable(index);
+	}
+
+	@Override
+	public void setField(int index, String key) {
+		check();
+		lua_setfield(index, key);
+	}
+
+	// -- Argument checking
+	@Override
+	public boolean checkBoolean(int index) {
+		check();
+		if (lua_isboolean(index) == 0) {
+			throw getArgTypeException(index, LuaType.BOOLEAN);
+		}
+		return lua_toboolean(index) != 0;
+	}
+
+	@Override
+	public int checkInteger(int index) {
+		check();
+		if (lua_isnumber(index) == 0) {
+			throw getArgTypeException(index, LuaType.NUMBER);
+		}
+		return lua_tointeger(index);
+	}
+
+	@Override
+	public double checkNumber(int index) {
+		check();
+		if (lua_isnumber(index) == 0) {
+			throw getArgTypeException(index, LuaType.NUMBER);
+		}
+		return lua_tonumber(index);
+	}
+
+	@Override
+	public String checkString(int index) {
+		check();
+		if (lua_isstring(index) == 0) {
+			throw getArgTypeException(index, LuaType.STRING);
+		}
+		return lua_tostring(index);
+	}
+
+	// -- Package private methods
+	/**
+	 * Checks that the calling thread owns this Lua state.
+	 */
+	@Override
+	void checkAccess() {
+		Thread current = owner;
+		if (current != Thread.currentThread() && constructed) {
+			throw new IllegalStateException(String.format(
+					"Lua state is confined to %s", current != null ? current
+							.getName() : "no thread"));
+		}
+	}
+}
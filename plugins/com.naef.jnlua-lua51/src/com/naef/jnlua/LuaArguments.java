@@ -0,0 +1,131 @@
+/*
+ * $Id$
+ * See LICENSE.txt for license terms.
+ */
+
+package com.naef.jnlua;
+
+/**
+ * Reusable holder of Java function arguments of known types. The arguments are
+ * checked and read at once by {@link LuaState#checkArguments(LuaArguments)}.
+ *
+ * <p>
+ * Strings, numbers and booleans are read. Arguments of other types are only
+ * checked. A <code>null</code> type accepts any value, including none, and
+ * reads nothing.
+ * </p>
+ *
+ * <p>
+ * A holder is not thread safe. It is meant to be kept by a Java function and
+ * filled on each invocation.
+ * </p>
+ */
+public class LuaArguments {
+	// -- State
+	private final LuaType[] types;
+	private final String[] strings;
+	private final double[] numbers;
+	private final boolean[] booleans;
+
+	// -- Construction
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param types
+	 *            the expected type of each argument, starting with the first
+	 *            one
+	 */
+	public LuaArguments(LuaType... types) {
+		this.types = types.clone();
+		strings = new String[types.length];
+		numbers = new double[types.length];
+		booleans = new boolean[types.length];
+	}
+
+	// -- Properties
+	/**
+	 * Returns the number of arguments.
+	 *
+	 * @return the number of arguments
+	 */
+	public int size() {
+		return types.length;
+	}
+
+	/**
+	 * Returns the expected type of an argument.
+	 *
+	 * @param argument
+	 *            the argument index, starting at <code>1</code>
+	 * @return the expected type, or <code>null</code> if any value is accepted
+	 */
+	public LuaType getType(int argument) {
+		return types[argument - 1];
+	}
+
+	/**
+	 * Returns a string argument.
+	 *
+	 * @param argument
+	 *            the argument index, starting at <code>1</code>
+	 * @return the string value
+	 */
+	public String getString(int argument) {
+		return strings[argument - 1];
+	}
+
+	/**
+	 * Returns a number argument as a number.
+	 *
+	 * @param argument
+	 *            the argument index, starting at <code>1</code>
+	 * @return the number value
+	 */
+	public double getNumber(int argument) {
+		return numbers[argument - 1];
+	}
+
+	/**
+	 * Returns a number argument as an integer.
+	 *
+	 * @param argument
+	 *            the argument index, starting at <code>1</code>
+	 * @return the integer value
+	 */
+	public int getInteger(int argument) {
+		return (int) numbers[argument - 1];
+	}
+
+	/**
+	 * Returns a boolean argument.
+	 *
+	 * @param argument
+	 *            the argument index, starting at <code>1</code>
+	 * @return the boolean value
+	 */
+	public boolean getBoolean(int argument) {
+		return booleans[argument - 1];
+	}
+
+	// -- Package private methods
+	/**
+	 * Sets a string argument.
+	 */
+	void setString(int argument, String s) {
+		strings[argument - 1] = s;
+	}
+
+	/**
+	 * Sets a number argument.
+	 */
+	void setNumber(int argument, double n) {
+		numbers[argument - 1] = n;
+	}
+
+	/**
+	 * Sets a boolean argument.
+	 */
+	void setBoolean(int argument, boolean b) {
+		booleans[argument - 1] = b;
+	}
+}
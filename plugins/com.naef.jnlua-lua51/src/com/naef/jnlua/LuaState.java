@@ -16,17 +16,21 @@ package com.naef.jnlua;
 // lua_yieldk, lua_pcallk
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.lang.ref.PhantomReference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.naef.jnlua.JavaReflector.Metamethod;
 
@@ -131,6 +135,23 @@ public class LuaState {
 	 */
 	private static final int APIVERSION = 1;
 
+
+	/**
+	 * Registry key of the function dumping chunks with
+	 * <code>string.dump</code>. The native dump writer corrupts memory when it
+	 * is handed blocks of more than about 1 KB.
+	 */
+	private static final String DUMP_FUNCTION = "com.naef.jnlua.Dump";
+
+	/**
+	 * Creates the dump function. The chunk is returned in hexadecimal, as
+	 * strings are moved to Java in modified UTF-8.
+	 */
+	private static final String DUMP_CHUNK = "local dump, gsub = string.dump, string.gsub\n"
+			+ "local hex = {}\n"
+			+ "for i = 0, 255 do hex[string.char(i)] = string.format(\"%02x\", i) end\n"
+			+ "return function (f) return (gsub(dump(f), \".\", hex)) end";
+
 	// -- State
 	/**
 	 * The <code>lua_State</code> pointer on the JNI side. <code>0</code>
@@ -167,9 +188,36 @@ public class LuaState {
 	private Converter converter;
 
 	/**
-	 * Set of Lua proxy phantom references for pre-mortem cleanup.
+	 * Layout of string chunks for moving byte arrays, lazily created.
 	 */
-	private Set<LuaValueProxyRef> proxySet = new HashSet<LuaValueProxyRef>();
+	private StringChunk stringChunk;
+
+	/**
+	 * Lua proxy phantom references for pre-mortem cleanup, as a doubly linked
+	 * list. Listed references are strongly reachable until they are cleaned
+	 * up.
+	 */
+	private LuaValueProxyRef proxyRefs;
+
+	/**
+	 * Number of live Lua value proxies.
+	 */
+	private int proxyCount;
+
+	/**
+	 * Maximum number of live Lua value proxies.
+	 */
+	private int proxyBudget = Integer.MAX_VALUE;
+
+	/**
+	 * Maximum number of bytes in use after a call, <code>0</code> for none.
+	 */
+	private long memoryLimit;
+
+	/**
+	 * Highest number of bytes in use sampled.
+	 */
+	private long peakMemoryUsage;
 
 	/**
 	 * Reference queue for pre-mortem cleanup.
@@ -190,7 +238,7 @@ public class LuaState {
 	 * @see #setConverter(Converter)
 	 */
 	public LuaState() {
-		synchronized (getClass()) {
+		synchronized (LuaState.class) {
 			lua_newstate(APIVERSION);
 		}
 		check();
@@ -353,6 +401,58 @@ public class LuaState {
 		this.converter = converter;
 	}
 
+	/**
+	 * Returns the number of live Lua value proxies of this Lua state. A proxy
+	 * is live until it has been garbage collected and its Lua value has been
+	 * released. Released values are released in batches by the next
+	 * operation on this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the number of live Lua value proxies
+	 */
+	public synchronized int getProxyCount() {
+		return proxyCount;
+	}
+
+	/**
+	 * Returns the maximum number of live Lua value proxies of this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the proxy budget
+	 * @see #setProxyBudget(int)
+	 */
+	public synchronized int getProxyBudget() {
+		return proxyBudget;
+	}
+
+	/**
+	 * Sets the maximum number of live Lua value proxies of this Lua state. Once
+	 * the budget is reached, creating a proxy throws an
+	 * <code>IllegalStateException</code>. By default, the number of proxies is
+	 * not limited.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @param proxyBudget
+	 *            the proxy budget
+	 * @see #getProxyCount()
+	 */
+	public synchronized void setProxyBudget(int proxyBudget) {
+		if (proxyBudget < 0) {
+			throw new IllegalArgumentException("illegal proxy budget: "
+					+ proxyBudget);
+		}
+		this.proxyBudget = proxyBudget;
+	}
+
 	/**
 	 * Returns whether this Lua state is open.
 	 * 
@@ -376,6 +476,7 @@ public class LuaState {
 	 * </p>
 	 */
 	public synchronized void close() {
+		checkAccess();
 		closeInternal();
 	}
 
@@ -395,6 +496,74 @@ public class LuaState {
 		return lua_gc(what.ordinal(), data);
 	}
 
+	// -- Memory
+	/**
+	 * Returns the number of bytes in use by this Lua state.
+	 * 
+	 * @return the memory usage, in bytes
+	 */
+	public synchronized long getMemoryUsage() {
+		check();
+		return sampleMemoryUsage();
+	}
+
+	/**
+	 * Returns the highest number of bytes in use by this Lua state, as sampled
+	 * at the end of each call when a memory limit is set, and by
+	 * {@link #getMemoryUsage()}.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the peak memory usage, in bytes
+	 */
+	public synchronized long getPeakMemoryUsage() {
+		return peakMemoryUsage;
+	}
+
+	/**
+	 * Returns the memory limit of this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the memory limit, in bytes, or <code>0</code> if there is no
+	 *         limit
+	 * @see #setMemoryLimit(long)
+	 */
+	public synchronized long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * Sets the memory limit of this Lua state. The limit is checked at the end
+	 * of each call. If it is exceeded, a full garbage collection cycle is
+	 * performed, and if it is still exceeded, the call throws a
+	 * <code>LuaMemoryAllocationException</code>. The values returned by the
+	 * call are popped from the stack.
+	 * 
+	 * <p>
+	 * The native library does not let Lua allocations be tracked, so a call
+	 * is not interrupted when it exceeds the limit, it fails when it returns.
+	 * </p>
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @param memoryLimit
+	 *            the memory limit, in bytes, or <code>0</code> for no limit
+	 */
+	public synchronized void setMemoryLimit(long memoryLimit) {
+		if (memoryLimit < 0) {
+			throw new IllegalArgumentException("illegal memory limit: "
+					+ memoryLimit);
+		}
+		this.memoryLimit = memoryLimit;
+	}
+
 	// -- Registration
 	/**
 	 * Opens the specified library in this Lua state.
@@ -525,6 +694,11 @@ public class LuaState {
 	 * Dumps the function on top of the stack as a pre-compiled binary chunk
 	 * into an output stream.
 	 * 
+	 * <p>
+	 * The function is dumped by <code>string.dump</code> if the string library
+	 * is open, and by the native dump writer otherwise.
+	 * </p>
+	 * 
 	 * @param outputStream
 	 *            the output stream
 	 * @throws IOException
@@ -532,7 +706,7 @@ public class LuaState {
 	 */
 	public synchronized void dump(OutputStream outputStream) throws IOException {
 		check();
-		lua_dump(outputStream);
+		dumpInternal(outputStream);
 	}
 
 	// -- Call
@@ -552,7 +726,9 @@ public class LuaState {
 	 */
 	public synchronized void call(int argCount, int returnCount) {
 		check();
+		int base = lua_gettop() - argCount - 1;
 		lua_pcall(argCount, returnCount);
+		checkMemory(base);
 	}
 
 	// -- Global
@@ -592,6 +768,33 @@ public class LuaState {
 		lua_pushboolean(b ? 1 : 0);
 	}
 
+	/**
+	 * Pushes a byte array value as a string value on the stack.
+	 * 
+	 * <p>
+	 * The bytes are pushed as is, unlike strings which are encoded. The
+	 * native library has no byte array support, so the bytes are loaded as a
+	 * pre-compiled binary chunk returning them.
+	 * </p>
+	 * 
+	 * @param b
+	 *            the byte array to push
+	 */
+	public synchronized void pushByteArray(byte[] b) {
+		check();
+		StringChunk chunk = getStringChunk();
+		try {
+			lua_load(new SequenceInputStream(new ByteArrayInputStream(chunk
+					.getPrefix(b.length)), new SequenceInputStream(
+					new ByteArrayInputStream(b), new ByteArrayInputStream(chunk
+							.getSuffix()))), "=pushByteArray");
+		} catch (IOException e) {
+			// In memory streams do not fail
+			throw new IllegalStateException(e);
+		}
+		lua_pcall(0, 1);
+	}
+
 	/**
 	 * Pushes an integer value as a number value on the stack.
 	 * 
@@ -1611,6 +1814,116 @@ public class LuaState {
 		lua_tablemove(index, from, to, count);
 	}
 
+	/**
+	 * Pushes several values on the stack, in order. Strings, booleans,
+	 * integers, doubles, Java functions and <code>null</code> are pushed as by
+	 * the corresponding push method. Other values are processed by the
+	 * configured converter.
+	 * 
+	 * <p>
+	 * The method provides optimized performance over pushing values one by one
+	 * as the Lua state is locked and checked once.
+	 * </p>
+	 * 
+	 * @param values
+	 *            the values to push
+	 * @see #pushJavaObject(Object)
+	 */
+	public synchronized void pushValues(Object... values) {
+		check();
+		for (Object value : values) {
+			if (value == null) {
+				lua_pushnil();
+			} else if (value instanceof String) {
+				lua_pushstring((String) value);
+			} else if (value instanceof Boolean) {
+				lua_pushboolean(((Boolean) value).booleanValue() ? 1 : 0);
+			} else if (value instanceof Integer) {
+				lua_pushinteger(((Integer) value).intValue());
+			} else if (value instanceof Double) {
+				lua_pushnumber(((Double) value).doubleValue());
+			} else if (value instanceof JavaFunction) {
+				lua_pushjavafunction((JavaFunction) value);
+			} else {
+				converter.convertJavaObject(this, value);
+			}
+		}
+	}
+
+	/**
+	 * Pushes on the stack the values indexed by the specified string keys in
+	 * the table at the specified index, in order.
+	 * 
+	 * <p>
+	 * The method provides optimized performance over getting fields one by one
+	 * as the Lua state is locked and checked once.
+	 * </p>
+	 * 
+	 * @param index
+	 *            the stack index containing the table
+	 * @param keys
+	 *            the string keys
+	 */
+	public synchronized void getFields(int index, String[] keys) {
+		check();
+		if (index < 0 && index > REGISTRYINDEX) {
+			// Pushed values shift relative indexes
+			index = lua_gettop() + index + 1;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			lua_getfield(index, keys[i]);
+		}
+	}
+
+	/**
+	 * Checks the arguments of a Java function against the types held by the
+	 * specified arguments, and reads their values into it. If an argument does
+	 * not have the expected type, the method throws a Lua runtime exception
+	 * with a descriptive error message.
+	 * 
+	 * <p>
+	 * The method provides optimized performance over checking arguments one by
+	 * one as the Lua state is locked and checked once.
+	 * </p>
+	 * 
+	 * @param arguments
+	 *            the expected types, and the holder of values read
+	 */
+	public synchronized void checkArguments(LuaArguments arguments) {
+		check();
+		for (int i = 1; i <= arguments.size(); i++) {
+			LuaType type = arguments.getType(i);
+			if (type == null) {
+				continue;
+			}
+			switch (type) {
+			case STRING:
+				if (lua_isstring(i) == 0) {
+					throw getArgTypeException(i, type);
+				}
+				arguments.setString(i, lua_tostring(i));
+				break;
+			case NUMBER:
+				if (lua_isnumber(i) == 0) {
+					throw getArgTypeException(i, type);
+				}
+				arguments.setNumber(i, lua_tonumber(i));
+				break;
+			case BOOLEAN:
+				if (lua_isboolean(i) == 0) {
+					throw getArgTypeException(i, type);
+				}
+				arguments.setBoolean(i, lua_toboolean(i) != 0);
+				break;
+			default:
+				if (lua_type(i) != type.ordinal()) {
+					throw getArgTypeException(i, type);
+				}
+				break;
+			}
+		}
+	}
+
 	// -- Argument checking
 	/**
 	 * Checks if a condition is true for the specified function argument. If
@@ -1904,6 +2217,51 @@ public class LuaState {
 		}
 	}
 
+	// -- Snapshot
+	/**
+	 * Returns a copy of the table at the specified stack index as a map.
+	 * Tables nested up to the specified depth are copied as maps as well.
+	 * Other values are converted by the converter of this Lua state, as by
+	 * {@link #toJavaObject(int, Class)} with <code>Object.class</code>.
+	 * 
+	 * <p>
+	 * Unlike the map returned by the converter, which is a view reading the
+	 * Lua table on each access, the copy is made in a single pass while this
+	 * Lua state is locked, and it is not affected by later changes to the
+	 * table. A nested table which is also one of its containing tables is
+	 * copied once, the copy then contains itself.
+	 * </p>
+	 * 
+	 * @param index
+	 *            the stack index containing the table
+	 * @param depth
+	 *            the number of table levels to copy, <code>1</code> to only
+	 *            copy the table at the specified index
+	 * @return the copy of the table
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized Map<Object, Object> toMapSnapshot(int index, int depth) {
+		return (Map<Object, Object>) toSnapshot(index, depth, false);
+	}
+
+	/**
+	 * Returns a copy of the array part of the table at the specified stack
+	 * index as a list, from index <code>1</code> to the length of the table.
+	 * Tables nested up to the specified depth are copied as lists as well.
+	 * Other values are converted as by {@link #toMapSnapshot(int, int)}.
+	 * 
+	 * @param index
+	 *            the stack index containing the table
+	 * @param depth
+	 *            the number of table levels to copy, <code>1</code> to only
+	 *            copy the table at the specified index
+	 * @return the copy of the table
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<Object> toListSnapshot(int index, int depth) {
+		return (List<Object>) toSnapshot(index, depth, true);
+	}
+
 	// -- Proxy
 	/**
 	 * Returns a proxy object for the Lua value at the specified index.
@@ -1913,6 +2271,7 @@ public class LuaState {
 	 * @return the Lua value proxy
 	 */
 	public synchronized LuaValueProxy getProxy(int index) {
+		checkProxyBudget();
 		pushValue(index);
 		return new LuaValueProxyImpl(ref(REGISTRYINDEX));
 	}
@@ -1949,6 +2308,7 @@ public class LuaState {
 	 * @return the proxy object
 	 */
 	public synchronized LuaValueProxy getProxy(int index, Class<?>[] interfaces) {
+		checkProxyBudget();
 		pushValue(index);
 		if (!isTable(index)) {
 			throw new IllegalArgumentException(String.format(
@@ -1971,6 +2331,58 @@ public class LuaState {
 	}
 
 	// -- Private methods
+	/**
+	 * Pushes the dump function on the stack.
+	 * 
+	 * @return whether the function was pushed, <code>false</code> if the
+	 *         string library is not open
+	 */
+	private boolean pushDumpFunction() {
+		lua_getfield(REGISTRYINDEX, DUMP_FUNCTION);
+		if (lua_isfunction(-1) != 0) {
+			return true;
+		}
+		lua_getglobal("string");
+		boolean open = lua_istable(-1) != 0;
+		lua_pop(2);
+		if (!open) {
+			return false;
+		}
+		try {
+			lua_load(new ByteArrayInputStream(DUMP_CHUNK.getBytes("UTF-8")), "=dump");
+		} catch (IOException e) {
+			// In memory streams do not fail
+			throw new IllegalStateException(e);
+		}
+		lua_pcall(0, 1);
+		lua_pushvalue(-1);
+		lua_setfield(REGISTRYINDEX, DUMP_FUNCTION);
+		return true;
+	}
+
+	/**
+	 * Dumps the function on top of the stack, as {@link #dump(OutputStream)}.
+	 */
+	private void dumpInternal(OutputStream outputStream) throws IOException {
+		if (!pushDumpFunction()) {
+			lua_dump(outputStream);
+			return;
+		}
+		lua_pushvalue(-2);
+		lua_pcall(1, 1);
+		try {
+			String hex = lua_tostring(-1);
+			byte[] chunk = new byte[hex.length() / 2];
+			for (int i = 0; i < chunk.length; i++) {
+				chunk[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4 | Character
+						.digit(hex.charAt(2 * i + 1), 16));
+			}
+			outputStream.write(chunk);
+		} finally {
+			lua_pop(1);
+		}
+	}
+
 	/**
 	 * Returns whether this Lua state is open.
 	 */
@@ -1990,27 +2402,233 @@ public class LuaState {
 		}
 	}
 
+	/**
+	 * Returns the layout of string chunks, taken from a chunk dumped as by
+	 * {@link #dump(OutputStream)}.
+	 */
+	private StringChunk getStringChunk() {
+		if (stringChunk == null) {
+			int top = lua_gettop();
+			try {
+				lua_load(new ByteArrayInputStream(new byte[0]), "=dump");
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				dumpInternal(out);
+				stringChunk = new StringChunk(out.toByteArray());
+			} catch (IOException e) {
+				// In memory streams do not fail
+				throw new IllegalStateException(e);
+			} finally {
+				lua_settop(top);
+			}
+		}
+		return stringChunk;
+	}
+
+	/**
+	 * Copies a table as a map or as a list.
+	 */
+	private Object toSnapshot(int index, int depth, boolean list) {
+		check();
+		if (lua_istable(index) == 0) {
+			throw new IllegalArgumentException(String.format(
+					"index %d is not a table", index));
+		}
+		if (depth < 1) {
+			throw new IllegalArgumentException("illegal depth: " + depth);
+		}
+		if (index < 0 && index > REGISTRYINDEX) {
+			index = lua_gettop() + index + 1;
+		}
+		return snapshotTable(index, depth, list, new ArrayList<Integer>(),
+				new ArrayList<Object>());
+	}
+
+	/**
+	 * Copies a table, given the stack indexes and the copies of its
+	 * containing tables.
+	 */
+	private Object snapshotTable(int index, int depth, boolean list,
+			List<Integer> tableIndexes, List<Object> tableCopies) {
+		int top = lua_gettop();
+		tableIndexes.add(Integer.valueOf(index));
+		try {
+			if (list) {
+				int length = lua_objlen(index);
+				List<Object> copy = new ArrayList<Object>(length);
+				tableCopies.add(copy);
+				for (int i = 1; i <= length; i++) {
+					lua_rawgeti(index, i);
+					copy.add(snapshotValue(top + 1, depth, list, tableIndexes,
+							tableCopies));
+					lua_pop(1);
+				}
+				return copy;
+			} else {
+				Map<Object, Object> copy = new HashMap<Object, Object>();
+				tableCopies.add(copy);
+				lua_pushnil();
+				while (lua_next(index) != 0) {
+					Object key = snapshotValue(top + 1, 1, list, tableIndexes,
+							tableCopies);
+					copy.put(key, snapshotValue(top + 2, depth, list,
+							tableIndexes, tableCopies));
+					lua_pop(1);
+				}
+				return copy;
+			}
+		} finally {
+			lua_settop(top);
+			tableIndexes.remove(tableIndexes.size() - 1);
+			tableCopies.remove(tableCopies.size() - 1);
+		}
+	}
+
+	/**
+	 * Copies a value found in a table.
+	 */
+	private Object snapshotValue(int index, int depth, boolean list,
+			List<Integer> tableIndexes, List<Object> tableCopies) {
+		int type = lua_type(index);
+		if (type == LuaType.TABLE.ordinal() && depth > 1) {
+			for (int i = 0; i < tableIndexes.size(); i++) {
+				if (lua_rawequal(tableIndexes.get(i).intValue(), index) != 0) {
+					return tableCopies.get(i);
+				}
+			}
+			return snapshotTable(index, depth - 1, list, tableIndexes,
+					tableCopies);
+		}
+		if (converter == DefaultConverter.getInstance()) {
+			if (type == LuaType.NUMBER.ordinal()) {
+				return Double.valueOf(lua_tonumber(index));
+			}
+			if (type == LuaType.STRING.ordinal()) {
+				return lua_tostring(index);
+			}
+			if (type == LuaType.BOOLEAN.ordinal()) {
+				return Boolean.valueOf(lua_toboolean(index) != 0);
+			}
+		}
+		return converter.convertLuaValue(this, index, Object.class);
+	}
+
+	/**
+	 * Returns the number of bytes in use, and updates the peak memory usage.
+	 */
+	private long sampleMemoryUsage() {
+		long memoryUsage = lua_gc(GcAction.COUNT.ordinal(), 0) * 1024L
+				+ lua_gc(GcAction.COUNTB.ordinal(), 0);
+		if (memoryUsage > peakMemoryUsage) {
+			peakMemoryUsage = memoryUsage;
+		}
+		return memoryUsage;
+	}
+
+	/**
+	 * Checks the memory limit after a call, which left its return values above
+	 * the specified stack index. They are popped when the limit is exceeded.
+	 */
+	void checkMemory(int base) {
+		if (memoryLimit == 0) {
+			return;
+		}
+		long memoryUsage = sampleMemoryUsage();
+		if (memoryUsage <= memoryLimit) {
+			return;
+		}
+		lua_gc(GcAction.COLLECT.ordinal(), 0);
+		memoryUsage = sampleMemoryUsage();
+		if (memoryUsage > memoryLimit) {
+			lua_settop(base);
+			throw new LuaMemoryAllocationException(String.format(
+					"memory limit of %d bytes exceeded, %d bytes in use",
+					memoryLimit, memoryUsage));
+		}
+	}
+
 	/**
 	 * Checks this Lua state.
 	 */
-	private void check() {
+	void check() {
+		// Check access
+		checkAccess();
+
 		// Check open
 		if (!isOpenInternal()) {
 			throw new IllegalStateException("Lua state is closed");
 		}
 
 		// Check proxy queue
-		LuaValueProxyRef luaValueProxyRef;
-		while ((luaValueProxyRef = (LuaValueProxyRef) proxyQueue.poll()) != null) {
-			proxySet.remove(luaValueProxyRef);
+		LuaValueProxyRef luaValueProxyRef = (LuaValueProxyRef) proxyQueue
+				.poll();
+		if (luaValueProxyRef != null) {
+			cleanupProxies(luaValueProxyRef);
+		}
+	}
+
+	/**
+	 * Checks that the calling thread may access this Lua state. Any thread may
+	 * access a regular Lua state, its methods acquire its monitor.
+	 */
+	void checkAccess() {
+	}
+
+	/**
+	 * Releases the Lua values of garbage collected proxies, starting with the
+	 * specified one, in a single batch. The caller has access to this Lua
+	 * state, as checked by {@link #check()}.
+	 */
+	private void cleanupProxies(LuaValueProxyRef luaValueProxyRef) {
+		do {
+			unlinkProxyRef(luaValueProxyRef);
 			lua_unref(REGISTRYINDEX, luaValueProxyRef.getReference());
+		} while ((luaValueProxyRef = (LuaValueProxyRef) proxyQueue.poll()) != null);
+	}
+
+	/**
+	 * Checks this Lua state, then checks that a proxy can be created.
+	 */
+	private void checkProxyBudget() {
+		check();
+		if (proxyCount >= proxyBudget) {
+			throw new IllegalStateException(String.format(
+					"Lua value proxy budget of %d exhausted", proxyBudget));
+		}
+	}
+
+	/**
+	 * Adds a Lua proxy phantom reference to the list of live proxies.
+	 */
+	private void linkProxyRef(LuaValueProxyRef luaValueProxyRef) {
+		luaValueProxyRef.next = proxyRefs;
+		if (proxyRefs != null) {
+			proxyRefs.previous = luaValueProxyRef;
+		}
+		proxyRefs = luaValueProxyRef;
+		proxyCount++;
+	}
+
+	/**
+	 * Removes a Lua proxy phantom reference from the list of live proxies.
+	 */
+	private void unlinkProxyRef(LuaValueProxyRef luaValueProxyRef) {
+		if (luaValueProxyRef.previous != null) {
+			luaValueProxyRef.previous.next = luaValueProxyRef.next;
+		} else {
+			proxyRefs = luaValueProxyRef.next;
+		}
+		if (luaValueProxyRef.next != null) {
+			luaValueProxyRef.next.previous = luaValueProxyRef.previous;
 		}
+		luaValueProxyRef.previous = null;
+		luaValueProxyRef.next = null;
+		proxyCount--;
 	}
 
 	/**
 	 * Creates a Lua runtime exception to indicate an argument type error.
 	 */
-	private LuaRuntimeException getArgTypeException(int index, LuaType type) {
+	LuaRuntimeException getArgTypeException(int index, LuaType type) {
 		return getArgException(index, String
 				.format("expected %s, got %s", type.toString().toLowerCase(),
 						type(index).toString().toLowerCase()));
@@ -2054,47 +2672,47 @@ public class LuaState {
 
 	private native void lua_dump(OutputStream outputStream) throws IOException;
 
-	private native void lua_pcall(int nargs, int nresults);
+	native void lua_pcall(int nargs, int nresults);
 
-	private native void lua_getglobal(String name);
+	native void lua_getglobal(String name);
 
-	private native void lua_setglobal(String name);
+	native void lua_setglobal(String name);
 
-	private native void lua_pushboolean(int b);
+	native void lua_pushboolean(int b);
 
-	private native void lua_pushinteger(int n);
+	native void lua_pushinteger(int n);
 
-	private native void lua_pushjavafunction(JavaFunction f);
+	native void lua_pushjavafunction(JavaFunction f);
 
 	private native void lua_pushjavaobject(Object object);
 
-	private native void lua_pushnil();
+	native void lua_pushnil();
 
-	private native void lua_pushnumber(double n);
+	native void lua_pushnumber(double n);
 
-	private native void lua_pushstring(String s);
+	native void lua_pushstring(String s);
 
-	private native int lua_isboolean(int index);
+	native int lua_isboolean(int index);
 
 	private native int lua_iscfunction(int index);
 
-	private native int lua_isfunction(int index);
+	native int lua_isfunction(int index);
 
 	private native int lua_isjavafunction(int index);
 
 	private native int lua_isjavaobject(int index);
 
-	private native int lua_isnil(int index);
+	native int lua_isnil(int index);
 
 	private native int lua_isnone(int index);
 
-	private native int lua_isnoneornil(int index);
+	native int lua_isnoneornil(int index);
 
-	private native int lua_isnumber(int index);
+	native int lua_isnumber(int index);
 
-	private native int lua_isstring(int index);
+	native int lua_isstring(int index);
 
-	private native int lua_istable(int index);
+	native int lua_istable(int index);
 
 	private native int lua_isthread(int index);
 
@@ -2106,61 +2724,61 @@ public class LuaState {
 
 	private native int lua_rawequal(int index1, int index2);
 
-	private native int lua_toboolean(int index);
+	native int lua_toboolean(int index);
 
-	private native int lua_tointeger(int index);
+	native int lua_tointeger(int index);
 
 	private native JavaFunction lua_tojavafunction(int index);
 
 	private native Object lua_tojavaobject(int index);
 
-	private native double lua_tonumber(int index);
+	native double lua_tonumber(int index);
 
 	private native long lua_topointer(int index);
 
-	private native String lua_tostring(int index);
+	native String lua_tostring(int index);
 
 	private native void lua_concat(int n);
 
-	private native int lua_gettop();
+	native int lua_gettop();
 
-	private native void lua_insert(int index);
+	native void lua_insert(int index);
 
-	private native void lua_pop(int n);
+	native void lua_pop(int n);
 
-	private native void lua_pushvalue(int index);
+	native void lua_pushvalue(int index);
 
-	private native void lua_remove(int index);
+	native void lua_remove(int index);
 
-	private native void lua_replace(int index);
+	native void lua_replace(int index);
 
-	private native void lua_settop(int index);
+	native void lua_settop(int index);
 
-	private native int lua_type(int index);
+	native int lua_type(int index);
 
-	private native void lua_createtable(int narr, int nrec);
+	native void lua_createtable(int narr, int nrec);
 
 	private native String lua_findtable(int idx, String fname, int szhint);
 
-	private native void lua_gettable(int index);
+	native void lua_gettable(int index);
 
-	private native void lua_getfield(int index, String k);
+	native void lua_getfield(int index, String k);
 
-	private native void lua_newtable();
+	native void lua_newtable();
 
-	private native int lua_next(int index);
+	native int lua_next(int index);
 
-	private native void lua_rawget(int index);
+	native void lua_rawget(int index);
 
-	private native void lua_rawgeti(int index, int n);
+	native void lua_rawgeti(int index, int n);
 
-	private native void lua_rawset(int index);
+	native void lua_rawset(int index);
 
-	private native void lua_rawseti(int index, int n);
+	native void lua_rawseti(int index, int n);
 
-	private native void lua_settable(int index);
+	native void lua_settable(int index);
 
-	private native void lua_setfield(int index, String k);
+	native void lua_setfield(int index, String k);
 
 	private native int lua_getmetatable(int index);
 
@@ -2310,6 +2928,8 @@ public class LuaState {
 			PhantomReference<LuaValueProxyImpl> {
 		// -- State
 		private int reference;
+		private LuaValueProxyRef previous;
+		private LuaValueProxyRef next;
 
 		// --Construction
 		/**
@@ -2342,7 +2962,7 @@ public class LuaState {
 		 */
 		public LuaValueProxyImpl(int reference) {
 			this.reference = reference;
-			proxySet.add(new LuaValueProxyRef(this, reference));
+			linkProxyRef(new LuaValueProxyRef(this, reference));
 		}
 
 		// -- LuaProxy methods
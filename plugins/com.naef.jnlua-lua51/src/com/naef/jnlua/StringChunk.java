@@ -0,0 +1,114 @@
+/*
+ * $Id$
+ * See LICENSE.txt for license terms.
+ */
+
+package com.naef.jnlua;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Pre-compiled binary chunk of a Lua function returning a string constant.
+ *
+ * <p>
+ * Loading a binary chunk moves bytes as is from Java to Lua, whereas strings
+ * cross JNI in modified UTF-8. A chunk is made of a prefix, the bytes of the
+ * string, and a suffix. The layout of the chunk depends on the sizes and the
+ * byte order of the Lua library, as given by the header of a dumped chunk.
+ * </p>
+ */
+class StringChunk {
+	// -- Static
+	private static final int HEADER_SIZE = 12;
+	private static final int ENDIANNESS = 6;
+	private static final int SIZEOF_INT = 7;
+	private static final int SIZEOF_SIZE_T = 8;
+	private static final int SIZEOF_INSTRUCTION = 9;
+	private static final int VARARG_ISVARARG = 2;
+	private static final int LUA_TSTRING = 4;
+
+	/**
+	 * <code>LOADK 0 0</code>, loads the string constant in register 0.
+	 */
+	private static final int LOADK = 1;
+
+	/**
+	 * <code>RETURN 0 2</code>, returns register 0.
+	 */
+	private static final int RETURN = 30 | 2 << 23;
+
+	// -- State
+	private byte[] header;
+	private boolean littleEndian;
+	private int intSize;
+	private int sizeTSize;
+	private byte[] suffix;
+
+	// -- Construction
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param dump
+	 *            a binary chunk dumped by the Lua library, only its header is
+	 *            read
+	 */
+	public StringChunk(byte[] dump) {
+		if (dump.length < HEADER_SIZE || dump[SIZEOF_INSTRUCTION] != 4) {
+			throw new IllegalArgumentException("unsupported chunk header");
+		}
+		header = Arrays.copyOf(dump, HEADER_SIZE);
+		littleEndian = header[ENDIANNESS] != 0;
+		intSize = header[SIZEOF_INT];
+		sizeTSize = header[SIZEOF_SIZE_T];
+
+		// String terminator, then no prototypes and no debug information
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(0);
+		for (int i = 0; i < 4; i++) {
+			write(out, 0, intSize);
+		}
+		suffix = out.toByteArray();
+	}
+
+	// -- Methods
+	/**
+	 * Returns the bytes preceding a string of the specified length.
+	 */
+	public byte[] getPrefix(int length) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header, 0, header.length);
+		write(out, 0, sizeTSize); // no source
+		write(out, 0, intSize); // line defined
+		write(out, 0, intSize); // last line defined
+		out.write(0); // upvalues
+		out.write(0); // parameters
+		out.write(VARARG_ISVARARG);
+		out.write(2); // stack size
+		write(out, 2, intSize);
+		write(out, LOADK, 4);
+		write(out, RETURN, 4);
+		write(out, 1, intSize);
+		out.write(LUA_TSTRING);
+		write(out, length + 1L, sizeTSize);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns the bytes following the string.
+	 */
+	public byte[] getSuffix() {
+		return suffix;
+	}
+
+	// -- Private methods
+	/**
+	 * Writes an integer of the specified size in the byte order of the chunk.
+	 */
+	private void write(ByteArrayOutputStream out, long value, int size) {
+		for (int i = 0; i < size; i++) {
+			int shift = 8 * (littleEndian ? i : size - 1 - i);
+			out.write(shift < 64 ? (int) (value >>> shift) : 0);
+		}
+	}
+}
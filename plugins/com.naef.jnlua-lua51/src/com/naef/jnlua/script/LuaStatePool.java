@@ -0,0 +1,296 @@
+/*
+ * $Id$
+ * See LICENSE.txt for license terms.
+ */
+
+package com.naef.jnlua.script;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.naef.jnlua.LuaState;
+
+/**
+ * Pool of Lua states leased by the pooled script engines of a factory. A Lua
+ * state is leased for the duration of one invocation. When it is returned, its
+ * stack is cleared and its global variables are reset.
+ *
+ * <p>
+ * Global variables are reset to their values after the Lua state was
+ * initialized, including the init scripts of this pool. The reset is shallow:
+ * variables added by a script are removed and variables replaced by a script
+ * are restored, but changes made inside tables, such as library tables, are
+ * kept.
+ * </p>
+ *
+ * <p>
+ * The pool is thread safe.
+ * </p>
+ */
+public class LuaStatePool {
+	// -- Static
+	/**
+	 * Registry key of the reset function.
+	 */
+	private static final String RESET_FUNCTION = "com.naef.jnlua.script.Reset";
+
+	/**
+	 * Captures global variables and returns the reset function.
+	 */
+	private static final String RESET_CHUNK = "local G, next = _G, next\n"
+			+ "local rawget, rawset = rawget, rawset\n"
+			+ "local getmetatable, setmetatable = getmetatable, setmetatable\n"
+			+ "local metatable, baseline = getmetatable(G), {}\n"
+			+ "for k, v in next, G do baseline[k] = v end\n"
+			+ "return function ()\n"
+			+ "  setmetatable(G, metatable)\n"
+			+ "  for k in next, G do\n"
+			+ "    if baseline[k] == nil then rawset(G, k, nil) end\n"
+			+ "  end\n"
+			+ "  for k, v in next, baseline do\n"
+			+ "    if rawget(G, k) ~= v then rawset(G, k, v) end\n"
+			+ "  end\n"
+			+ "end";
+
+	// -- State
+	private final int capacity;
+	private final Deque<LuaState> idle = new ArrayDeque<LuaState>();
+	private final Map<LuaState, Integer> initCounts = new HashMap<LuaState, Integer>();
+	private final List<String> initScripts = new CopyOnWriteArrayList<String>();
+	private int size;
+	private long leaseCount;
+	private long waitCount;
+	private long createCount;
+	private long discardCount;
+
+	// -- Construction
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param capacity
+	 *            the maximum number of Lua states
+	 * @param prewarmCount
+	 *            the number of Lua states created at once
+	 */
+	public LuaStatePool(int capacity, int prewarmCount) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("illegal capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		for (int i = 0; i < Math.min(prewarmCount, capacity); i++) {
+			LuaState luaState = createLuaState();
+			synchronized (this) {
+				size++;
+				initCounts.put(luaState, Integer.valueOf(0));
+				idle.addLast(luaState);
+			}
+		}
+	}
+
+	// -- Properties
+	/**
+	 * Returns the maximum number of Lua states.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of Lua states of this pool, leased or idle.
+	 *
+	 * @return the number of Lua states
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of idle Lua states.
+	 *
+	 * @return the number of idle Lua states
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Returns the number of leases so far.
+	 *
+	 * @return the number of leases
+	 */
+	public synchronized long getLeaseCount() {
+		return leaseCount;
+	}
+
+	/**
+	 * Returns the number of leases which waited for a Lua state to be
+	 * returned, as the pool was at capacity.
+	 *
+	 * @return the number of leases which waited
+	 */
+	public synchronized long getWaitCount() {
+		return waitCount;
+	}
+
+	/**
+	 * Returns the number of Lua states created so far.
+	 *
+	 * @return the number of Lua states created
+	 */
+	public synchronized long getCreateCount() {
+		return createCount;
+	}
+
+	/**
+	 * Returns the number of Lua states closed so far, as they failed to
+	 * initialize or to reset.
+	 *
+	 * @return the number of Lua states discarded
+	 */
+	public synchronized long getDiscardCount() {
+		return discardCount;
+	}
+
+	// -- Methods
+	/**
+	 * Adds a script run in every Lua state before it is leased, for instance
+	 * to define the functions invoked through a pooled script engine. Lua
+	 * states already created run it before their next lease.
+	 *
+	 * @param script
+	 *            the Lua source
+	 */
+	public void addInitScript(String script) {
+		if (script == null) {
+			throw new NullPointerException();
+		}
+		initScripts.add(script);
+	}
+
+	// -- Package private methods
+	/**
+	 * Leases a Lua state, waiting for one to be returned if the pool is at
+	 * capacity.
+	 */
+	LuaState lease() throws InterruptedException {
+		LuaState luaState;
+		int initCount;
+		synchronized (this) {
+			leaseCount++;
+			if (idle.isEmpty() && size >= capacity) {
+				waitCount++;
+				do {
+					wait();
+				} while (idle.isEmpty() && size >= capacity);
+			}
+			luaState = idle.pollLast();
+			if (luaState != null) {
+				initCount = initCounts.get(luaState).intValue();
+			} else {
+				size++;
+				initCount = 0;
+			}
+		}
+		try {
+			if (luaState == null) {
+				luaState = createLuaState();
+			}
+			initCount = init(luaState, initCount);
+		} catch (RuntimeException e) {
+			discard(luaState);
+			throw e;
+		}
+		synchronized (this) {
+			initCounts.put(luaState, Integer.valueOf(initCount));
+		}
+		return luaState;
+	}
+
+	/**
+	 * Resets a leased Lua state and returns it to the pool.
+	 */
+	void release(LuaState luaState) {
+		try {
+			luaState.setTop(0);
+			luaState.getField(LuaState.REGISTRYINDEX, RESET_FUNCTION);
+			luaState.call(0, 0);
+		} catch (RuntimeException e) {
+			discard(luaState);
+			return;
+		}
+		synchronized (this) {
+			idle.addLast(luaState);
+			notify();
+		}
+	}
+
+	// -- Private methods
+	/**
+	 * Creates a Lua state and captures its global variables.
+	 */
+	private LuaState createLuaState() {
+		LuaState luaState = LuaScriptEngine.createLuaState();
+		try {
+			captureGlobals(luaState);
+		} catch (RuntimeException e) {
+			luaState.close();
+			throw e;
+		}
+		synchronized (this) {
+			createCount++;
+		}
+		return luaState;
+	}
+
+	/**
+	 * Runs the init scripts a Lua state has not run yet, and captures its
+	 * global variables again.
+	 *
+	 * @return the number of init scripts run by the Lua state
+	 */
+	private int init(LuaState luaState, int initCount) {
+		if (initCount == initScripts.size()) {
+			return initCount;
+		}
+		String[] scripts = initScripts.toArray(new String[0]);
+		for (int i = initCount; i < scripts.length; i++) {
+			luaState.load(scripts[i], "init");
+			luaState.call(0, 0);
+		}
+		captureGlobals(luaState);
+		return scripts.length;
+	}
+
+	/**
+	 * Captures the global variables a Lua state is reset to.
+	 */
+	private void captureGlobals(LuaState luaState) {
+		luaState.load(RESET_CHUNK, "reset");
+		luaState.call(0, 1);
+		luaState.setField(LuaState.REGISTRYINDEX, RESET_FUNCTION);
+	}
+
+	/**
+	 * Closes a Lua state which failed to initialize or to reset, and frees its
+	 * place in the pool.
+	 */
+	private void discard(LuaState luaState) {
+		if (luaState != null) {
+			luaState.close();
+		}
+		synchronized (this) {
+			if (luaState != null) {
+				initCounts.remove(luaState);
+			}
+			size--;
+			discardCount++;
+			notify();
+		}
+	}
+}
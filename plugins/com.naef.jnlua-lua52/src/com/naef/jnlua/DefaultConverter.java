@@ -27,6 +27,14 @@ public class DefaultConverter implements Converter {
 			.getProperty(DefaultConverter.class.getPackage().getName()
 					+ ".rawByteArray"));
 
+	/**
+	 * Depth of table snapshots converted to maps and lists, <code>0</code> to
+	 * convert tables to views.
+	 */
+	private static final int TABLE_SNAPSHOT_DEPTH = Integer.getInteger(
+			DefaultConverter.class.getPackage().getName()
+					+ ".tableSnapshotDepth", 0).intValue();
+
 	/**
 	 * Static instance.
 	 */
@@ -269,6 +277,42 @@ public class DefaultConverter implements Converter {
 		}
 	}
 
+	/**
+	 * Lua value converters to <code>Object</code>, by Lua type ordinal.
+	 */
+	private static final LuaValueConverter<?>[] OBJECT_CONVERTERS = new LuaValueConverter<?>[LuaType
+			.values().length];
+	static {
+		OBJECT_CONVERTERS[LuaType.BOOLEAN.ordinal()] = new LuaValueConverter<Boolean>() {
+			@Override
+			public Boolean convert(LuaState luaState, int index) {
+				return Boolean.valueOf(luaState.toBoolean(index));
+			}
+		};
+		OBJECT_CONVERTERS[LuaType.NUMBER.ordinal()] = new LuaValueConverter<Double>() {
+			@Override
+			public Double convert(LuaState luaState, int index) {
+				return Double.valueOf(luaState.toNumber(index));
+			}
+		};
+		OBJECT_CONVERTERS[LuaType.STRING.ordinal()] = new LuaValueConverter<String>() {
+			@Override
+			public String convert(LuaState luaState, int index) {
+				return luaState.toString(index);
+			}
+		};
+	}
+
+	/**
+	 * Nil value converter.
+	 */
+	private static final LuaValueConverter<Object> NIL_CONVERTER = new LuaValueConverter<Object>() {
+		@Override
+		public Object convert(LuaState luaState, int index) {
+			return null;
+		}
+	};
+
 	// -- Static methods
 	/**
 	 * Returns the instance of this class.
@@ -279,6 +323,45 @@ public class DefaultConverter implements Converter {
 		return INSTANCE;
 	}
 
+	/**
+	 * Returns the converter of Lua values of the specified Lua type to the
+	 * specified formal type, if the conversion only depends on the Lua type.
+	 * Callers knowing the Lua types of values ahead, such as the Java
+	 * reflector for a call signature, can then convert values without looking
+	 * up converters each time.
+	 * 
+	 * @param luaType
+	 *            the Lua type
+	 * @param formalType
+	 *            the formal Java type
+	 * @return the converter, or <code>null</code> if the conversion depends on
+	 *         the value
+	 */
+	static LuaValueConverter<?> getLuaValueConverter(LuaType luaType,
+			Class<?> formalType) {
+		if (formalType == Void.TYPE || formalType == LuaValueProxy.class) {
+			return null;
+		}
+		switch (luaType) {
+		case NIL:
+			return NIL_CONVERTER;
+		case BOOLEAN:
+		case NUMBER:
+		case STRING:
+			LuaValueConverter<?> luaValueConverter = LUA_VALUE_CONVERTERS
+					.get(formalType);
+			if (luaValueConverter != null) {
+				return luaValueConverter;
+			}
+			if (formalType == Object.class) {
+				return OBJECT_CONVERTERS[luaType.ordinal()];
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
 	// -- Construction
 	/**
 	 * Singleton.
@@ -431,6 +514,16 @@ public class DefaultConverter implements Converter {
 			}
 			break;
 		case TABLE:
+			if (TABLE_SNAPSHOT_DEPTH > 0) {
+				if (formalType == Map.class) {
+					return (T) luaState.toMapSnapshot(index,
+							TABLE_SNAPSHOT_DEPTH);
+				}
+				if (formalType == List.class) {
+					return (T) luaState.toListSnapshot(index,
+							TABLE_SNAPSHOT_DEPTH);
+				}
+			}
 			if (formalType == Map.class || formalType == Object.class) {
 				final LuaValueProxy luaValueProxy = luaState.getProxy(index);
 				return (T) new AbstractTableMap<Object>() {
@@ -556,7 +649,7 @@ public class DefaultConverter implements Converter {
 	/**
 	 * Converts Lua values.
 	 */
-	private interface LuaValueConverter<T> {
+	interface LuaValueConverter<T> {
 		/**
 		 * Converts a Lua value to a Java object.
 		 */
@@ -26,8 +26,8 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.Map.Entry;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Default implementation of the <code>JavaReflector</code> interface.
@@ -39,10 +39,8 @@ public class DefaultJavaReflector implements JavaReflector {
 	private static final Object[] EMPTY_ARGUMENTS = new Object[0];
 
 	// -- State
-	private Map<Class<?>, Map<String, Accessor>> accessors = new HashMap<Class<?>, Map<String, Accessor>>();
-	private ReadWriteLock accessorLock = new ReentrantReadWriteLock();
-	private Map<LuaCallSignature, Invocable> invocableDispatches = new HashMap<LuaCallSignature, Invocable>();
-	private ReadWriteLock invocableDispatchLock = new ReentrantReadWriteLock();
+	private ConcurrentMap<Class<?>, Map<String, Accessor>> accessors = new ConcurrentHashMap<Class<?>, Map<String, Accessor>>();
+	private ConcurrentMap<LuaCallSignature, Invocable> invocableDispatches = new ConcurrentHashMap<LuaCallSignature, Invocable>();
 	private JavaFunction index = new Index();
 	private JavaFunction newIndex = new NewIndex();
 	private JavaFunction equal = new Equal();
@@ -115,29 +113,15 @@ public class DefaultJavaReflector implements JavaReflector {
 	private Map<String, Accessor> getObjectAccessors(Object object) {
 		// Check cache
 		Class<?> clazz = getObjectClass(object);
-		accessorLock.readLock().lock();
-		try {
-			Map<String, Accessor> result = accessors.get(clazz);
-			if (result != null) {
-				return result;
-			}
-		} finally {
-			accessorLock.readLock().unlock();
+		Map<String, Accessor> result = accessors.get(clazz);
+		if (result != null) {
+			return result;
 		}
 
 		// Fill in
-		Map<String, Accessor> result = createClassAccessors(clazz);
-		accessorLock.writeLock().lock();
-		try {
-			if (!accessors.containsKey(clazz)) {
-				accessors.put(clazz, result);
-			} else {
-				result = accessors.get(clazz);
-			}
-		} finally {
-			accessorLock.writeLock().unlock();
-		}
-		return result;
+		result = createClassAccessors(clazz);
+		Map<String, Accessor> existing = accessors.putIfAbsent(clazz, result);
+		return existing != null ? existing : result;
 	}
 
 	/**
@@ -890,6 +874,7 @@ public class DefaultJavaReflector implements JavaReflector {
 		// -- State
 		private Class<?> clazz;
 		private List<Invocable> invocables;
+		private volatile Dispatch lastDispatch;
 
 		// -- Construction
 		/**
@@ -969,35 +954,36 @@ public class DefaultJavaReflector implements JavaReflector {
 			}
 
 			// Invocable dispatch
-			LuaCallSignature luaCallSignature = getLuaCallSignature(luaState);
+			Dispatch dispatch = lastDispatch;
 			Invocable invocable;
-			invocableDispatchLock.readLock().lock();
-			try {
+			if (dispatch != null && dispatch.matches(luaState)) {
+				invocable = dispatch.invocable;
+			} else {
+				LuaCallSignature luaCallSignature = getLuaCallSignature(luaState);
 				invocable = invocableDispatches.get(luaCallSignature);
-			} finally {
-				invocableDispatchLock.readLock().unlock();
-			}
-			if (invocable == null) {
-				invocable = dispatchInvocable(luaState, object == null);
-				invocableDispatchLock.writeLock().lock();
-				try {
-					if (!invocableDispatches.containsKey(luaCallSignature)) {
-						invocableDispatches.put(luaCallSignature, invocable);
-					} else {
-						invocable = invocableDispatches.get(luaCallSignature);
+				if (invocable == null) {
+					invocable = dispatchInvocable(luaState, object == null);
+					Invocable existing = invocableDispatches.putIfAbsent(
+							luaCallSignature, invocable);
+					if (existing != null) {
+						invocable = existing;
 					}
-				} finally {
-					invocableDispatchLock.writeLock().unlock();
 				}
+				dispatch = new Dispatch(luaCallSignature.types, invocable);
+				lastDispatch = dispatch;
 			}
 
 			// Prepare arguments
+			DefaultConverter.LuaValueConverter<?>[] converters = null;
+			if (luaState.getConverter() == DefaultConverter.getInstance()) {
+				converters = dispatch.converters;
+			}
 			int argCount = luaState.getTop() - 1;
 			int parameterCount = invocable.getParameterCount();
 			Object[] arguments = new Object[parameterCount];
 			if (invocable.isVarArgs()) {
 				for (int i = 0; i < parameterCount - 1; i++) {
-					arguments[i] = luaState.toJavaObject(i + 2,
+					arguments[i] = toJavaObject(luaState, converters, i,
 							invocable.getParameterType(i));
 				}
 				arguments[parameterCount - 1] = Array.newInstance(
@@ -1007,12 +993,12 @@ public class DefaultJavaReflector implements JavaReflector {
 					Array.set(
 							arguments[parameterCount - 1],
 							i - (parameterCount - 1),
-							luaState.toJavaObject(i + 2,
+							toJavaObject(luaState, converters, i,
 									invocable.getParameterType(i)));
 				}
 			} else {
 				for (int i = 0; i < parameterCount; i++) {
-					arguments[i] = luaState.toJavaObject(i + 2,
+					arguments[i] = toJavaObject(luaState, converters, i,
 							invocable.getParameterType(i));
 				}
 			}
@@ -1045,6 +1031,20 @@ public class DefaultJavaReflector implements JavaReflector {
 		}
 
 		// -- Private methods
+		/**
+		 * Converts a call argument to a Java object, with the converter
+		 * resolved by the dispatch if there is one.
+		 */
+		private Object toJavaObject(LuaState luaState,
+				DefaultConverter.LuaValueConverter<?>[] converters,
+				int argument, Class<?> formalType) {
+			if (converters != null && argument < converters.length
+					&& converters[argument] != null) {
+				return converters[argument].convert(luaState, argument + 2);
+			}
+			return luaState.toJavaObject(argument + 2, formalType);
+		}
+
 		/**
 		 * Creates a Lua call signature.
 		 */
@@ -1052,27 +1052,7 @@ public class DefaultJavaReflector implements JavaReflector {
 			int argCount = luaState.getTop() - 1;
 			Object[] types = new Object[argCount];
 			for (int i = 0; i < argCount; i++) {
-				LuaType type = luaState.type(i + 2);
-				switch (type) {
-				case FUNCTION:
-					types[i] = luaState.isJavaFunction(i + 2) ? JAVA_FUNCTION_TYPE
-							: LuaType.FUNCTION;
-					break;
-				case USERDATA:
-					if (luaState.isJavaObjectRaw(i + 2)) {
-						Object object = luaState.toJavaObjectRaw(i + 2);
-						if (object instanceof TypedJavaObject) {
-							types[i] = ((TypedJavaObject) object).getType();
-						} else {
-							types[i] = object.getClass();
-						}
-					} else {
-						types[i] = LuaType.USERDATA;
-					}
-					break;
-				default:
-					types[i] = type;
-				}
+				types[i] = getLuaCallType(luaState, i + 2);
 			}
 			return new LuaCallSignature(clazz, getName(), types);
 		}
@@ -1438,6 +1418,13 @@ public class DefaultJavaReflector implements JavaReflector {
 		public InvocableMethod(Method method) {
 			this.method = method;
 			this.parameterTypes = method.getParameterTypes();
+			try {
+				// Skip access checks on invocation, the method is public
+				method.setAccessible(true);
+			} catch (RuntimeException e) {
+				// Access is checked on invocation, a security manager or a
+				// module boundary (InaccessibleObjectException) may deny it
+			}
 		}
 
 		@Override
@@ -1522,6 +1509,13 @@ public class DefaultJavaReflector implements JavaReflector {
 		public InvocableConstructor(Constructor<?> constructor) {
 			this.constructor = constructor;
 			this.parameterTypes = constructor.getParameterTypes();
+			try {
+				// Skip access checks on invocation, the constructor is public
+				constructor.setAccessible(true);
+			} catch (RuntimeException e) {
+				// Access is checked on invocation, a security manager or a
+				// module boundary (InaccessibleObjectException) may deny it
+			}
 		}
 
 		@Override
@@ -1676,6 +1670,80 @@ public class DefaultJavaReflector implements JavaReflector {
 		}
 	}
 
+	/**
+	 * Returns the type of a Lua call argument, as found in a Lua call
+	 * signature.
+	 */
+	private static Object getLuaCallType(LuaState luaState, int index) {
+		LuaType type = luaState.type(index);
+		switch (type) {
+		case FUNCTION:
+			return luaState.isJavaFunction(index) ? JAVA_FUNCTION_TYPE
+					: LuaType.FUNCTION;
+		case USERDATA:
+			if (luaState.isJavaObjectRaw(index)) {
+				Object object = luaState.toJavaObjectRaw(index);
+				if (object instanceof TypedJavaObject) {
+					return ((TypedJavaObject) object).getType();
+				} else {
+					return object.getClass();
+				}
+			}
+			return LuaType.USERDATA;
+		default:
+			return type;
+		}
+	}
+
+	/**
+	 * Invocable dispatched for the argument types of a Lua call. An invocable
+	 * accessor keeps its last dispatch, as a call site mostly passes the same
+	 * argument types, which spares building a Lua call signature. The dispatch
+	 * also holds the default converters of its arguments whose conversion
+	 * only depends on their Lua type.
+	 */
+	private static class Dispatch {
+		// -- State
+		private Object[] types;
+		private Invocable invocable;
+		private DefaultConverter.LuaValueConverter<?>[] converters;
+
+		// -- Construction
+		/**
+		 * Creates a new instance.
+		 */
+		public Dispatch(Object[] types, Invocable invocable) {
+			this.types = types;
+			this.invocable = invocable;
+			converters = new DefaultConverter.LuaValueConverter<?>[types.length];
+			for (int i = 0; i < types.length; i++) {
+				if (types[i] instanceof LuaType
+						&& (invocable.isVarArgs() || i < invocable
+								.getParameterCount())) {
+					converters[i] = DefaultConverter.getLuaValueConverter(
+							(LuaType) types[i], invocable.getParameterType(i));
+				}
+			}
+		}
+
+		// -- Methods
+		/**
+		 * Returns whether the arguments of a Lua call have the types of this
+		 * dispatch.
+		 */
+		public boolean matches(LuaState luaState) {
+			if (luaState.getTop() - 1 != types.length) {
+				return false;
+			}
+			for (int i = 0; i < types.length; i++) {
+				if (getLuaCallType(luaState, i + 2) != types[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 	/**
 	 * Lua call signature.
 	 */
@@ -14,8 +14,10 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.naef.jnlua.JavaReflector.Metamethod;
 
@@ -141,6 +143,20 @@ public class LuaState {
 	 */
 	private static final int APIVERSION = 3;
 
+
+	/**
+	 * Registry key of the function dumping chunks with
+	 * <code>string.dump</code>. The native dump writer corrupts memory when it
+	 * is handed blocks of more than about 1 KB.
+	 */
+	private static final String DUMP_FUNCTION = "com.naef.jnlua.Dump";
+
+	/**
+	 * Creates the dump function.
+	 */
+	private static final String DUMP_CHUNK = "local dump = string.dump\n"
+			+ "return function (f) return dump(f) end";
+
 	// -- State
 	/**
 	 * Whether the <code>lua_State</code> on the JNI side is owned by the Java
@@ -189,9 +205,31 @@ public class LuaState {
 	private Converter converter;
 
 	/**
-	 * Set of Lua proxy phantom references for pre-mortem cleanup.
+	 * Lua proxy phantom references for pre-mortem cleanup, as a doubly linked
+	 * list. Listed references are strongly reachable until they are cleaned
+	 * up.
+	 */
+	private LuaValueProxyRef proxyRefs;
+
+	/**
+	 * Number of live Lua value proxies.
+	 */
+	private int proxyCount;
+
+	/**
+	 * Maximum number of live Lua value proxies.
+	 */
+	private int proxyBudget = Integer.MAX_VALUE;
+
+	/**
+	 * Maximum number of bytes in use after a call, <code>0</code> for none.
+	 */
+	private long memoryLimit;
+
+	/**
+	 * Highest number of bytes in use sampled.
 	 */
-	private Set<LuaValueProxyRef> proxySet = new HashSet<LuaValueProxyRef>();
+	private long peakMemoryUsage;
 
 	/**
 	 * Reference queue for pre-mortem cleanup.
@@ -381,6 +419,58 @@ public class LuaState {
 		this.converter = converter;
 	}
 
+	/**
+	 * Returns the number of live Lua value proxies of this Lua state. A proxy
+	 * is live until it has been garbage collected and its Lua value has been
+	 * released. Released values are released in batches by the next
+	 * operation on this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the number of live Lua value proxies
+	 */
+	public synchronized int getProxyCount() {
+		return proxyCount;
+	}
+
+	/**
+	 * Returns the maximum number of live Lua value proxies of this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the proxy budget
+	 * @see #setProxyBudget(int)
+	 */
+	public synchronized int getProxyBudget() {
+		return proxyBudget;
+	}
+
+	/**
+	 * Sets the maximum number of live Lua value proxies of this Lua state. Once
+	 * the budget is reached, creating a proxy throws an
+	 * <code>IllegalStateException</code>. By default, the number of proxies is
+	 * not limited.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @param proxyBudget
+	 *            the proxy budget
+	 * @see #getProxyCount()
+	 */
+	public synchronized void setProxyBudget(int proxyBudget) {
+		if (proxyBudget < 0) {
+			throw new IllegalArgumentException("illegal proxy budget: "
+					+ proxyBudget);
+		}
+		this.proxyBudget = proxyBudget;
+	}
+
 	// -- Life cycle
 	/**
 	 * Returns whether this Lua state is open.
@@ -404,6 +494,7 @@ public class LuaState {
 	 * </p>
 	 */
 	public synchronized void close() {
+		checkAccess();
 		closeInternal();
 	}
 
@@ -422,6 +513,74 @@ public class LuaState {
 		return lua_gc(what.ordinal(), data);
 	}
 
+	// -- Memory
+	/**
+	 * Returns the number of bytes in use by this Lua state.
+	 * 
+	 * @return the memory usage, in bytes
+	 */
+	public synchronized long getMemoryUsage() {
+		check();
+		return sampleMemoryUsage();
+	}
+
+	/**
+	 * Returns the highest number of bytes in use by this Lua state, as sampled
+	 * at the end of each call when a memory limit is set, and by
+	 * {@link #getMemoryUsage()}.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the peak memory usage, in bytes
+	 */
+	public synchronized long getPeakMemoryUsage() {
+		return peakMemoryUsage;
+	}
+
+	/**
+	 * Returns the memory limit of this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the memory limit, in bytes, or <code>0</code> if there is no
+	 *         limit
+	 * @see #setMemoryLimit(long)
+	 */
+	public synchronized long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * Sets the memory limit of this Lua state. The limit is checked at the end
+	 * of each call. If it is exceeded, a full garbage collection cycle is
+	 * performed, and if it is still exceeded, the call throws a
+	 * <code>LuaMemoryAllocationException</code>. The values returned by the
+	 * call are popped from the stack.
+	 * 
+	 * <p>
+	 * The native library does not let Lua allocations be tracked, so a call
+	 * is not interrupted when it exceeds the limit, it fails when it returns.
+	 * </p>
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @param memoryLimit
+	 *            the memory limit, in bytes, or <code>0</code> for no limit
+	 */
+	public synchronized void setMemoryLimit(long memoryLimit) {
+		if (memoryLimit < 0) {
+			throw new IllegalArgumentException("illegal memory limit: "
+					+ memoryLimit);
+		}
+		this.memoryLimit = memoryLimit;
+	}
+
 	// -- Registration
 	/**
 	 * Opens the specified library in this Lua state. The library is pushed onto
@@ -555,6 +714,11 @@ public class LuaState {
 	 * Dumps the function on top of the stack as a pre-compiled binary chunk
 	 * into an output stream.
 	 * 
+	 * <p>
+	 * The function is dumped by <code>string.dump</code> if the string library
+	 * is open, and by the native dump writer otherwise.
+	 * </p>
+	 * 
 	 * @param outputStream
 	 *            the output stream
 	 * @throws IOException
@@ -562,7 +726,17 @@ public class LuaState {
 	 */
 	public synchronized void dump(OutputStream outputStream) throws IOException {
 		check();
-		lua_dump(outputStream);
+		if (!pushDumpFunction()) {
+			lua_dump(outputStream);
+			return;
+		}
+		lua_pushvalue(-2);
+		lua_pcall(1, 1);
+		try {
+			outputStream.write(lua_tobytearray(-1));
+		} finally {
+			lua_pop(1);
+		}
 	}
 
 	// -- Call
@@ -582,7 +756,9 @@ public class LuaState {
 	 */
 	public synchronized void call(int argCount, int returnCount) {
 		check();
+		int base = lua_gettop() - argCount - 1;
 		lua_pcall(argCount, returnCount);
+		checkMemory(base);
 	}
 
 	// -- Globals
@@ -1770,6 +1946,116 @@ public class LuaState {
 		lua_tablemove(index, from, to, count);
 	}
 
+	/**
+	 * Pushes several values on the stack, in order. Strings, booleans,
+	 * integers, doubles, Java functions and <code>null</code> are pushed as by
+	 * the corresponding push method. Other values are processed by the
+	 * configured converter.
+	 * 
+	 * <p>
+	 * The method provides optimized performance over pushing values one by one
+	 * as the Lua state is locked and checked once.
+	 * </p>
+	 * 
+	 * @param values
+	 *            the values to push
+	 * @see #pushJavaObject(Object)
+	 */
+	public synchronized void pushValues(Object... values) {
+		check();
+		for (Object value : values) {
+			if (value == null) {
+				lua_pushnil();
+			} else if (value instanceof String) {
+				lua_pushstring((String) value);
+			} else if (value instanceof Boolean) {
+				lua_pushboolean(((Boolean) value).booleanValue() ? 1 : 0);
+			} else if (value instanceof Integer) {
+				lua_pushinteger(((Integer) value).intValue());
+			} else if (value instanceof Double) {
+				lua_pushnumber(((Double) value).doubleValue());
+			} else if (value instanceof JavaFunction) {
+				lua_pushjavafunction((JavaFunction) value);
+			} else {
+				converter.convertJavaObject(this, value);
+			}
+		}
+	}
+
+	/**
+	 * Pushes on the stack the values indexed by the specified string keys in
+	 * the table at the specified index, in order.
+	 * 
+	 * <p>
+	 * The method provides optimized performance over getting fields one by one
+	 * as the Lua state is locked and checked once.
+	 * </p>
+	 * 
+	 * @param index
+	 *            the stack index containing the table
+	 * @param keys
+	 *            the string keys
+	 */
+	public synchronized void getFields(int index, String[] keys) {
+		check();
+		if (index < 0 && index > REGISTRYINDEX) {
+			// Pushed values shift relative indexes
+			index = lua_gettop() + index + 1;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			lua_getfield(index, keys[i]);
+		}
+	}
+
+	/**
+	 * Checks the arguments of a Java function against the types held by the
+	 * specified arguments, and reads their values into it. If an argument does
+	 * not have the expected type, the method throws a Lua runtime exception
+	 * with a descriptive error message.
+	 * 
+	 * <p>
+	 * The method provides optimized performance over checking arguments one by
+	 * one as the Lua state is locked and checked once.
+	 * </p>
+	 * 
+	 * @param arguments
+	 *            the expected types, and the holder of values read
+	 */
+	public synchronized void checkArguments(LuaArguments arguments) {
+		check();
+		for (int i = 1; i <= arguments.size(); i++) {
+			LuaType type = arguments.getType(i);
+			if (type == null) {
+				continue;
+			}
+			switch (type) {
+			case STRING:
+				if (lua_isstring(i) == 0) {
+					throw getArgTypeException(i, type);
+				}
+				arguments.setString(i, lua_tostring(i));
+				break;
+			case NUMBER:
+				if (lua_isnumber(i) == 0) {
+					throw getArgTypeException(i, type);
+				}
+				arguments.setNumber(i, lua_tonumber(i));
+				break;
+			case BOOLEAN:
+				if (lua_isboolean(i) == 0) {
+					throw getArgTypeException(i, type);
+				}
+				arguments.setBoolean(i, lua_toboolean(i) != 0);
+				break;
+			default:
+				if (lua_type(i) != type.ordinal()) {
+					throw getArgTypeException(i, type);
+				}
+				break;
+			}
+		}
+	}
+
 	// -- Argument checking
 	/**
 	 * Checks if a condition is true for the specified function argument. If
@@ -2112,6 +2398,51 @@ public class LuaState {
 		}
 	}
 
+	// -- Snapshot
+	/**
+	 * Returns a copy of the table at the specified stack index as a map.
+	 * Tables nested up to the specified depth are copied as maps as well.
+	 * Other values are converted by the converter of this Lua state, as by
+	 * {@link #toJavaObject(int, Class)} with <code>Object.class</code>.
+	 * 
+	 * <p>
+	 * Unlike the map returned by the converter, which is a view reading the
+	 * Lua table on each access, the copy is made in a single pass while this
+	 * Lua state is locked, and it is not affected by later changes to the
+	 * table. A nested table which is also one of its containing tables is
+	 * copied once, the copy then contains itself.
+	 * </p>
+	 * 
+	 * @param index
+	 *            the stack index containing the table
+	 * @param depth
+	 *            the number of table levels to copy, <code>1</code> to only
+	 *            copy the table at the specified index
+	 * @return the copy of the table
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized Map<Object, Object> toMapSnapshot(int index, int depth) {
+		return (Map<Object, Object>) toSnapshot(index, depth, false);
+	}
+
+	/**
+	 * Returns a copy of the array part of the table at the specified stack
+	 * index as a list, from index <code>1</code> to the length of the table.
+	 * Tables nested up to the specified depth are copied as lists as well.
+	 * Other values are converted as by {@link #toMapSnapshot(int, int)}.
+	 * 
+	 * @param index
+	 *            the stack index containing the table
+	 * @param depth
+	 *            the number of table levels to copy, <code>1</code> to only
+	 *            copy the table at the specified index
+	 * @return the copy of the table
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<Object> toListSnapshot(int index, int depth) {
+		return (List<Object>) toSnapshot(index, depth, true);
+	}
+
 	// -- Proxy
 	/**
 	 * Returns a proxy object for the Lua value at the specified index.
@@ -2121,7 +2452,7 @@ public class LuaState {
 	 * @return the Lua value proxy
 	 */
 	public synchronized LuaValueProxy getProxy(int index) {
-		check();
+		checkProxyBudget();
 		pushValue(index);
 		return new LuaValueProxyImpl(ref(REGISTRYINDEX));
 	}
@@ -2159,7 +2490,7 @@ public class LuaState {
 	 * @return the proxy object
 	 */
 	public synchronized LuaValueProxy getProxy(int index, Class<?>[] interfaces) {
-		check();
+		checkProxyBudget();
 		pushValue(index);
 		if (!isTable(index)) {
 			throw new IllegalArgumentException(String.format(
@@ -2182,6 +2513,35 @@ public class LuaState {
 	}
 
 	// -- Private methods
+	/**
+	 * Pushes the dump function on the stack.
+	 * 
+	 * @return whether the function was pushed, <code>false</code> if the
+	 *         string library is not open
+	 */
+	private boolean pushDumpFunction() {
+		lua_getfield(REGISTRYINDEX, DUMP_FUNCTION);
+		if (lua_isfunction(-1) != 0) {
+			return true;
+		}
+		lua_getglobal("string");
+		boolean open = lua_istable(-1) != 0;
+		lua_pop(2);
+		if (!open) {
+			return false;
+		}
+		try {
+			lua_load(new ByteArrayInputStream(DUMP_CHUNK.getBytes("UTF-8")), "=dump", "t");
+		} catch (IOException e) {
+			// In memory streams do not fail
+			throw new IllegalStateException(e);
+		}
+		lua_pcall(0, 1);
+		lua_pushvalue(-1);
+		lua_setfield(REGISTRYINDEX, DUMP_FUNCTION);
+		return true;
+	}
+
 	/**
 	 * Returns whether this Lua state is open.
 	 */
@@ -2201,27 +2561,211 @@ public class LuaState {
 		}
 	}
 
+	/**
+	 * Copies a table as a map or as a list.
+	 */
+	private Object toSnapshot(int index, int depth, boolean list) {
+		check();
+		if (lua_istable(index) == 0) {
+			throw new IllegalArgumentException(String.format(
+					"index %d is not a table", index));
+		}
+		if (depth < 1) {
+			throw new IllegalArgumentException("illegal depth: " + depth);
+		}
+		if (index < 0 && index > REGISTRYINDEX) {
+			index = lua_gettop() + index + 1;
+		}
+		return snapshotTable(index, depth, list, new ArrayList<Integer>(),
+				new ArrayList<Object>());
+	}
+
+	/**
+	 * Copies a table, given the stack indexes and the copies of its
+	 * containing tables.
+	 */
+	private Object snapshotTable(int index, int depth, boolean list,
+			List<Integer> tableIndexes, List<Object> tableCopies) {
+		int top = lua_gettop();
+		tableIndexes.add(Integer.valueOf(index));
+		try {
+			if (list) {
+				int length = lua_rawlen(index);
+				List<Object> copy = new ArrayList<Object>(length);
+				tableCopies.add(copy);
+				for (int i = 1; i <= length; i++) {
+					lua_rawgeti(index, i);
+					copy.add(snapshotValue(top + 1, depth, list, tableIndexes,
+							tableCopies));
+					lua_pop(1);
+				}
+				return copy;
+			} else {
+				Map<Object, Object> copy = new HashMap<Object, Object>();
+				tableCopies.add(copy);
+				lua_pushnil();
+				while (lua_next(index) != 0) {
+					Object key = snapshotValue(top + 1, 1, list, tableIndexes,
+							tableCopies);
+					copy.put(key, snapshotValue(top + 2, depth, list,
+							tableIndexes, tableCopies));
+					lua_pop(1);
+				}
+				return copy;
+			}
+		} finally {
+			lua_settop(top);
+			tableIndexes.remove(tableIndexes.size() - 1);
+			tableCopies.remove(tableCopies.size() - 1);
+		}
+	}
+
+	/**
+	 * Copies a value found in a table.
+	 */
+	private Object snapshotValue(int index, int depth, boolean list,
+			List<Integer> tableIndexes, List<Object> tableCopies) {
+		int type = lua_type(index);
+		if (type == LuaType.TABLE.ordinal() && depth > 1) {
+			for (int i = 0; i < tableIndexes.size(); i++) {
+				if (lua_rawequal(tableIndexes.get(i).intValue(), index) != 0) {
+					return tableCopies.get(i);
+				}
+			}
+			return snapshotTable(index, depth - 1, list, tableIndexes,
+					tableCopies);
+		}
+		if (converter == DefaultConverter.getInstance()) {
+			if (type == LuaType.NUMBER.ordinal()) {
+				return Double.valueOf(lua_tonumber(index));
+			}
+			if (type == LuaType.STRING.ordinal()) {
+				return lua_tostring(index);
+			}
+			if (type == LuaType.BOOLEAN.ordinal()) {
+				return Boolean.valueOf(lua_toboolean(index) != 0);
+			}
+		}
+		return converter.convertLuaValue(this, index, Object.class);
+	}
+
+	/**
+	 * Returns the number of bytes in use, and updates the peak memory usage.
+	 */
+	private long sampleMemoryUsage() {
+		long memoryUsage = lua_gc(GcAction.COUNT.ordinal(), 0) * 1024L
+				+ lua_gc(GcAction.COUNTB.ordinal(), 0);
+		if (memoryUsage > peakMemoryUsage) {
+			peakMemoryUsage = memoryUsage;
+		}
+		return memoryUsage;
+	}
+
+	/**
+	 * Checks the memory limit after a call, which left its return values above
+	 * the specified stack index. They are popped when the limit is exceeded.
+	 */
+	void checkMemory(int base) {
+		if (memoryLimit == 0) {
+			return;
+		}
+		long memoryUsage = sampleMemoryUsage();
+		if (memoryUsage <= memoryLimit) {
+			return;
+		}
+		lua_gc(GcAction.COLLECT.ordinal(), 0);
+		memoryUsage = sampleMemoryUsage();
+		if (memoryUsage > memoryLimit) {
+			lua_settop(base);
+			throw new LuaMemoryAllocationException(String.format(
+					"memory limit of %d bytes exceeded, %d bytes in use",
+					memoryLimit, memoryUsage));
+		}
+	}
+
 	/**
 	 * Checks this Lua state.
 	 */
-	private void check() {
+	void check() {
+		// Check access
+		checkAccess();
+
 		// Check open
 		if (!isOpenInternal()) {
 			throw new IllegalStateException("Lua state is closed");
 		}
 
 		// Check proxy queue
-		LuaValueProxyRef luaValueProxyRef;
-		while ((luaValueProxyRef = (LuaValueProxyRef) proxyQueue.poll()) != null) {
-			proxySet.remove(luaValueProxyRef);
+		LuaValueProxyRef luaValueProxyRef = (LuaValueProxyRef) proxyQueue
+				.poll();
+		if (luaValueProxyRef != null) {
+			cleanupProxies(luaValueProxyRef);
+		}
+	}
+
+	/**
+	 * Checks that the calling thread may access this Lua state. Any thread may
+	 * access a regular Lua state, its methods acquire its monitor.
+	 */
+	void checkAccess() {
+	}
+
+	/**
+	 * Releases the Lua values of garbage collected proxies, starting with the
+	 * specified one, in a single batch. The caller has access to this Lua
+	 * state, as checked by {@link #check()}.
+	 */
+	private void cleanupProxies(LuaValueProxyRef luaValueProxyRef) {
+		do {
+			unlinkProxyRef(luaValueProxyRef);
 			lua_unref(REGISTRYINDEX, luaValueProxyRef.getReference());
+		} while ((luaValueProxyRef = (LuaValueProxyRef) proxyQueue.poll()) != null);
+	}
+
+	/**
+	 * Checks this Lua state, then checks that a proxy can be created.
+	 */
+	private void checkProxyBudget() {
+		check();
+		if (proxyCount >= proxyBudget) {
+			throw new IllegalStateException(String.format(
+					"Lua value proxy budget of %d exhausted", proxyBudget));
+		}
+	}
+
+	/**
+	 * Adds a Lua proxy phantom reference to the list of live proxies.
+	 */
+	private void linkProxyRef(LuaValueProxyRef luaValueProxyRef) {
+		luaValueProxyRef.next = proxyRefs;
+		if (proxyRefs != null) {
+			proxyRefs.previous = luaValueProxyRef;
+		}
+		proxyRefs = luaValueProxyRef;
+		proxyCount++;
+	}
+
+	/**
+	 * Removes a Lua proxy phantom reference from the list of live proxies.
+	 */
+	private void unlinkProxyRef(LuaValueProxyRef luaValueProxyRef) {
+		if (luaValueProxyRef.previous != null) {
+			luaValueProxyRef.previous.next = luaValueProxyRef.next;
+		} else {
+			proxyRefs = luaValueProxyRef.next;
+		}
+		if (luaValueProxyRef.next != null) {
+			luaValueProxyRef.next.previous = luaValueProxyRef.previous;
 		}
+		luaValueProxyRef.previous = null;
+		luaValueProxyRef.next = null;
+		proxyCount--;
 	}
 
 	/**
 	 * Creates a Lua runtime exception to indicate an argument type error.
 	 */
-	private LuaRuntimeException getArgTypeException(int index, LuaType type) {
+	LuaRuntimeException getArgTypeException(int index, LuaType type) {
 		return getArgException(index,
 				String.format("%s expected, got %s", type.toString()
 						.toLowerCase(), type(index).toString().toLowerCase()));
@@ -2281,49 +2825,49 @@ public class LuaState {
 
 	private native void lua_dump(OutputStream outputStream) throws IOException;
 
-	private native void lua_pcall(int nargs, int nresults);
+	native void lua_pcall(int nargs, int nresults);
 
-	private native void lua_getglobal(String name);
+	native void lua_getglobal(String name);
 
-	private native void lua_setglobal(String name);
+	native void lua_setglobal(String name);
 
-	private native void lua_pushboolean(int b);
+	native void lua_pushboolean(int b);
 
 	private native void lua_pushbytearray(byte[] b);
 	
-	private native void lua_pushinteger(int n);
+	native void lua_pushinteger(int n);
 
-	private native void lua_pushjavafunction(JavaFunction f);
+	native void lua_pushjavafunction(JavaFunction f);
 
 	private native void lua_pushjavaobject(Object object);
 
-	private native void lua_pushnil();
+	native void lua_pushnil();
 
-	private native void lua_pushnumber(double n);
+	native void lua_pushnumber(double n);
 
-	private native void lua_pushstring(String s);
+	native void lua_pushstring(String s);
 
-	private native int lua_isboolean(int index);
+	native int lua_isboolean(int index);
 
 	private native int lua_iscfunction(int index);
 
-	private native int lua_isfunction(int index);
+	native int lua_isfunction(int index);
 
 	private native int lua_isjavafunction(int index);
 
 	private native int lua_isjavaobject(int index);
 
-	private native int lua_isnil(int index);
+	native int lua_isnil(int index);
 
 	private native int lua_isnone(int index);
 
-	private native int lua_isnoneornil(int index);
+	native int lua_isnoneornil(int index);
 
-	private native int lua_isnumber(int index);
+	native int lua_isnumber(int index);
 
-	private native int lua_isstring(int index);
+	native int lua_isstring(int index);
 
-	private native int lua_istable(int index);
+	native int lua_istable(int index);
 
 	private native int lua_isthread(int index);
 
@@ -2333,27 +2877,27 @@ public class LuaState {
 
 	private native int lua_rawlen(int index);
 
-	private native int lua_toboolean(int index);
+	native int lua_toboolean(int index);
 
 	private native byte[] lua_tobytearray(int index);
 	
-	private native int lua_tointeger(int index);
+	native int lua_tointeger(int index);
 
-	private native Integer lua_tointegerx(int index);
+	native Integer lua_tointegerx(int index);
 
 	private native JavaFunction lua_tojavafunction(int index);
 
 	private native Object lua_tojavaobject(int index);
 
-	private native double lua_tonumber(int index);
+	native double lua_tonumber(int index);
 
-	private native Double lua_tonumberx(int index);
+	native Double lua_tonumberx(int index);
 
 	private native long lua_topointer(int index);
 
-	private native String lua_tostring(int index);
+	native String lua_tostring(int index);
 
-	private native int lua_type(int index);
+	native int lua_type(int index);
 
 	private native int lua_absindex(int index);
 
@@ -2363,45 +2907,45 @@ public class LuaState {
 
 	private native int lua_copy(int fromIndex, int toIndex);
 
-	private native int lua_gettop();
+	native int lua_gettop();
 
 	private native void lua_len(int index);
 
-	private native void lua_insert(int index);
+	native void lua_insert(int index);
 
-	private native void lua_pop(int n);
+	native void lua_pop(int n);
 
-	private native void lua_pushvalue(int index);
+	native void lua_pushvalue(int index);
 
-	private native void lua_remove(int index);
+	native void lua_remove(int index);
 
-	private native void lua_replace(int index);
+	native void lua_replace(int index);
 
-	private native void lua_settop(int index);
+	native void lua_settop(int index);
 
-	private native void lua_createtable(int narr, int nrec);
+	native void lua_createtable(int narr, int nrec);
 
 	private native int lua_getsubtable(int idx, String fname);
 
-	private native void lua_gettable(int index);
+	native void lua_gettable(int index);
 
-	private native void lua_getfield(int index, String k);
+	native void lua_getfield(int index, String k);
 
-	private native void lua_newtable();
+	native void lua_newtable();
 
-	private native int lua_next(int index);
+	native int lua_next(int index);
 
-	private native void lua_rawget(int index);
+	native void lua_rawget(int index);
 
-	private native void lua_rawgeti(int index, int n);
+	native void lua_rawgeti(int index, int n);
 
-	private native void lua_rawset(int index);
+	native void lua_rawset(int index);
 
-	private native void lua_rawseti(int index, int n);
+	native void lua_rawseti(int index, int n);
 
-	private native void lua_settable(int index);
+	native void lua_settable(int index);
 
-	private native void lua_setfield(int index, String k);
+	native void lua_setfield(int index, String k);
 
 	private native int lua_getmetatable(int index);
 
@@ -2656,6 +3200,8 @@ public class LuaState {
 			PhantomReference<LuaValueProxyImpl> {
 		// -- State
 		private int reference;
+		private LuaValueProxyRef previous;
+		private LuaValueProxyRef next;
 
 		// --Construction
 		/**
@@ -2688,7 +3234,7 @@ public class LuaState {
 		 */
 		public LuaValueProxyImpl(int reference) {
 			this.reference = reference;
-			proxySet.add(new LuaValueProxyRef(this, reference));
+			linkProxyRef(new LuaValueProxyRef(this, reference));
 		}
 
 		// -- LuaProxy methods
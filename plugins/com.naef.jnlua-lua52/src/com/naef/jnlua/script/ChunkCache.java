@@ -0,0 +1,104 @@
+/*
+ * $Id$
+ * See LICENSE.txt for license terms.
+ */
+
+package com.naef.jnlua.script;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of pre-compiled binary chunks, shared by the script engines of
+ * a factory. Chunks are keyed by the content of their source and by their
+ * chunk name. The least recently used chunk is evicted first.
+ */
+class ChunkCache {
+	// -- State
+	private final int capacity;
+	private final Map<Key, byte[]> chunks;
+
+	// -- Construction
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param capacity
+	 *            the maximum number of chunks, <code>0</code> to cache nothing
+	 */
+	public ChunkCache(int capacity) {
+		this.capacity = capacity;
+		chunks = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+				return size() > ChunkCache.this.capacity;
+			}
+		};
+	}
+
+	// -- Properties
+	/**
+	 * Returns the maximum number of chunks.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	// -- Methods
+	/**
+	 * Returns the chunk compiled from a source, or <code>null</code> if it is
+	 * not cached.
+	 */
+	public synchronized byte[] get(String source, String chunkName) {
+		return chunks.get(new Key(source, chunkName));
+	}
+
+	/**
+	 * Caches the chunk compiled from a source.
+	 */
+	public synchronized void put(String source, String chunkName,
+			byte[] chunk) {
+		if (capacity > 0) {
+			chunks.put(new Key(source, chunkName), chunk);
+		}
+	}
+
+	// -- Private classes
+	/**
+	 * Source and chunk name.
+	 */
+	private static class Key {
+		// -- State
+		private final String source;
+		private final String chunkName;
+
+		// -- Construction
+		/**
+		 * Creates a new instance.
+		 */
+		public Key(String source, String chunkName) {
+			this.source = source;
+			this.chunkName = chunkName;
+		}
+
+		// -- Object methods
+		@Override
+		public int hashCode() {
+			return source.hashCode() * 31 + chunkName.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return source.equals(other.source)
+					&& chunkName.equals(other.chunkName);
+		}
+	}
+}
@@ -12,6 +12,8 @@ import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
+import com.naef.jnlua.LuaState;
+
 /**
  * Compiled script implementation conforming to JSR 223: Scripting for the Java
  * Platform.
@@ -33,9 +35,15 @@ class CompiledLuaScript extends CompiledScript {
 	// -- CompiledScript methods
 	@Override
 	public Object eval(ScriptContext context) throws ScriptException {
-		synchronized (engine.getLuaState()) {
-			engine.loadChunk(new ByteArrayInputStream(script), context, "b");
-			return engine.callChunk(context);
+		LuaState luaState = engine.acquireLuaState();
+		try {
+			synchronized (luaState) {
+				engine.loadChunk(luaState, new ByteArrayInputStream(script),
+						context, "b");
+				return engine.callChunk(luaState, context);
+			}
+		} finally {
+			engine.releaseLuaState(luaState);
 		}
 	}
 
@@ -5,15 +5,21 @@
 
 package com.naef.jnlua.script;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,9 +32,12 @@ import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptException;
+import javax.script.SimpleBindings;
 
 import com.naef.jnlua.LuaException;
 import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaType;
+import com.naef.jnlua.LuaValueProxy;
 
 /**
  * Lua script engine implementation conforming to JSR 223: Scripting for the
@@ -46,6 +55,7 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	// -- State
 	private LuaScriptEngineFactory factory;
 	private LuaState luaState;
+	private LuaStatePool statePool;
 
 	// -- Construction
 	/**
@@ -54,34 +64,59 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	LuaScriptEngine(LuaScriptEngineFactory factory) {
 		super();
 		this.factory = factory;
-		luaState = new LuaState();
+		statePool = factory.getStatePool();
+		if (statePool == null) {
+			luaState = createLuaState();
+		}
 
 		// Configuration
 		context.setBindings(createBindings(), ScriptContext.ENGINE_SCOPE);
-		luaState.openLibs();
 	}
 
 	// -- ScriptEngine methods
 	@Override
 	public Bindings createBindings() {
+		if (statePool != null) {
+			return new SimpleBindings();
+		}
 		return new LuaBindings(this);
 	}
 
 	@Override
 	public Object eval(String script, ScriptContext context)
 			throws ScriptException {
-		synchronized (luaState) {
-			loadChunk(script, context);
-			return callChunk(context);
+		ChunkCache chunkCache = factory.getChunkCache();
+		LuaState luaState = acquireLuaState();
+		try {
+			synchronized (luaState) {
+				byte[] chunk = chunkCache.get(script, getChunkName(context));
+				if (chunk != null) {
+					loadChunk(luaState, new ByteArrayInputStream(chunk),
+							context, "b");
+				} else {
+					loadChunk(luaState, script, context);
+					if (chunkCache.getCapacity() > 0) {
+						cacheChunk(luaState, script, context);
+					}
+				}
+				return callChunk(luaState, context);
+			}
+		} finally {
+			releaseLuaState(luaState);
 		}
 	}
 
 	@Override
 	public Object eval(Reader reader, ScriptContext context)
 			throws ScriptException {
-		synchronized (luaState) {
-			loadChunk(reader, context);
-			return callChunk(context);
+		LuaState luaState = acquireLuaState();
+		try {
+			synchronized (luaState) {
+				loadChunk(luaState, reader, context);
+				return callChunk(luaState, context);
+			}
+		} finally {
+			releaseLuaState(luaState);
 		}
 	}
 
@@ -93,28 +128,40 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	// -- Compilable method
 	@Override
 	public CompiledScript compile(String script) throws ScriptException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		synchronized (luaState) {
-			loadChunk(script, null);
+		byte[] chunk = factory.getChunkCache().get(script, getChunkName(null));
+		if (chunk == null) {
+			LuaState luaState = acquireLuaState();
 			try {
-				dumpChunk(out);
+				synchronized (luaState) {
+					loadChunk(luaState, script, null);
+					try {
+						chunk = cacheChunk(luaState, script, null);
+					} finally {
+						luaState.pop(1);
+					}
+				}
 			} finally {
-				luaState.pop(1);
+				releaseLuaState(luaState);
 			}
 		}
-		return new CompiledLuaScript(this, out.toByteArray());
+		return new CompiledLuaScript(this, chunk);
 	}
 
 	@Override
 	public CompiledScript compile(Reader script) throws ScriptException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		synchronized (luaState) {
-			loadChunk(script, null);
-			try {
-				dumpChunk(out);
-			} finally {
-				luaState.pop(1);
+		LuaState luaState = acquireLuaState();
+		try {
+			synchronized (luaState) {
+				loadChunk(luaState, script, null);
+				try {
+					dumpChunk(luaState, out);
+				} finally {
+					luaState.pop(1);
+				}
 			}
+		} finally {
+			releaseLuaState(luaState);
 		}
 		return new CompiledLuaScript(this, out.toByteArray());
 	}
@@ -122,6 +169,9 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	// -- Invocable methods
 	@Override
 	public <T> T getInterface(Class<T> clasz) {
+		if (statePool != null) {
+			return getPooledInterface(clasz);
+		}
 		synchronized (luaState) {
 			getLuaState().rawGet(LuaState.REGISTRYINDEX, LuaState.RIDX_GLOBALS);
 			try {
@@ -134,6 +184,11 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 
 	@Override
 	public <T> T getInterface(Object thiz, Class<T> clasz) {
+		if (statePool != null) {
+			throw new IllegalArgumentException(
+					"pooled engines cannot implement an interface with a Lua "
+							+ "object, as it does not outlive an invocation");
+		}
 		synchronized (luaState) {
 			luaState.pushJavaObject(thiz);
 			try {
@@ -150,28 +205,17 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	@Override
 	public Object invokeFunction(String name, Object... args)
 			throws ScriptException, NoSuchMethodException {
-		synchronized (luaState) {
-			luaState.getGlobal(name);
-			if (!luaState.isFunction(-1)) {
-				luaState.pop(1);
-				throw new NoSuchMethodException(String.format(
-						"function '%s' is undefined", name));
-			}
-			for (int i = 0; i < args.length; i++) {
-				luaState.pushJavaObject(args[i]);
-			}
-			luaState.call(args.length, 1);
-			try {
-				return luaState.toJavaObject(-1, Object.class);
-			} finally {
-				luaState.pop(1);
-			}
-		}
+		return invokeFunction(name, Object.class, args);
 	}
 
 	@Override
 	public Object invokeMethod(Object thiz, String name, Object... args)
 			throws ScriptException, NoSuchMethodException {
+		if (statePool != null) {
+			throw new ScriptException(
+					"pooled engines cannot invoke a method of a Lua object, "
+							+ "as it does not outlive an invocation");
+		}
 		synchronized (luaState) {
 			luaState.pushJavaObject(thiz);
 			try {
@@ -201,6 +245,15 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	}
 
 	// -- Package private methods
+	/**
+	 * Creates a Lua state with the standard libraries.
+	 */
+	static LuaState createLuaState() {
+		LuaState luaState = new LuaState();
+		luaState.openLibs();
+		return luaState;
+	}
+
 	/**
 	 * Returns the Lua state.
 	 */
@@ -208,11 +261,39 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 		return luaState;
 	}
 
+	/**
+	 * Returns the Lua state of an invocation. Pooled engines lease it from the
+	 * state pool of the factory.
+	 */
+	LuaState acquireLuaState() throws ScriptException {
+		if (statePool == null) {
+			return luaState;
+		}
+		try {
+			return statePool.lease();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ScriptException(e);
+		} catch (LuaException e) {
+			throw getScriptException(e);
+		}
+	}
+
+	/**
+	 * Ends an invocation. Pooled engines return the Lua state to the state
+	 * pool of the factory.
+	 */
+	void releaseLuaState(LuaState luaState) {
+		if (statePool != null) {
+			statePool.release(luaState);
+		}
+	}
+
 	/**
 	 * Loads a chunk from a string.
 	 */
-	void loadChunk(String string, ScriptContext scriptContext)
-			throws ScriptException {
+	void loadChunk(LuaState luaState, String string,
+			ScriptContext scriptContext) throws ScriptException {
 		try {
 			luaState.load(string, getChunkName(scriptContext));
 		} catch (LuaException e) {
@@ -223,16 +304,16 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	/**
 	 * Loads a chunk from a reader.
 	 */
-	void loadChunk(Reader reader, ScriptContext scriptContext)
-			throws ScriptException {
-		loadChunk(new ReaderInputStream(reader), scriptContext, "t");
+	void loadChunk(LuaState luaState, Reader reader,
+			ScriptContext scriptContext) throws ScriptException {
+		loadChunk(luaState, new ReaderInputStream(reader), scriptContext, "t");
 	}
 
 	/**
 	 * Loads a chunk from an input stream.
 	 */
-	void loadChunk(InputStream inputStream, ScriptContext scriptContext,
-			String mode) throws ScriptException {
+	void loadChunk(LuaState luaState, InputStream inputStream,
+			ScriptContext scriptContext, String mode) throws ScriptException {
 		try {
 			luaState.load(inputStream, getChunkName(scriptContext), mode);
 		} catch (LuaException e) {
@@ -245,7 +326,8 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	/**
 	 * Calls a loaded chunk.
 	 */
-	Object callChunk(ScriptContext context) throws ScriptException {
+	Object callChunk(LuaState luaState, ScriptContext context)
+			throws ScriptException {
 		try {
 			// Apply context
 			Object[] argv;
@@ -254,7 +336,7 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 				Bindings bindings;
 				bindings = context.getBindings(ScriptContext.GLOBAL_SCOPE);
 				if (bindings != null) {
-					applyBindings(bindings);
+					applyBindings(luaState, bindings);
 				}
 
 				// Engine bindings
@@ -264,14 +346,21 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 							&& ((LuaBindings) bindings).getScriptEngine() == this) {
 						// No need to apply our own live bindings
 					} else {
-						applyBindings(bindings);
+						applyBindings(luaState, bindings);
 					}
 				}
 
 				// Readers and writers
-				put(READER, context.getReader());
-				put(WRITER, context.getWriter());
-				put(ERROR_WRITER, context.getErrorWriter());
+				if (statePool == null) {
+					put(READER, context.getReader());
+					put(WRITER, context.getWriter());
+					put(ERROR_WRITER, context.getErrorWriter());
+				} else {
+					applyBinding(luaState, READER, context.getReader());
+					applyBinding(luaState, WRITER, context.getWriter());
+					applyBinding(luaState, ERROR_WRITER, context
+							.getErrorWriter());
+				}
 
 				// Arguments
 				argv = (Object[]) context.getAttribute(ARGV);
@@ -290,7 +379,7 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 
 			// Return
 			try {
-				return luaState.toJavaObject(1, Object.class);
+				return getResult(luaState, 1, Object.class);
 			} finally {
 				luaState.pop(1);
 			}
@@ -303,7 +392,7 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	 * Dumps a loaded chunk into an output stream. The chunk is left on the
 	 * stack.
 	 */
-	void dumpChunk(OutputStream out) throws ScriptException {
+	void dumpChunk(LuaState luaState, OutputStream out) throws ScriptException {
 		try {
 			luaState.dump(out);
 		} catch (LuaException e) {
@@ -314,22 +403,174 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 
 	}
 
+	/**
+	 * Dumps a loaded chunk compiled from a string, and caches it in the chunk
+	 * cache of the factory. The chunk is left on the stack.
+	 */
+	byte[] cacheChunk(LuaState luaState, String script,
+			ScriptContext scriptContext) throws ScriptException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		dumpChunk(luaState, out);
+		byte[] chunk = out.toByteArray();
+		factory.getChunkCache().put(script, getChunkName(scriptContext), chunk);
+		return chunk;
+	}
+
 	// -- Private methods
 	/**
-	 * Sets a single binding in a Lua state.
+	 * Invokes a global function, converting its result to the specified
+	 * type.
 	 */
-	private void applyBindings(Bindings bindings) {
-		for (Map.Entry<String, Object> binding : bindings.entrySet()) {
-			luaState.pushJavaObject(binding.getValue());
-			String variableName = binding.getKey();
-			int lastDotIndex = variableName.lastIndexOf('.');
-			if (lastDotIndex >= 0) {
-				variableName = variableName.substring(lastDotIndex + 1);
+	private Object invokeFunction(String name, Class<?> returnType,
+			Object[] args) throws ScriptException, NoSuchMethodException {
+		LuaState luaState = acquireLuaState();
+		try {
+			synchronized (luaState) {
+				luaState.getGlobal(name);
+				if (!luaState.isFunction(-1)) {
+					luaState.pop(1);
+					throw new NoSuchMethodException(String.format(
+							"function '%s' is undefined", name));
+				}
+				for (int i = 0; i < args.length; i++) {
+					luaState.pushJavaObject(args[i]);
+				}
+				luaState.call(args.length, 1);
+				try {
+					return getResult(luaState, -1, returnType);
+				} finally {
+					luaState.pop(1);
+				}
+			}
+		} finally {
+			releaseLuaState(luaState);
+		}
+	}
+
+	/**
+	 * Returns an implementation of an interface whose methods invoke the
+	 * global functions of the same name. Each call leases a Lua state, as
+	 * {@link #invokeFunction(String, Object...)} does.
+	 */
+	private <T> T getPooledInterface(final Class<T> clasz) {
+		if (clasz == null || !clasz.isInterface()) {
+			throw new IllegalArgumentException("class is not an interface");
+		}
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				// Handle object methods, no Lua state backs the proxy
+				if (method.getDeclaringClass() == Object.class) {
+					if (method.getName().equals("equals")) {
+						return Boolean.valueOf(proxy == args[0]);
+					}
+					if (method.getName().equals("hashCode")) {
+						return Integer.valueOf(System.identityHashCode(proxy));
+					}
+					return "Lua proxy of " + clasz.getName();
+				}
+
+				// Handle Lua calls
+				try {
+					return invokeFunction(method.getName(), method
+							.getReturnType(), args != null ? args
+							: new Object[0]);
+				} catch (NoSuchMethodException e) {
+					throw new UnsupportedOperationException(method.getName());
+				}
+			}
+		};
+		return clasz.cast(Proxy.newProxyInstance(clasz.getClassLoader(),
+				new Class<?>[] { clasz }, handler));
+	}
+
+	/**
+	 * Returns the value at the specified stack index as the result of an
+	 * invocation, converted to the specified type. Pooled engines copy
+	 * tables, and reject other Lua values which would be returned as proxies,
+	 * as proxies would outlive the lease of their Lua state.
+	 */
+	private Object getResult(LuaState luaState, int index, Class<?> type)
+			throws ScriptException {
+		if (type == Void.TYPE) {
+			return null;
+		}
+		if (statePool == null) {
+			return luaState.toJavaObject(index, type);
+		}
+		LuaType luaType = luaState.type(index);
+		Object result;
+		if (luaType == LuaType.TABLE) {
+			if (!type.isAssignableFrom(Map.class)) {
+				throw new ScriptException(String.format(
+						"pooled engines cannot return a table as %s", type
+								.getName()));
+			}
+			result = luaState.toMapSnapshot(index, Integer.MAX_VALUE);
+		} else if ((luaType == LuaType.FUNCTION && !luaState
+				.isJavaFunction(index))
+				|| (luaType == LuaType.USERDATA && !luaState
+						.isJavaObjectRaw(index))
+				|| luaType == LuaType.LIGHTUSERDATA
+				|| luaType == LuaType.THREAD) {
+			throw new ScriptException(String.format(
+					"pooled engines cannot return a %s", luaState
+							.typeName(index)));
+		} else {
+			result = luaState.toJavaObject(index, type);
+		}
+		checkDetached(result, new IdentityHashMap<Object, Object>());
+		return result;
+	}
+
+	/**
+	 * Checks that a result copied from a pooled Lua state does not hold Lua
+	 * value proxies.
+	 */
+	private void checkDetached(Object value, Map<Object, Object> checked)
+			throws ScriptException {
+		if (value instanceof LuaValueProxy) {
+			throw new ScriptException(
+					"pooled engines cannot return a Lua value proxy");
+		}
+		if (value == null || checked.put(value, value) != null) {
+			return;
+		}
+		if (value instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				checkDetached(entry.getKey(), checked);
+				checkDetached(entry.getValue(), checked);
+			}
+		} else if (value instanceof List) {
+			for (Object element : (List<?>) value) {
+				checkDetached(element, checked);
 			}
-			luaState.setGlobal(variableName);
 		}
 	}
 
+	/**
+	 * Sets bindings in a Lua state.
+	 */
+	private void applyBindings(LuaState luaState, Bindings bindings) {
+		for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+			applyBinding(luaState, binding.getKey(), binding.getValue());
+		}
+	}
+
+	/**
+	 * Sets a single binding in a Lua state.
+	 */
+	private void applyBinding(LuaState luaState, String variableName,
+			Object value) {
+		luaState.pushJavaObject(value);
+		int lastDotIndex = variableName.lastIndexOf('.');
+		if (lastDotIndex >= 0) {
+			variableName = variableName.substring(lastDotIndex + 1);
+		}
+		luaState.setGlobal(variableName);
+	}
+
 	/**
 	 * Returns the Lua chunk name from a script context.
 	 */
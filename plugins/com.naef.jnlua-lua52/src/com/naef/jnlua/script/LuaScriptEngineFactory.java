@@ -46,6 +46,32 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
 		NAMES = Collections.unmodifiableList(names);
 	}
 
+	/**
+	 * Maximum number of pre-compiled chunks cached by a factory.
+	 */
+	private static final int CHUNK_CACHE_CAPACITY = Integer.getInteger(
+			LuaScriptEngineFactory.class.getPackage().getName()
+					+ ".chunkCacheCapacity", 512).intValue();
+
+	/**
+	 * Maximum number of Lua states pooled by a factory, <code>0</code> to give
+	 * each script engine its own Lua state.
+	 */
+	private static final int POOL_CAPACITY = Integer.getInteger(
+			LuaScriptEngineFactory.class.getPackage().getName()
+					+ ".poolCapacity", 0).intValue();
+
+	/**
+	 * Number of Lua states created along with the pool.
+	 */
+	private static final int POOL_PREWARM_COUNT = Integer.getInteger(
+			LuaScriptEngineFactory.class.getPackage().getName()
+					+ ".poolPrewarmCount", 0).intValue();
+
+	// -- State
+	private ChunkCache chunkCache = new ChunkCache(CHUNK_CACHE_CAPACITY);
+	private LuaStatePool statePool;
+
 	// -- Construction
 	/**
 	 * Creates a new instance.
@@ -53,6 +79,21 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
 	public LuaScriptEngineFactory() {
 	}
 
+	/**
+	 * Creates a new instance whose script engines lease their Lua states from
+	 * the specified pool, whatever the <code>poolCapacity</code> system
+	 * property.
+	 * 
+	 * @param statePool
+	 *            the pool of Lua states
+	 */
+	public LuaScriptEngineFactory(LuaStatePool statePool) {
+		if (statePool == null) {
+			throw new NullPointerException();
+		}
+		this.statePool = statePool;
+	}
+
 	// -- ScriptEngineFactory methods
 	@Override
 	public String getEngineName() {
@@ -89,6 +130,24 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
 		return LuaState.LUA_VERSION;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>
+	 * The <code>THREADING</code> parameter is <code>"STATELESS"</code> when
+	 * script engines lease their Lua states from a pool. Each invocation then
+	 * runs on a leased Lua state and returns copies of Lua tables. Methods of
+	 * the interface returned by {@link
+	 * javax.script.Invocable#getInterface(Class)} lease a Lua state on each
+	 * call, as {@link javax.script.Invocable#invokeFunction(String, Object...)}
+	 * does. As Lua objects do not outlive an invocation, {@link
+	 * javax.script.Invocable#getInterface(Object, Class)} throws an
+	 * <code>IllegalArgumentException</code> and {@link
+	 * javax.script.Invocable#invokeMethod(Object, String, Object...)} throws a
+	 * <code>ScriptException</code>. Otherwise the parameter is
+	 * <code>"MULTITHREADED"</code>.
+	 * </p>
+	 */
 	@Override
 	public Object getParameter(String key) {
 		if (key.equals(ScriptEngine.ENGINE)) {
@@ -107,7 +166,7 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
 			return getLanguageVersion();
 		}
 		if (key.equals("THREADING")) {
-			return "MULTITHREADED";
+			return getStatePool() != null ? "STATELESS" : "MULTITHREADED";
 		}
 		return null;
 	}
@@ -153,6 +212,38 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
 		return new LuaScriptEngine(this);
 	}
 
+	// -- Pooling
+	/**
+	 * Returns the pool of Lua states leased by the script engines of this
+	 * factory. The pool is created on first use, with the capacity and the
+	 * prewarm count given by the <code>poolCapacity</code> and
+	 * <code>poolPrewarmCount</code> system properties of this package.
+	 * 
+	 * <p>
+	 * A pooled script engine leases a Lua state per invocation, and uses
+	 * regular bindings instead of live Lua bindings. Functions invoked through
+	 * the engine are defined by the init scripts of the pool. Interfaces and
+	 * method invocations are not supported.
+	 * </p>
+	 * 
+	 * @return the pool, or <code>null</code> if script engines are not pooled
+	 */
+	public synchronized LuaStatePool getStatePool() {
+		if (statePool == null && POOL_CAPACITY > 0) {
+			statePool = new LuaStatePool(POOL_CAPACITY, POOL_PREWARM_COUNT);
+		}
+		return statePool;
+	}
+
+	// -- Package private methods
+	/**
+	 * Returns the cache of pre-compiled chunks shared by the script engines of
+	 * this factory.
+	 */
+	ChunkCache getChunkCache() {
+		return chunkCache;
+	}
+
 	// --Private methods
 	/**
 	 * Quotes a string in double quotes.
@@ -10,11 +10,13 @@
  *******************************************************************************/
 package org.eclipse.koneki.ldt.metalua;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
+import org.eclipse.koneki.ldt.metalua.internal.MetaluaBytecodeCache;
 import org.eclipse.koneki.ldt.metalua.internal.MetaluaStateFactory;
 import org.eclipse.osgi.util.NLS;
 
@@ -28,62 +30,76 @@ public abstract class AbstractMetaLuaModule extends AbstractLuaModule {
 
 	private static final String METALUA_PATTERN = "?.mlua;"; //$NON-NLS-1$
 
-	@Override
-	protected LuaState loadLuaModule() {
-		compileMetaluaFiles();
-		return super.loadLuaModule();
-	}
-
 	@Override
 	protected void definePaths(final LuaState state) {
 		super.definePaths(state);
 		final List<File> metaluaSourceFolders = getScriptFolders(getMetaLuaSourcePaths());
 		setMetaluaPath(state, metaluaSourceFolders);
+		preloadMetaluaFiles(state);
 	}
 
+	/**
+	 * Ensures bytecode of files to compile is available in {@link MetaluaBytecodeCache}. Modules do it on their own when they are loaded, this
+	 * only allows to do it ahead of time.
+	 */
 	public void compileMetaluaFiles() {
-		final LuaState newLuaState = MetaluaStateFactory.newLuaState();
-
 		final List<String> metaLuaFileToCompile = getMetaLuaFileToCompile();
+		if (metaLuaFileToCompile == null)
+			return;
 		for (final String metaluaSourcePath : getMetaLuaSourcePaths()) {
-			final File metaluaSourceFile = getScriptFolder(metaluaSourcePath);
-			if (metaLuaFileToCompile != null && metaluaSourcePath != null) {
-				String filename = null;
-				try {
-					for (int k = 0; k < metaLuaFileToCompile.size(); k++) {
-						filename = metaLuaFileToCompile.get(k);
-						compileMetaluaFile(newLuaState, metaluaSourceFile, filename);
+			final File metaluaSourceFolder = getScriptFolder(metaluaSourcePath);
+			for (final String filename : metaLuaFileToCompile) {
+				final File regular = new File(metaluaSourceFolder, filename);
+				if (regular.isFile()) {
+					try {
+						MetaluaBytecodeCache.getDefault().getBytecode(regular);
+					} catch (final IOException e) {
+						Activator.logWarning(NLS.bind("Unable to compile {0}.", filename), e); //$NON-NLS-1$
 					}
-				} catch (final IOException e) {
-					if (filename != null)
+				}
+			}
+		}
+	}
+
+	/**
+	 * Registers cached bytecode of files to compile in <code>package.preload</code>, so requiring them does not go through Metalua compiler and
+	 * bundle folders are never written.
+	 */
+	private void preloadMetaluaFiles(final LuaState state) {
+		final List<String> metaLuaFileToCompile = getMetaLuaFileToCompile();
+		if (metaLuaFileToCompile == null || metaLuaFileToCompile.isEmpty())
+			return;
+
+		state.getGlobal("package"); //$NON-NLS-1$
+		state.getField(-1, "preload"); //$NON-NLS-1$
+		for (final String filename : metaLuaFileToCompile) {
+			final String moduleName = filename.substring(0, filename.lastIndexOf('.')).replace('/', '.');
+			for (final File metaluaSourceFolder : getScriptFolders(getMetaLuaSourcePaths())) {
+				final File regular = new File(metaluaSourceFolder, filename);
+				if (regular.isFile()) {
+					try {
+						final byte[] bytecode = MetaluaBytecodeCache.getDefault().getBytecode(regular);
+						state.load(new ByteArrayInputStream(bytecode), moduleName);
+						state.setField(-2, moduleName);
+					} catch (final IOException e) {
 						Activator.logWarning(NLS.bind("Unable to compile {0}.", filename), e); //$NON-NLS-1$
-					else
-						Activator.logWarning("Unable to compile Metalua file.", e); //$NON-NLS-1$
-					newLuaState.close();
+					}
+					break;
 				}
 			}
 		}
-		newLuaState.close();
+		state.pop(2);
 	}
 
+	/**
+	 * Compiles a Metalua file of given folder, bytecode is written next to it with <code>.luac</code> extension.
+	 */
 	public static void compileMetaluaFile(final LuaState luastate, final File folder, final String fileName) throws IOException {
 		final File regular = new File(folder, fileName);
 		if (regular.isFile() && regular.exists()) {
 			final String fileNameWithoutExtension = fileName.substring(0, fileName.lastIndexOf('.'));
 			final File build = new File(folder, fileNameWithoutExtension + ".luac"); //$NON-NLS-1$
-			// Compile metalua lib
-			final StringBuffer command = new StringBuffer("require 'metalua.package'\n"); //$NON-NLS-1$
-			command.append("local mlc = require ('metalua.compiler').new()\n"); //$NON-NLS-1$
-			command.append("local bin = mlc:srcfile_to_bytecode([["); //$NON-NLS-1$
-			command.append(regular.getPath());
-			command.append("]])\n"); //$NON-NLS-1$
-
-			// Write compiled file on disk
-			command.append("local file = io.open([["); //$NON-NLS-1$
-			command.append(build.getPath());
-			command.append("]], 'wb') file:write(bin) file:close()\n"); //$NON-NLS-1$
-			luastate.load(command.toString(), "libraryCompilation"); //$NON-NLS-1$
-			luastate.call(0, 0);
+			MetaluaBytecodeCache.compile(luastate, regular, build);
 		}
 	}
 
@@ -94,7 +110,16 @@ public abstract class AbstractMetaLuaModule extends AbstractLuaModule {
 
 	@Override
 	protected LuaState createLuaState() {
-		return MetaluaStateFactory.newLuaState();
+		return MetaluaStateFactory.newLuaState(isThreadConfined());
+	}
+
+	/**
+	 * @return <code>true</code> when states of this module are only used by one thread at a time, they are then
+	 *         {@link com.naef.jnlua.ConfinedLuaState}s which skip locking on most calls. Ownership has to be transfered before an other thread
+	 *         uses them.
+	 */
+	protected boolean isThreadConfined() {
+		return false;
 	}
 
 	protected abstract List<String> getMetaLuaSourcePaths();
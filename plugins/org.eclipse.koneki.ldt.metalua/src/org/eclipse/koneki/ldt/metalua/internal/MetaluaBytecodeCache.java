@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.metalua.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.koneki.ldt.metalua.Activator;
+import org.eclipse.osgi.util.NLS;
+
+import com.naef.jnlua.LuaException;
+import com.naef.jnlua.LuaState;
+
+/**
+ * Provides Lua bytecode of Metalua source files, compiling them only when their content was never compiled before.
+ * <p>
+ * Entries are keyed by a digest of source content, Lua version and Metalua bundle version. They are kept in memory and in Metalua plug-in state
+ * location, so a file is compiled once per install rather than once per {@link LuaState}. Bytecode is never written next to sources, bundle
+ * folders may be read only.
+ */
+public final class MetaluaBytecodeCache {
+
+	private static final String CACHE_FOLDER = "bytecode"; //$NON-NLS-1$
+	private static final String ENTRY_EXTENSION = ".luac"; //$NON-NLS-1$
+	private static final String DIGEST_ALGORITHM = "SHA-1"; //$NON-NLS-1$
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+	private static final int BUFFER_SIZE = 8192;
+
+	private static MetaluaBytecodeCache instance;
+
+	/** Folder where entries are stored, <code>null</code> when they are only kept in memory */
+	private final File folder;
+	private final String version;
+	private final Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+
+	/** Compilation is costly, files are compiled one at a time and never twice */
+	private final Object compilationLock = new Object();
+
+	/**
+	 * @param folder
+	 *            where entries are stored, <code>null</code> to keep them in memory only
+	 * @param version
+	 *            version of Lua and Metalua producing bytecode, it is part of entry keys
+	 */
+	public MetaluaBytecodeCache(final File folder, final String version) {
+		this.folder = folder;
+		this.version = version;
+	}
+
+	/**
+	 * @return Cache shared by all Metalua modules, located in plug-in state location when plug-in is started.
+	 */
+	public static synchronized MetaluaBytecodeCache getDefault() {
+		if (instance == null) {
+			final Activator plugin = Activator.getDefault();
+			File folder = null;
+			String version = LuaState.LUA_VERSION;
+			if (plugin != null) {
+				try {
+					folder = plugin.getStateLocation().append(CACHE_FOLDER).toFile();
+					version = version + '/' + plugin.getBundle().getVersion().toString();
+					// CHECKSTYLE:OFF
+				} catch (final RuntimeException e) {
+					// CHECKSTYLE:ON
+					Activator.logWarning("Unable to locate bytecode cache folder.", e); //$NON-NLS-1$
+				}
+			}
+			instance = new MetaluaBytecodeCache(folder, version);
+		}
+		return instance;
+	}
+
+	/**
+	 * @param source
+	 *            Metalua source file
+	 * @return Lua bytecode of given file, compiled only if no bytecode is cached for its content yet
+	 * @throws IOException
+	 *             when source can not be read or compiled
+	 */
+	public byte[] getBytecode(final File source) throws IOException {
+		final String key = getKey(readBytes(source));
+
+		// Fast path, in memory
+		byte[] bytecode = entries.get(key);
+		if (bytecode != null)
+			return bytecode;
+
+		synchronized (compilationLock) {
+			// An other thread may have done the job meanwhile
+			bytecode = entries.get(key);
+			if (bytecode != null)
+				return bytecode;
+
+			// Load from disk, compile when it is missing
+			final File entry = getEntry(key);
+			if (entry.isFile()) {
+				bytecode = readBytes(entry);
+			} else {
+				bytecode = compile(source, entry);
+			}
+			entries.put(key, bytecode);
+			return bytecode;
+		}
+	}
+
+	/**
+	 * Compiles source to given entry, going through a temporary file so a partial entry is never visible.
+	 */
+	private byte[] compile(final File source, final File entry) throws IOException {
+		final File entryFolder = entry.getParentFile();
+		if (!entryFolder.isDirectory() && !entryFolder.mkdirs())
+			throw new IOException(NLS.bind("Unable to create folder {0}.", entryFolder.getPath())); //$NON-NLS-1$
+		final File temporary = File.createTempFile(entry.getName(), null, entryFolder);
+		LuaState luaState = null;
+		try {
+			luaState = MetaluaStateFactory.newLuaState();
+			compile(luaState, source, temporary);
+			final byte[] bytecode = readBytes(temporary);
+			if (folder != null && !temporary.renameTo(entry))
+				Activator.logWarning(NLS.bind("Unable to cache bytecode of {0}.", source.getName())); //$NON-NLS-1$
+			return bytecode;
+		} catch (final LuaException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			if (luaState != null)
+				luaState.close();
+			if (temporary.exists())
+				temporary.delete();
+		}
+	}
+
+	/**
+	 * Compiles a Metalua source file into a Lua bytecode file.
+	 *
+	 * @param luaState
+	 *            state loaded with Metalua
+	 * @param source
+	 *            Metalua file to compile
+	 * @param output
+	 *            file where bytecode is written
+	 */
+	public static void compile(final LuaState luaState, final File source, final File output) {
+		final StringBuffer command = new StringBuffer("require 'metalua.package'\n"); //$NON-NLS-1$
+		command.append("local mlc = require ('metalua.compiler').new()\n"); //$NON-NLS-1$
+		command.append("local bin = mlc:srcfile_to_bytecode([["); //$NON-NLS-1$
+		command.append(source.getPath());
+		command.append("]])\n"); //$NON-NLS-1$
+
+		// Write compiled file on disk
+		command.append("local file = io.open([["); //$NON-NLS-1$
+		command.append(output.getPath());
+		command.append("]], 'wb') file:write(bin) file:close()\n"); //$NON-NLS-1$
+		luaState.load(command.toString(), "libraryCompilation"); //$NON-NLS-1$
+		luaState.call(0, 0);
+	}
+
+	private File getEntry(final String key) {
+		final File entryFolder = folder != null ? folder : new File(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
+		return new File(entryFolder, key + ENTRY_EXTENSION);
+	}
+
+	private String getKey(final byte[] content) throws IOException {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			digest.update(version.getBytes("UTF-8")); //$NON-NLS-1$
+			digest.update((byte) 0);
+			final byte[] hash = digest.digest(content);
+			final StringBuilder key = new StringBuilder(hash.length * 2);
+			for (final byte b : hash) {
+				key.append(HEX[(b >> 4) & 0xf]);
+				key.append(HEX[b & 0xf]);
+			}
+			return key.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static byte[] readBytes(final File file) throws IOException {
+		final InputStream input = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			for (int read = input.read(buffer); read >= 0; read = input.read(buffer))
+				output.write(buffer, 0, read);
+			return output.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -20,6 +20,7 @@ import org.eclipse.koneki.ldt.metalua.Activator;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.Bundle;
 
+import com.naef.jnlua.ConfinedLuaState;
 import com.naef.jnlua.LuaException;
 import com.naef.jnlua.LuaState;
 
@@ -49,11 +50,22 @@ public final class MetaluaStateFactory {
 	 * @since 1.0
 	 */
 	public static LuaState newLuaState() {
+		return newLuaState(false);
+	}
+
+	/**
+	 * Provides a LuaState that can run Metalua code
+	 * 
+	 * @param confined
+	 *            when <code>true</code>, state is a {@link ConfinedLuaState} owned by calling thread
+	 * @return LuaState able to run Metalua code
+	 */
+	public static LuaState newLuaState(final boolean confined) {
 
 		/*
 		 * Create a regular LuaState, then enable it to run Metalua
 		 */
-		LuaState l = new LuaState();
+		LuaState l = confined ? new ConfinedLuaState() : new LuaState();
 
 		// Load default libraries, in order to modify PATH
 		l.openLibs();
@@ -0,0 +1,220 @@
+--------------------------------------------------------------------------------
+--  Copyright (c) 2013 Sierra Wireless.
+--  All rights reserved. This program and the accompanying materials
+--  are made available under the terms of the Eclipse Public License v1.0
+--  which accompanies this distribution, and is available at
+--  http://www.eclipse.org/legal/epl-v10.html
+--
+--  Contributors:
+--       Sierra Wireless - initial API and implementation
+--------------------------------------------------------------------------------
+
+--
+-- Builds the Metalua AST of an edited source from the AST of its previous
+-- version, parsing again only top level statements around the damaged region.
+--
+-- Statements before and after the damaged region are reused as they are,
+-- positions of the ones after it are shifted. Parsed statements are given
+-- positions of the whole source, as the text preceding them is parsed as
+-- blanks. Tokens around each boundary are linked back together, facing
+-- positions and comments included, so the spliced AST is the one a full parse
+-- would give.
+--
+-- A statement is reused only when its neighbour on the damaged side is
+-- unchanged too, so the tokens which decided where it ended are the same.
+-- Previous AST is modified when an AST is returned, it must not be used
+-- afterwards. It is left untouched when nil is returned.
+--
+local M = {}
+
+-- Statements which end a block, no statement may follow them
+local laststatements = { Return = true, Break = true }
+
+-- Count of line feeds in source between given offsets, both included
+local function countlines(source, first, last)
+	local count = 0
+	local position = source:find('\n', first, true)
+	while position and position <= last do
+		count = count + 1
+		position = source:find('\n', position + 1, true)
+	end
+	return count
+end
+
+-- Line and column of character at given offset, as computed by Metalua lexer
+local function linecolumn(source, offset)
+	local line, linestart = 1, 1
+	local position = source:find('\n', 1, true)
+	while position and position < offset do
+		line = line + 1
+		linestart = position + 1
+		position = source:find('\n', linestart, true)
+	end
+	return line, offset - linestart + 1
+end
+
+--
+-- Shifting of positions following damaged region
+--
+local function shiftposition(position, shift)
+	if not position or shift.done[position] or position.offset <= shift.limit then return end
+	shift.done[position] = true
+	if position.line == shift.endline then
+		position.column = position.column + shift.columndelta
+	end
+	position.offset = position.offset + shift.delta
+	position.line = position.line + shift.linedelta
+
+	local comments = position.comments
+	if comments and not shift.done[comments] then
+		shift.done[comments] = true
+		shiftposition(comments.lineinfo.first, shift)
+		shiftposition(comments.lineinfo.last, shift)
+		for _, comment in ipairs(comments) do
+			shiftposition(comment.lineinfo.first, shift)
+			shiftposition(comment.lineinfo.last, shift)
+		end
+	end
+end
+
+-- Tokens which are not node boundaries are only reachable through facing positions, models only read them this way
+local function shiftboundary(position, shift)
+	if not position then return end
+	shiftposition(position, shift)
+	shiftposition(position.facing, shift)
+end
+
+local function shiftnode(node, shift)
+	if shift.done[node] then return end
+	shift.done[node] = true
+	local lineinfo = node.lineinfo
+	if lineinfo then
+		shiftboundary(lineinfo.first, shift)
+		shiftboundary(lineinfo.last, shift)
+	end
+	for _, child in ipairs(node) do
+		if type(child) == 'table' then shiftnode(child, shift) end
+	end
+end
+
+-- Links last position of a token to first position of the following one, comments between them are the ones of the following one
+local function link(last, first)
+	last.facing = first
+	first.facing = last
+	last.comments = first.comments
+end
+
+---
+-- @param	compiler Metalua compiler used to parse damaged statements
+-- @param	previoussource Source previous AST was built from
+-- @param	previousast Valid AST of previous source, its statements are reused
+-- @param	source Edited source
+-- @return	AST of edited source, nil when it has to be parsed as a whole
+function M.reparse(compiler, previoussource, previousast, source)
+	local count = #previousast
+	if count == 0 then return nil end
+
+	-- Locate damaged region
+	local previouslength, length = #previoussource, #source
+	local maxcommon = math.min(previouslength, length)
+	local prefix = 0
+	while prefix < maxcommon and previoussource:byte(prefix + 1) == source:byte(prefix + 1) do
+		prefix = prefix + 1
+	end
+	local suffix = 0
+	while suffix < maxcommon - prefix
+		and previoussource:byte(previouslength - suffix) == source:byte(length - suffix) do
+		suffix = suffix + 1
+	end
+	if prefix == previouslength and prefix == length then return previousast end
+	local damagelast = previouslength - suffix
+	local delta = length - previouslength
+
+	-- Statements are adjacent when no semicolon separates them, the last token of the first one is then known
+	local function adjacent(i)
+		return previousast[i].lineinfo.last.facing == previousast[i + 1].lineinfo.first
+	end
+
+	-- First statement parsed again follows the last one ending before damaged region
+	local first = 1
+	while first < count and previousast[first].lineinfo.last.offset <= prefix do
+		first = first + 1
+	end
+	first = first > 1 and first - 1 or 1
+	while first > 1 and not adjacent(first - 1) do
+		first = first - 1
+	end
+
+	-- Last statement parsed again precedes the first one starting after damaged region
+	local last = count
+	for i = first, count - 1 do
+		if previousast[i].lineinfo.last.facing.offset > damagelast then
+			last = i + 1
+			break
+		end
+	end
+	-- A parenthesis may continue previous expression, it is not a safe boundary
+	local function safe(i)
+		if i >= count or not adjacent(i) then return i >= count end
+		local offset = previousast[i + 1].lineinfo.first.offset + delta
+		return source:sub(offset, offset) ~= '('
+	end
+	while not safe(last) do
+		last = last + 1
+	end
+	local head = last < count and previousast[last + 1].lineinfo.first
+
+	-- Parse damaged statements, text before them is blank so positions are the ones in whole source
+	local fragmentstart = first > 1 and previousast[first - 1].lineinfo.last.offset + 1 or 1
+	local fragmentend = head and head.offset + delta - 1 or length
+	local blanks = source:sub(1, fragmentstart - 1):gsub('[^\n]', ' ')
+	local parsed, fragment = pcall(compiler.src_to_ast, compiler, blanks .. source:sub(fragmentstart, fragmentend))
+	if not parsed or #fragment == 0 then return nil end
+	local status, valid = pcall(require 'metalua.compiler'.check_ast, fragment)
+	if not status or not valid then return nil end
+	local fragmentfirst, fragmentlast = fragment[1].lineinfo.first, fragment[#fragment].lineinfo.last
+	if head then
+		-- Reused statements may only follow a statement ending on a token, recovered errors end at end of file
+		if laststatements[fragment[#fragment].tag] or fragment.lineinfo.last ~= fragmentlast or fragmentlast.offset > fragmentend then
+			return nil
+		end
+	end
+
+	-- Shift positions of statements following damaged ones
+	if head then
+		local endline, endcolumn = linecolumn(previoussource, damagelast + 1)
+		local _, column = linecolumn(source, damagelast + 1 + delta)
+		local shift = {
+			done        = {},
+			limit       = damagelast,
+			delta       = delta,
+			linedelta   = countlines(source, prefix + 1, length - suffix) - countlines(previoussource, prefix + 1, damagelast),
+			endline     = endline,
+			columndelta = column - endcolumn
+		}
+		shiftboundary(head, shift)
+		for i = last + 1, count do
+			shiftnode(previousast[i], shift)
+		end
+		shiftboundary(previousast.lineinfo.last, shift)
+	end
+
+	-- Splice statements, linking tokens around boundaries
+	local ast = { source = previousast.source }
+	for i = 1, first - 1 do table.insert(ast, previousast[i]) end
+	for _, statement in ipairs(fragment) do table.insert(ast, statement) end
+	for i = last + 1, count do table.insert(ast, previousast[i]) end
+	if first > 1 then
+		link(previousast[first - 1].lineinfo.last, fragmentfirst)
+	end
+	if head then
+		link(fragmentlast, head)
+	end
+	ast.lineinfo = setmetatable({
+		first = first > 1 and previousast.lineinfo.first or fragment.lineinfo.first,
+		last  = head and previousast.lineinfo.last or fragment.lineinfo.last
+	}, getmetatable(previousast.lineinfo))
+	return ast
+end
+
+return M
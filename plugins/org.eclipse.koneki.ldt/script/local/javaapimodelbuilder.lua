@@ -13,6 +13,10 @@ local M = {}
 
 local javaapimodelfactory =  require 'javaapimodelfactory'
 
+--
+-- Model is written in a buffer, see javamodelsbuffer
+--
+
 local print = function (string) print(string) io.flush() end
 
 local templateengine = require 'templateengine'
@@ -67,23 +71,23 @@ for functionname, body in pairs( templateengineenv ) do
 end
 
 -- create typeref
-function M._typeref (_type)
+function M._typeref (buffer,_type)
 	if not _type then return nil end
 	if _type.tag == "externaltyperef" then
-		return javaapimodelfactory.newexternaltyperef(_type.modulename, _type.typename)
+		return buffer:newexternaltyperef(_type.modulename, _type.typename)
 	elseif _type.tag == "internaltyperef" then
-		return javaapimodelfactory.newinternaltyperef(_type.typename)
+		return buffer:newinternaltyperef(_type.typename)
 	elseif _type.tag == "moduletyperef" then
-		return javaapimodelfactory.newmoduletyperef(_type.modulename,_type.returnposition)
+		return buffer:newmoduletyperef(_type.modulename,_type.returnposition)
 	elseif _type.tag == "exprtyperef" then
-		return javaapimodelfactory.newexprtyperef(_type.returnposition)
+		return buffer:newexprtyperef(_type.returnposition)
 	elseif _type.tag == "primitivetyperef" then
-		return javaapimodelfactory.newprimitivetyperef(_type.typename)
+		return buffer:newprimitivetyperef(_type.typename)
 	end
 end
 
 -- create item
-function M._item(_item,notemplate,handledexpr)
+function M._item(buffer,_item,notemplate,handledexpr)
 	local description = ""
 	if notemplate then
 		description = _item.description
@@ -91,23 +95,23 @@ function M._item(_item,notemplate,handledexpr)
 		description = templateengine.applytemplate(_item, 3)
 	end 
 
-	local jitem = javaapimodelfactory.newitem(_item.name,
+	local jitem = buffer:newitem(_item.name,
 		description,
 		_item.sourcerange.min - 1,
 		_item.sourcerange.max,
-		M._typeref(_item.type)
+		M._typeref(buffer,_item.type)
 	)
 	handledexpr[_item] = jitem
 	return jitem
 end
 
 -- create typedef
-function M._typedef(_typedef,handledexpr)
+function M._typedef(buffer,_typedef,handledexpr)
 	local jtypedef
 	-- Dealing with records
 	if _typedef.tag == "recordtypedef" then
 
-		jtypedef = javaapimodelfactory.newrecordtypedef(_typedef.name,
+		jtypedef = buffer:newrecordtypedef(_typedef.name,
 		    templateengine.applytemplate(_typedef, 3),
 			_typedef.sourcerange.min - 1,
 			_typedef.sourcerange.max
@@ -115,33 +119,33 @@ function M._typedef(_typedef,handledexpr)
 
 		-- Appending fields
 		for _, _item in pairs(_typedef.fields) do
-			local jitem =  M._item(_item,false,handledexpr)
-			javaapimodelfactory.addfield(jtypedef, jitem)
+			local jitem =  M._item(buffer,_item,false,handledexpr)
+			buffer:addfield(jtypedef, jitem)
 		end
 
 	elseif _typedef.tag == "functiontypedef" then
 		-- Dealing with function
-		jtypedef = javaapimodelfactory.newfunctiontypedef()
+		jtypedef = buffer:newfunctiontypedef()
 
 		-- Appending parameters
 		for _, _param in ipairs(_typedef.params) do
-			javaapimodelfactory.addparam(jtypedef,_param.name, M._typeref(_param.type), _param.description)
+			buffer:addparam(jtypedef,_param.name, M._typeref(buffer,_param.type), _param.description)
 		end
 
 		-- Appending returned types
 		for _, _return in ipairs(_typedef.returns) do
-			local jreturn = javaapimodelfactory.newreturn()
+			local jreturn = buffer:newreturn()
 			for _, _type in ipairs( _return.types ) do
-				javaapimodelfactory.addtype(jreturn,M._typeref(_type))
+				buffer:addtype(jreturn,M._typeref(buffer,_type))
 			end
-			javaapimodelfactory.functionaddreturn(jtypedef,jreturn)
+			buffer:functionaddreturn(jtypedef,jreturn)
 		end
 	end
 	return jtypedef
 end
 
 -- create lua file api
-function M._file(_file)
+function M._file(buffer,_file)
 
 	local handledexpr = {}
 
@@ -149,30 +153,30 @@ function M._file(_file)
 	enablelinks()
 	local jfile 
 	if _file.name then
-		jfile = javaapimodelfactory.newfileapi(templateengine.applytemplate(_file, 1))
+		jfile = buffer:newfileapi(templateengine.applytemplate(_file, 1))
 	else
-		jfile = javaapimodelfactory.newfileapi()
+		jfile = buffer:newfileapi()
 	end
 	disablelinks()
 
 	-- Adding global variables
 	for _, _item in pairs(_file.globalvars) do
 		-- Fill Java item
-		javaapimodelfactory.addglobalvar(jfile,M._item(_item,false,handledexpr))
+		buffer:addglobalvar(jfile,M._item(buffer,_item,false,handledexpr))
 	end
 
 	-- Adding returned types
 	for _, _return in ipairs(_file.returns) do
-		local jreturn = javaapimodelfactory.newreturn()
+		local jreturn = buffer:newreturn()
 		for _, _type in ipairs( _return.types ) do
-			javaapimodelfactory.addtype(jreturn,M._typeref(_type))
+			buffer:addtype(jreturn,M._typeref(buffer,_type))
 		end
-		javaapimodelfactory.fileapiaddreturn(jfile,jreturn)
+		buffer:fileapiaddreturn(jfile,jreturn)
 	end
 
 	-- Adding types defined in files
 	for _, _typedef in pairs(_file.types) do
-		javaapimodelfactory.addtypedef(jfile,_typedef.name,M._typedef(_typedef,handledexpr))
+		buffer:addtypedef(jfile,_typedef.name,M._typedef(buffer,_typedef,handledexpr))
 	end
 
 	return jfile, handledexpr
@@ -12,28 +12,30 @@
 local J = {}
 local javaapimodelbuilder = require 'javaapimodelbuilder'
 
-local javainternalmodelfactory = require 'javainternalmodelfactory'
-local javaapimodelfactory      = require 'javaapimodelfactory'  
+
+--
+-- Model is written in a buffer, see javamodelsbuffer
+--
 
 --------------------------------------
 -- create internal content java object
-function J._internalcontent(_internalcontent,_file,handledexpr)
+function J._internalcontent(buffer,_internalcontent,_file,handledexpr)
 
 	-- Setting body
 	local handledexpr = handledexpr or {}
-	local jblock = J._block(_internalcontent.content,handledexpr)
-	local jinternalcontent = javainternalmodelfactory.newinternalmodel(jblock)
+	local jblock = J._block(buffer,_internalcontent.content,handledexpr)
+	local jinternalcontent = buffer:newinternalmodel(jblock)
 
 	-- Appending unknown global variables
 	for _, _item in ipairs(_internalcontent.unknownglobalvars) do
-		local jitem = javaapimodelbuilder._item(_item,true,handledexpr)
-		javainternalmodelfactory.addunknownglobalvar(jinternalcontent,jitem)
+		local jitem = javaapimodelbuilder._item(buffer,_item,true,handledexpr)
+		buffer:addunknownglobalvar(jinternalcontent,jitem)
 
 		-- add occurrences
 		for _,_occurrence in ipairs(_item.occurrences) do
 			local jidentifier = handledexpr[_occurrence]
 			if jidentifier then
-				javaapimodelfactory.addoccurrence(jitem,jidentifier)
+				buffer:addoccurrence(jitem,jidentifier)
 			end
 		end
 	end
@@ -47,7 +49,7 @@ function J._internalcontent(_internalcontent,_file,handledexpr)
 			for _,_occurrence in ipairs(_item.occurrences) do
 				local jidentifier = handledexpr[_occurrence]
 				if jidentifier then
-					javaapimodelfactory.addoccurrence(jitem,jidentifier)
+					buffer:addoccurrence(jitem,jidentifier)
 				end
 			end
 		end
@@ -59,67 +61,67 @@ end
 
 --------------------------------------
 -- create block java object
-function J._block(_block,handledexpr)
+function J._block(buffer,_block,handledexpr)
 	-- Setting source range
-	local jblock = javainternalmodelfactory.newblock(
+	local jblock = buffer:newblock(
 		_block.sourcerange.min -1,
 		_block.sourcerange.max
 	)
 
 	-- Append nodes to block
 	for _, _expr in pairs(_block.content) do
-		local jexpr = J._expression(_expr,handledexpr)
-		javainternalmodelfactory.addcontent(jblock,jexpr)
+		local jexpr = J._expression(buffer,_expr,handledexpr)
+		buffer:blockaddcontent(jblock,jexpr)
 	end
 
 	for _, _localvar in pairs(_block.localvars) do
 		-- Create Java item
-		local jitem = javaapimodelbuilder._item(_localvar.item,true,handledexpr)
+		local jitem = javaapimodelbuilder._item(buffer,_localvar.item,true,handledexpr)
 		if _localvar.item.type and _localvar.item.type.tag == "exprtyperef" then
-			javaapimodelfactory.setexpression(jitem,handledexpr[_localvar.item.type.expression])
+			buffer:setexpression(jitem,handledexpr[_localvar.item.type.expression])
 		end
 
 		-- add occurrence
 		for _,_occurrence in ipairs(_localvar.item.occurrences) do
 			local jidentifier = handledexpr[_occurrence]
 			if jidentifier then
-				javaapimodelfactory.addoccurrence(jitem,jidentifier)
+				buffer:addoccurrence(jitem,jidentifier)
 			end
 		end
 
 		-- Append Java local variable definition
-		local jlocalvar = javainternalmodelfactory.newlocalvar(
+		local jlocalvar = buffer:newlocalvar(
 			jitem,
 			_localvar.scope.min -1,
 			_localvar.scope.max
 		) 
-		javainternalmodelfactory.addlocalvar(jblock,jlocalvar)
+		buffer:addlocalvar(jblock,jlocalvar)
 	end
 	return jblock
 end
 
 --------------------------------------
 -- create expression java object
-function J._expression(_expr,handledexpr)
+function J._expression(buffer,_expr,handledexpr)
 	local tag = _expr.tag
 	if tag == "MIdentifier" then
-		return J._identifier(_expr,handledexpr)
+		return J._identifier(buffer,_expr,handledexpr)
 	elseif tag == "MIndex" then
-		return J._index(_expr,handledexpr)
+		return J._index(buffer,_expr,handledexpr)
 	elseif tag == "MCall" then
-		return J._call(_expr,handledexpr)
+		return J._call(buffer,_expr,handledexpr)
 	elseif tag == "MInvoke" then
-		return J._invoke(_expr,handledexpr)
+		return J._invoke(buffer,_expr,handledexpr)
 	elseif tag == "MBlock" then
-		return J._block(_expr,handledexpr)
+		return J._block(buffer,_expr,handledexpr)
 	end
 	return nil
 end
 
 --------------------------------------
 -- create identifier java object
- function J._identifier(_identifier,handledexpr)
-	local jidentifier = javainternalmodelfactory.newidentifier(
+ function J._identifier(buffer,_identifier,handledexpr)
+	local jidentifier = buffer:newidentifier(
 		_identifier.sourcerange.min - 1,
 		_identifier.sourcerange.max
 	)
@@ -129,11 +131,11 @@ end
 
 --------------------------------------
 -- create index java object
-function J._index(_index,handledexpr)
-	local jindex = javainternalmodelfactory.newindex(
+function J._index(buffer,_index,handledexpr)
+	local jindex = buffer:newindex(
   		_index.sourcerange.min -1,
 		_index.sourcerange.max,
-		J._expression(_index.left,handledexpr),
+		J._expression(buffer,_index.left,handledexpr),
 		_index.right
 	)
 	handledexpr[_index] =jindex
@@ -142,11 +144,11 @@ end
 
 --------------------------------------
 -- create call java object
-function J._call(_call,handledexpr)
-	local jcall = javainternalmodelfactory.newcall(
+function J._call(buffer,_call,handledexpr)
+	local jcall = buffer:newcall(
 		_call.sourcerange.min - 1,
 		_call.sourcerange.max,
-		J._expression(_call.func,handledexpr)
+		J._expression(buffer,_call.func,handledexpr)
 	)
 	handledexpr[_call] =jcall
 	return jcall
@@ -154,12 +156,12 @@ end
 
 --------------------------------------
 -- create invoke java object
-function J._invoke(_invoke,handledexpr)
-	local jinvoke = javainternalmodelfactory.newinvoke(
+function J._invoke(buffer,_invoke,handledexpr)
+	local jinvoke = buffer:newinvoke(
 		_invoke.sourcerange.min - 1,
 		_invoke.sourcerange.max,
 		_invoke.functionname,
-		J._expression(_invoke.record,handledexpr)
+		J._expression(buffer,_invoke.record,handledexpr)
 	)
 	handledexpr[_invoke] =jinvoke
 	return jinvoke
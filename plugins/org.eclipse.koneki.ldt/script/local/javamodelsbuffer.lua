@@ -0,0 +1,159 @@
+--------------------------------------------------------------------------------
+--  Copyright (c) 2013 Sierra Wireless.
+--  All rights reserved. This program and the accompanying materials
+--  are made available under the terms of the Eclipse Public License v1.0
+--  which accompanies this distribution, and is available at
+--  http://www.eclipse.org/legal/epl-v10.html
+--
+--  Contributors:
+--       Sierra Wireless - initial API and implementation
+--------------------------------------------------------------------------------
+
+--
+-- Records Java model construction in a single string, decoded on Java side
+-- by ModelsBufferDecoder. So, building a model crosses JNI once per file
+-- instead of several times per node.
+--
+-- Buffer is a list of tokens separated by SEPARATOR. Each command is an
+-- opcode followed by its arguments. Commands creating an object implicitly
+-- give it the next id, starting at 1. Objects are referred to by id, 0 stands
+-- for nil. In strings, NUL, SEPARATOR and ESCAPE are escaped, as JNI strings
+-- stop at NUL.
+--
+-- Opcodes must be kept in sync with ModelsBufferDecoder.
+--
+local M = {}
+
+local SEPARATOR = '\1'
+local ESCAPE = '\2'
+local NIL = ESCAPE .. 'n'
+local escapes = {
+	['\0']      = ESCAPE .. '0',
+	[SEPARATOR] = ESCAPE .. '1',
+	[ESCAPE]    = ESCAPE .. '2'
+}
+
+local opcodes = {
+	newsourceroot       = 1,
+	setproblem          = 2,
+	addcontent          = 3,
+	newinternalmodel    = 10,
+	newidentifier       = 11,
+	newindex            = 12,
+	newcall             = 13,
+	newinvoke           = 14,
+	newblock            = 15,
+	blockaddcontent     = 16,
+	newlocalvar         = 17,
+	addlocalvar         = 18,
+	addunknownglobalvar = 19,
+	newitem             = 20,
+	addoccurrence       = 21,
+	newexternaltyperef  = 22,
+	newinternaltyperef  = 23,
+	newmoduletyperef    = 24,
+	newexprtyperef      = 25,
+	newprimitivetyperef = 26,
+	setexpression       = 27,
+	newrecordtypedef    = 28,
+	addfield            = 29,
+	newfunctiontypedef  = 30,
+	addparam            = 31,
+	newreturn           = 32,
+	addtype             = 33,
+	functionaddreturn   = 34,
+	newfileapi          = 35,
+	addglobalvar        = 36,
+	fileapiaddreturn    = 37,
+	addtypedef          = 38
+}
+
+--
+-- Argument kinds of each command, i: integer, s: string, o: object
+--
+local signatures = {
+	newsourceroot       = 'i',
+	setproblem          = 'oiiis',
+	addcontent          = 'ooo',
+	newinternalmodel    = 'o',
+	newidentifier       = 'ii',
+	newindex            = 'iios',
+	newcall             = 'iio',
+	newinvoke           = 'iiso',
+	newblock            = 'ii',
+	blockaddcontent     = 'oo',
+	newlocalvar         = 'oii',
+	addlocalvar         = 'oo',
+	addunknownglobalvar = 'oo',
+	newitem             = 'ssiio',
+	addoccurrence       = 'oo',
+	newexternaltyperef  = 'ss',
+	newinternaltyperef  = 's',
+	newmoduletyperef    = 'si',
+	newexprtyperef      = 'i',
+	newprimitivetyperef = 's',
+	setexpression       = 'oo',
+	newrecordtypedef    = 'ssii',
+	addfield            = 'oo',
+	newfunctiontypedef  = '',
+	addparam            = 'osos',
+	newreturn           = '',
+	addtype             = 'oo',
+	functionaddreturn   = 'oo',
+	newfileapi          = 's',
+	addglobalvar        = 'oo',
+	fileapiaddreturn    = 'oo',
+	addtypedef          = 'oso'
+}
+
+local function encodestring(s)
+	if s == nil then return NIL end
+	return (string.gsub(s, '[%z\1\2]', escapes))
+end
+
+local function encodeinteger(n)
+	return string.format('%d', n or 0)
+end
+
+--
+-- Buffer methods, one per command, named after former factory functions.
+-- Methods creating an object return its id.
+--
+local Buffer = {}
+Buffer.__index = Buffer
+
+for name, opcode in pairs(opcodes) do
+	local signature = signatures[name]
+	local creates = string.sub(name, 1, 3) == 'new'
+	Buffer[name] = function(self, ...)
+		local tokens = self.tokens
+		tokens[#tokens + 1] = encodeinteger(opcode)
+		for i = 1, #signature do
+			local kind = string.sub(signature, i, i)
+			local value = select(i, ...)
+			if kind == 's' then
+				tokens[#tokens + 1] = encodestring(value)
+			else
+				tokens[#tokens + 1] = encodeinteger(value)
+			end
+		end
+		if creates then
+			self.count = self.count + 1
+			return self.count
+		end
+	end
+end
+
+--
+-- @return Whole buffer content, as a string
+function Buffer:tostring()
+	return table.concat(self.tokens, SEPARATOR)
+end
+
+--
+-- @return New empty buffer
+function M.new()
+	return setmetatable({tokens = {}, count = 0}, Buffer)
+end
+
+return M
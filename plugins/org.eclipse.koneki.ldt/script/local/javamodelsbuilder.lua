@@ -14,26 +14,47 @@ require 'metalua.package'
 local compiler = require 'metalua.compiler'
 local mlc = compiler.new()
 
-local javamodelfactory = require 'javamodelfactory'
+local javamodelsbuffer = require 'javamodelsbuffer'
+local incrementalparser = require 'incrementalparser'
 
 -- Just redefining classic print, as there is a flush problem calling it from Java
 local print = function(...) print(...) io.flush() end
 
 local M = {}
 
----
--- Build Java Model from source code
---
--- @param	source Code to parse
--- @return	LuaSourceRoot, DLTK node, root of DLTK AST
-function M.build(source)
+-- Count of VM instructions between two checks of interruption
+local HOOK_COUNT = 100000
 
-	-- Build AST
-	local ast = mlc:src_to_ast( source )
-	local root = javamodelfactory.newsourceroot(#source)
+-- Error raised when a build is interrupted
+local INTERRUPTED = 'javamodelsbuilder: build interrupted'
 
-	-- Check if an error occurred
-	local status, astvalid, errormsg, positions = pcall(compiler.check_ast, ast)
+-- Key, source and AST of last valid build given a key, next build with this key only parses statements around edited region
+local previous
+
+local function build(source, mark, key)
+	mark('start', collectgarbage('count'))
+
+	-- Build AST, reusing statements of previous one when this source was built already.
+	-- Previous AST is forgotten while it is spliced, an interrupted build must not leave it half shifted.
+	local candidate = previous
+	previous = nil
+	local ast = key and candidate and candidate.key == key and incrementalparser.reparse(mlc, candidate.source, candidate.ast, source)
+	local reused = ast and true
+	if not reused then
+		-- Previous AST is untouched, it is still the one of an edited source when this one is invalid
+		previous = candidate
+		ast = mlc:src_to_ast( source )
+	end
+	mark('sourcetoast', collectgarbage('count'))
+	local buffer = javamodelsbuffer.new()
+	local root = buffer:newsourceroot(#source)
+
+	-- Check if an error occurred, statements of a reused AST are all valid
+	local status, astvalid, errormsg, positions = true, true
+	if not reused then
+		status, astvalid, errormsg, positions = pcall(compiler.check_ast, ast)
+	end
+	mark('checkast', collectgarbage('count'))
 
 
 	-- Report problem
@@ -43,34 +64,73 @@ function M.build(source)
 			local line = positions.line and positions.line - 1 or 0
 			local column = positions.column and positions.column - 1 or 0
 			local offset = positions.offset and positions.offset - 1 or 0
-			javamodelfactory.setproblem(root, line, column, offset, msg)
+			buffer:setproblem(root, line, column, offset, msg)
 		else
-			javamodelfactory.setproblem(root, 0, 0, 0, msg)
+			buffer:setproblem(root, 0, 0, 0, msg)
 		end
-		return root
+		return buffer:tostring()
+	end
+	if key then
+		previous = { key = key, source = source, ast = ast }
 	end
 
 	-- Create api model
 	local apimodelbuilder = require 'models.apimodelbuilder'
 	local _file, comment2apiobj = apimodelbuilder.createmoduleapi(ast)
+	mark('apimodel', collectgarbage('count'))
 
 	-- create internal model
 	local internalmodelbuilder = require "models.internalmodelbuilder"
 	local _internalcontent = internalmodelbuilder.createinternalcontent(ast,_file,comment2apiobj)
+	mark('internalmodel', collectgarbage('count'))
 
 	-- Converting api model to java
 	local javaapimodelbuilder = require 'javaapimodelbuilder'
-	local jfile, handledexpr = javaapimodelbuilder._file(_file)
+	local jfile, handledexpr = javaapimodelbuilder._file(buffer,_file)
 
 	-- Converting internal model to java
 	local javainternalmodelbuilder = require 'javainternalmodelbuilder'
-	local jinternalcontent = javainternalmodelbuilder._internalcontent(_internalcontent,_file, handledexpr)
+	local jinternalcontent = javainternalmodelbuilder._internalcontent(buffer,_internalcontent,_file, handledexpr)
 
 	-- Append information from documentation
-	javamodelfactory.addcontent(root,jfile,jinternalcontent)
+	buffer:addcontent(root,jfile,jinternalcontent)
 
 	local handledcomments={}
-	return root
+	local result = buffer:tostring()
+	mark('javamodel', collectgarbage('count'))
+	return result
+end
+
+---
+-- Build Java Model from source code
+--
+-- @param	source Code to parse
+-- @param	mark Optional function called at the end of each phase with phase name and Lua heap size in kilobytes
+-- @param	interrupted Optional function called regularly during build, build is aborted with an error as soon as it returns true
+-- @param	key Optional identifier of built source, AST of next build with the same key reuses statements out of edited region
+-- @return	Buffer describing LuaSourceRoot, DLTK node, root of DLTK AST. It is decoded by ModelsBufferDecoder.
+function M.build(source, mark, interrupted, key)
+	mark = mark or function() end
+	if interrupted then
+		-- Once interrupted, hook raises an error before each instruction, as Metalua may catch errors with pcall.
+		-- So caller has to remove hook with debug.sethook() when build is aborted, the hook prevents it here.
+		local aborted = false
+		local function hook()
+			if aborted or interrupted() then
+				if not aborted then
+					aborted = true
+					debug.sethook(hook, '', 1)
+				end
+				error(INTERRUPTED, 0)
+			end
+		end
+		debug.sethook(hook, '', HOOK_COUNT)
+	end
+	-- Hook is removed even when build fails
+	local status, result = pcall(build, source, mark, key)
+	debug.sethook()
+	if not status then error(result, 0) end
+	return result
 end
 
 return M
@@ -30,7 +30,6 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
-import org.eclipse.core.runtime.URIUtil;
 import org.eclipse.dltk.compiler.env.IModuleSource;
 import org.eclipse.dltk.core.IBuildpathEntry;
 import org.eclipse.dltk.core.IExternalSourceModule;
@@ -43,6 +42,7 @@ import org.eclipse.dltk.core.ISourceModule;
 import org.eclipse.dltk.core.ModelException;
 import org.eclipse.dltk.core.environment.EnvironmentPathUtils;
 import org.eclipse.koneki.ldt.core.internal.Activator;
+import org.eclipse.koneki.ldt.core.internal.ModuleIndex;
 import org.eclipse.koneki.ldt.core.internal.buildpath.LuaExecutionEnvironmentBuildpathUtil;
 
 /**
@@ -178,40 +178,13 @@ public final class LuaUtils {
 		if (project == null && name == null || name.isEmpty())
 			return null;
 
-		// search in all source path.
-		IProjectFragment[] allProjectFragments;
+		// search in all source path, through the index of the project
 		try {
-			allProjectFragments = project.getAllProjectFragments();
-			for (final IProjectFragment projectFragment : allProjectFragments) {
-				final IModuleSource moduleSource = getModuleSource(name, projectFragment);
-				if (moduleSource != null)
-					return moduleSource;
-			}
+			return ModuleIndex.getModuleSource(project, name);
 		} catch (final ModelException e) {
 			Activator.logError(MessageFormat.format("Unable to find module: {0}.", name), e); //$NON-NLS-1$
 			return null;
 		}
-		return null;
-	}
-
-	/*
-	 * @return the {@link IModuleSource} from full name with module dot syntax
-	 */
-	private static IModuleSource getModuleSource(final String name, final IParent parent) throws ModelException {
-		final IModelElement[] children = parent.getChildren();
-		for (final IModelElement child : children) {
-			if (child instanceof IModuleSource) {
-				if (name.equals(getModuleFullName((IModuleSource) child))) {
-					return (IModuleSource) child;
-				}
-			} else if (child instanceof IParent) {
-				final IModuleSource moduleSource = getModuleSource(name, (IParent) child);
-				if (moduleSource != null)
-					return moduleSource;
-			}
-
-		}
-		return null;
 	}
 
 	/**
@@ -246,40 +219,13 @@ public final class LuaUtils {
 		if (project == null || absolutepath == null)
 			return null;
 
-		// search in all source path.
-		IProjectFragment[] allProjectFragments;
+		// search in all source path, through the index of the project
 		try {
-			allProjectFragments = project.getAllProjectFragments();
-			for (final IProjectFragment projectFragment : allProjectFragments) {
-				final ISourceModule moduleSource = getSourceModuleFromAbsolutePath(absolutepath, projectFragment);
-				if (moduleSource != null)
-					return moduleSource;
-			}
+			return ModuleIndex.getSourceModule(project, absolutepath);
 		} catch (final ModelException e) {
 			Activator.logError(MessageFormat.format("Unable to find module: {0}.", absolutepath), e); //$NON-NLS-1$
 			return null;
 		}
-		return null;
-	}
-
-	/*
-	 * @return the {@link ISourceModule} from Absolute local file URI and a parent
-	 */
-	private static ISourceModule getSourceModuleFromAbsolutePath(final URI absolutepath, final IParent parent) throws ModelException {
-		final IModelElement[] children = parent.getChildren();
-		for (final IModelElement child : children) {
-			if (child instanceof ISourceModule) {
-				if (URIUtil.sameURI(absolutepath, getModuleAbsolutePath((ISourceModule) child))) {
-					return (ISourceModule) child;
-				}
-			} else if (child instanceof IParent) {
-				final ISourceModule moduleSource = getSourceModuleFromAbsolutePath(absolutepath, (IParent) child);
-				if (moduleSource != null)
-					return moduleSource;
-			}
-
-		}
-		return null;
 	}
 
 	/**
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.runtime.URIUtil;
+import org.eclipse.dltk.compiler.env.IModuleSource;
+import org.eclipse.dltk.core.DLTKCore;
+import org.eclipse.dltk.core.ElementChangedEvent;
+import org.eclipse.dltk.core.IElementChangedListener;
+import org.eclipse.dltk.core.IModelElement;
+import org.eclipse.dltk.core.IModelElementDelta;
+import org.eclipse.dltk.core.IParent;
+import org.eclipse.dltk.core.IProjectFragment;
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.dltk.core.ModelException;
+import org.eclipse.koneki.ldt.core.LuaUtils;
+
+/**
+ * Modules of a project by full name and by absolute location, so {@link LuaUtils} lookups are a single hash probe instead of a walk through all
+ * project fragments.
+ * <p>
+ * An index is built on first lookup, walking project fragments in build path order, so when several modules have the same name, the first one
+ * wins as it does for a walk. Added and removed source modules update indexes in place, other structural changes such as build path changes
+ * drop affected indexes, they are built again on next lookup.
+ */
+public final class ModuleIndex {
+
+	/** Indexes by project, only valid ones are kept */
+	private static final ConcurrentMap<IScriptProject, ModuleIndex> INDEXES = new ConcurrentHashMap<IScriptProject, ModuleIndex>();
+
+	/** Incremented on each model change, an index built meanwhile may be stale so it is not kept. Guarded by {@link #INDEXES}. */
+	private static long modificationCount;
+
+	private static IElementChangedListener changedListener = new IElementChangedListener() {
+		@Override
+		public void elementChanged(final ElementChangedEvent event) {
+			synchronized (INDEXES) {
+				processDelta(event.getDelta());
+			}
+		}
+
+		private void processDelta(final IModelElementDelta delta) {
+			final IModelElement element = delta.getElement();
+			final int type = element.getElementType();
+			if (type == IModelElement.SOURCE_MODULE) {
+				if (delta.getKind() == IModelElementDelta.ADDED)
+					moduleAdded((ISourceModule) element);
+				else if (delta.getKind() == IModelElementDelta.REMOVED)
+					moduleRemoved((ISourceModule) element);
+				return;
+			}
+
+			// Projects, fragments and folders only matter through their modules, other changes may reorder modules
+			final int ignoredFlags = IModelElementDelta.F_CHILDREN | IModelElementDelta.F_CONTENT;
+			final boolean modulesOnly = delta.getKind() == IModelElementDelta.CHANGED && (delta.getFlags() & ~ignoredFlags) == 0;
+			if (!modulesOnly && type != IModelElement.SCRIPT_MODEL) {
+				final IModelElement fragment = element.getAncestor(IModelElement.PROJECT_FRAGMENT);
+				if (fragment != null && type != IModelElement.PROJECT_FRAGMENT)
+					fragmentChanged((IProjectFragment) fragment);
+				else
+					clear();
+				return;
+			}
+			for (final IModelElementDelta child : delta.getAffectedChildren())
+				processDelta(child);
+		}
+	};
+	static {
+		DLTKCore.addElementChangedListener(changedListener);
+	}
+
+	/** Fragments walked to build this index */
+	private final Set<IProjectFragment> fragments = new HashSet<IProjectFragment>();
+	private final ConcurrentMap<String, IModuleSource> modulesByName = new ConcurrentHashMap<String, IModuleSource>();
+	private final ConcurrentMap<Object, ISourceModule> modulesByLocation = new ConcurrentHashMap<Object, ISourceModule>();
+
+	/** Whether a name or a location is shared by several modules, removing a module may then reveal another one */
+	private volatile boolean shadowing;
+
+	private ModuleIndex(final IProjectFragment[] fragments) throws ModelException {
+		for (final IProjectFragment fragment : fragments) {
+			this.fragments.add(fragment);
+			addModules(fragment);
+		}
+	}
+
+	/**
+	 * @return Module of given project, or of its dependencies, with given full name, <code>null</code> if there is none.
+	 */
+	public static IModuleSource getModuleSource(final IScriptProject project, final String name) throws ModelException {
+		return getIndex(project).modulesByName.get(name);
+	}
+
+	/**
+	 * @return Module of given project, or of its dependencies, located at given absolute URI, <code>null</code> if there is none.
+	 */
+	public static ISourceModule getSourceModule(final IScriptProject project, final URI location) throws ModelException {
+		return getIndex(project).modulesByLocation.get(getLocationKey(location));
+	}
+
+	/**
+	 * @return Modules of given project and of its dependencies, a module shadowed by another one with the same name is not part of them.
+	 */
+	public static Collection<IModuleSource> getModules(final IScriptProject project) throws ModelException {
+		return Collections.unmodifiableCollection(getIndex(project).modulesByName.values());
+	}
+
+	/**
+	 * @return Count of changes of modules or build paths so far, modules returned after reading it include these changes.
+	 */
+	public static long getModificationCount() {
+		synchronized (INDEXES) {
+			return modificationCount;
+		}
+	}
+
+	private static ModuleIndex getIndex(final IScriptProject project) throws ModelException {
+		final ModuleIndex index = INDEXES.get(project);
+		if (index != null)
+			return index;
+
+		final long expectedModificationCount;
+		synchronized (INDEXES) {
+			expectedModificationCount = modificationCount;
+		}
+		final ModuleIndex newIndex = new ModuleIndex(project.getAllProjectFragments());
+		synchronized (INDEXES) {
+			if (modificationCount != expectedModificationCount)
+				return newIndex;
+			final ModuleIndex previous = INDEXES.putIfAbsent(project, newIndex);
+			return previous != null ? previous : newIndex;
+		}
+	}
+
+	/**
+	 * Walks modules of given parent, a module already indexed under the same name or location wins.
+	 */
+	private void addModules(final IParent parent) throws ModelException {
+		for (final IModelElement child : parent.getChildren()) {
+			if (child instanceof ISourceModule || child instanceof IModuleSource)
+				addModule(child);
+			else if (child instanceof IParent)
+				addModules((IParent) child);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> when given module is shadowed by a module already indexed
+	 */
+	private boolean addModule(final IModelElement module) {
+		boolean added = true;
+		if (module instanceof IModuleSource) {
+			final IModuleSource moduleSource = (IModuleSource) module;
+			final IModuleSource previous = modulesByName.putIfAbsent(LuaUtils.getModuleFullName(moduleSource), moduleSource);
+			added = previous == null || previous.equals(moduleSource);
+		}
+		if (module instanceof ISourceModule) {
+			final URI location = LuaUtils.getModuleAbsolutePath((ISourceModule) module);
+			if (location != null) {
+				final ISourceModule previous = modulesByLocation.putIfAbsent(getLocationKey(location), (ISourceModule) module);
+				added &= previous == null || previous.equals(module);
+			}
+		}
+		if (!added)
+			shadowing = true;
+		return added;
+	}
+
+	/**
+	 * Indexes a new module in indexes of its fragment. As fragment order is not known, an index already having a module with the same name
+	 * is dropped.
+	 */
+	private static void moduleAdded(final ISourceModule module) {
+		modificationCount++;
+		final IModelElement fragment = module.getAncestor(IModelElement.PROJECT_FRAGMENT);
+		for (final Map.Entry<IScriptProject, ModuleIndex> entry : INDEXES.entrySet()) {
+			final ModuleIndex index = entry.getValue();
+			if (index.fragments.contains(fragment) && !index.addModule(module))
+				INDEXES.remove(entry.getKey(), index);
+		}
+	}
+
+	/**
+	 * Removes a module from indexes of its fragment. When names or locations are shadowed, an index is dropped, as the removed module may
+	 * have hidden another one.
+	 */
+	private static void moduleRemoved(final ISourceModule module) {
+		modificationCount++;
+		final IModelElement fragment = module.getAncestor(IModelElement.PROJECT_FRAGMENT);
+		for (final Map.Entry<IScriptProject, ModuleIndex> entry : INDEXES.entrySet()) {
+			final ModuleIndex index = entry.getValue();
+			if (!index.fragments.contains(fragment))
+				continue;
+			if (index.shadowing) {
+				INDEXES.remove(entry.getKey(), index);
+			} else {
+				index.modulesByName.values().remove(module);
+				index.modulesByLocation.values().remove(module);
+			}
+		}
+	}
+
+	/**
+	 * Drops indexes walking given fragment.
+	 */
+	private static void fragmentChanged(final IProjectFragment fragment) {
+		modificationCount++;
+		for (final Map.Entry<IScriptProject, ModuleIndex> entry : INDEXES.entrySet())
+			if (entry.getValue().fragments.contains(fragment))
+				INDEXES.remove(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Drops all indexes, as build paths or projects changed.
+	 */
+	private static void clear() {
+		modificationCount++;
+		INDEXES.clear();
+	}
+
+	/**
+	 * @return Key equal for URIs which are the same according to {@link URIUtil#sameURI(URI, URI)}: local files compare as {@link File}s, so
+	 *         case variants match on case insensitive file systems.
+	 */
+	private static Object getLocationKey(final URI location) {
+		final File file = URIUtil.toFile(location);
+		return file != null ? file : location;
+	}
+}
@@ -18,11 +18,36 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 
 	public static final String EE_DEFAULT_ID = "EE__default_id"; //$NON-NLS-1$
 
+	/** Count of AST nodes the parser keeps strongly in memory, ASTs of edited sources excluded */
+	public static final String AST_CACHE_BUDGET = "ast_cache_budget"; //$NON-NLS-1$
+	public static final long AST_CACHE_BUDGET_DEFAULT = 500000;
+
+	/** Time in milliseconds after which a parse is aborted, last valid AST is used instead. 0 means no limit */
+	public static final String PARSE_TIMEOUT = "parse_timeout"; //$NON-NLS-1$
+	public static final long PARSE_TIMEOUT_DEFAULT = 10000;
+
+	/** Megabytes a Metalua state may hold after a parse, state is discarded when they are exceeded. 0 means no limit */
+	public static final String PARSER_MEMORY_LIMIT = "parser_memory_limit"; //$NON-NLS-1$
+	public static final long PARSER_MEMORY_LIMIT_DEFAULT = 256;
+
+	/** Megabytes of ASTs kept on disk, least recently used ones are deleted when they are exceeded. 0 means no limit */
+	public static final String AST_DISK_CACHE_SIZE = "ast_disk_cache_size"; //$NON-NLS-1$
+	public static final long AST_DISK_CACHE_SIZE_DEFAULT = 64;
+
+	/** Count of global variables of other modules proposed by completion. 0 means no limit */
+	public static final String GLOBAL_COMPLETION_LIMIT = "global_completion_limit"; //$NON-NLS-1$
+	public static final int GLOBAL_COMPLETION_LIMIT_DEFAULT = 1000;
+
 	@Override
 	public void initializeDefaultPreferences() {
 		ScopedPreferenceStore preferenceStore = new ScopedPreferenceStore(DefaultScope.INSTANCE, LuaLanguageToolkit.getDefault()
 				.getPreferenceQualifier());
 
 		preferenceStore.setDefault(EE_DEFAULT_ID, "lua-5.1"); //$NON-NLS-1$
+		preferenceStore.setDefault(AST_CACHE_BUDGET, AST_CACHE_BUDGET_DEFAULT);
+		preferenceStore.setDefault(PARSE_TIMEOUT, PARSE_TIMEOUT_DEFAULT);
+		preferenceStore.setDefault(PARSER_MEMORY_LIMIT, PARSER_MEMORY_LIMIT_DEFAULT);
+		preferenceStore.setDefault(AST_DISK_CACHE_SIZE, AST_DISK_CACHE_SIZE_DEFAULT);
+		preferenceStore.setDefault(GLOBAL_COMPLETION_LIMIT, GLOBAL_COMPLETION_LIMIT_DEFAULT);
 	}
 }
@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.dltk.compiler.env.IModuleSource;
+import org.eclipse.dltk.core.DLTKCore;
+import org.eclipse.dltk.core.ElementChangedEvent;
+import org.eclipse.dltk.core.IElementChangedListener;
+import org.eclipse.dltk.core.IModelElement;
+import org.eclipse.dltk.core.IModelElementDelta;
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.dltk.core.ModelException;
+import org.eclipse.koneki.ldt.core.LuaUtils;
+import org.eclipse.koneki.ldt.core.internal.Activator;
+import org.eclipse.koneki.ldt.core.internal.ModuleIndex;
+import org.eclipse.koneki.ldt.core.internal.ast.models.LuaASTUtils.Definition;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Item;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.LuaFileAPI;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+
+/**
+ * Global variables of all modules of a project, sorted by case insensitive name, so global completion is a range lookup whatever the count of
+ * modules.
+ * <p>
+ * A table is built by a background job, lookups never read ASTs of project modules and return variables of modules read so far. Names of
+ * global variables of ASTs built by the parser, during a build for instance, are handed to the table of their project so the job does not read
+ * them again. Then a table follows {@link ModuleIndex} for added and removed modules, and is told about new ASTs by the parser, only changed
+ * modules are read again.
+ * <p>
+ * Tables only hold names, ASTs stay under the budget of AST caches. Variables found by a lookup are read from the AST of their module.
+ * Variables of the preloaded module, the standard library, are always returned whatever the limit of a lookup.
+ */
+public final class GlobalSymbolTable {
+
+	/** Family of jobs building tables */
+	public static final Object JOB_FAMILY = new Object();
+
+	/** Name of the module holding the standard library */
+	private static final String PRELOADED_MODULE = "global"; //$NON-NLS-1$
+
+	/** Separates parts of a symbol key, it sorts before any character of a name */
+	private static final char SEPARATOR = '\u0000';
+
+	/** Sorts after any character of a name */
+	private static final char LAST_CHARACTER = '\uffff';
+
+	/** Tables by project. Guarded by itself. */
+	private static final Map<IScriptProject, GlobalSymbolTable> TABLES = new HashMap<IScriptProject, GlobalSymbolTable>();
+
+	private static IElementChangedListener changedListener = new IElementChangedListener() {
+		@Override
+		public void elementChanged(final ElementChangedEvent event) {
+			processDelta(event.getDelta());
+		}
+
+		private void processDelta(final IModelElementDelta delta) {
+			final IModelElement element = delta.getElement();
+			if (element.getElementType() == IModelElement.SCRIPT_PROJECT) {
+				// Tables of closed or deleted projects are dropped, they are built again on next lookup
+				if (delta.getKind() == IModelElementDelta.REMOVED || (delta.getFlags() & IModelElementDelta.F_CLOSED) != 0)
+					removeTable((IScriptProject) element);
+				return;
+			}
+			if (element.getElementType() == IModelElement.SCRIPT_MODEL)
+				for (final IModelElementDelta child : delta.getAffectedChildren())
+					processDelta(child);
+		}
+	};
+	static {
+		DLTKCore.addElementChangedListener(changedListener);
+	}
+
+	private final IScriptProject project;
+
+	/** Global variables by lower case name, name and module name, so ranking is stable */
+	private final TreeMap<String, Symbol> symbols = new TreeMap<String, Symbol>();
+
+	/** Keys of global variables of each module read */
+	private final Map<ISourceModule, List<String>> keysByModule = new HashMap<ISourceModule, List<String>>();
+
+	/** Modules listed but not read yet, in build path order */
+	private final Set<ISourceModule> pendingModules = new LinkedHashSet<ISourceModule>();
+
+	/** Names of global variables of modules parsed since last update, they are applied on next one so the parser never waits for a lookup */
+	private final ConcurrentMap<ISourceModule, List<String>> parsedModules = new ConcurrentHashMap<ISourceModule, List<String>>();
+
+	/** {@link ModuleIndex#getModificationCount()} when modules were last listed, -1 when they never were */
+	private long modificationCount = -1;
+
+	private final Job job;
+
+	/**
+	 * Global variable of a module, its item is read from the AST of the module on lookup.
+	 */
+	private static final class Symbol {
+		private final String name;
+		private final ISourceModule module;
+
+		private Symbol(final String name, final ISourceModule module) {
+			this.name = name;
+			this.module = module;
+		}
+	}
+
+	private GlobalSymbolTable(final IScriptProject project) {
+		this.project = project;
+		job = new Job("Indexing global variables of " + project.getElementName()) { //$NON-NLS-1$
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				build(monitor);
+				return Status.OK_STATUS;
+			}
+
+			@Override
+			public boolean belongsTo(final Object family) {
+				return family == JOB_FAMILY;
+			}
+		};
+		job.setSystem(true);
+		job.setPriority(Job.DECORATE);
+	}
+
+	/**
+	 * Lookup does not wait for the table to be built, jobs of {@link #JOB_FAMILY} build it.
+	 *
+	 * @param prefix
+	 *            Start of variable names, case is ignored, <code>null</code> or empty for all variables
+	 * @param excludedModule
+	 *            Module whose variables are not wanted, as caller reads them itself, it may be <code>null</code>
+	 * @param limit
+	 *            Maximum count of variables of modules other than the preloaded one, <code>0</code> for no limit
+	 * @return Global variables of modules of given project whose name starts with given prefix, sorted by name
+	 */
+	public static List<Definition> find(final IScriptProject project, final String prefix, final ISourceModule excludedModule, final int limit) {
+		GlobalSymbolTable table;
+		synchronized (TABLES) {
+			table = TABLES.get(project);
+			if (table == null) {
+				table = new GlobalSymbolTable(project);
+				TABLES.put(project, table);
+			}
+		}
+
+		// Standard library is always proposed, other modules could crowd it out of the limit
+		final String lowerCasePrefix = prefix == null ? "" : prefix.toLowerCase(); //$NON-NLS-1$
+		final ISourceModule preloadedModule = LuaUtils.getSourceModule(PRELOADED_MODULE, project);
+		final TreeMap<String, Definition> found = new TreeMap<String, Definition>();
+		if (preloadedModule != null && !preloadedModule.equals(excludedModule)) {
+			final LuaFileAPI fileapi = getFileAPI(preloadedModule);
+			if (fileapi != null) {
+				for (final Item globalvar : fileapi.getGlobalvars().values()) {
+					final String key = getKey(globalvar.getName(), preloadedModule);
+					if (key.startsWith(lowerCasePrefix))
+						found.put(key, new Definition(preloadedModule, globalvar));
+				}
+			}
+		}
+
+		// Items are read out of the table monitor, ASTs may have to be parsed again
+		final Map<String, Symbol> matches = new TreeMap<String, Symbol>();
+		synchronized (table) {
+			table.update();
+			for (final Map.Entry<String, Symbol> entry : table.symbols.subMap(lowerCasePrefix, lowerCasePrefix + LAST_CHARACTER).entrySet()) {
+				final ISourceModule module = entry.getValue().module;
+				if (module.equals(excludedModule) || module.equals(preloadedModule))
+					continue;
+				matches.put(entry.getKey(), entry.getValue());
+				if (limit > 0 && matches.size() >= limit)
+					break;
+			}
+		}
+		final Map<ISourceModule, LuaFileAPI> fileapis = new HashMap<ISourceModule, LuaFileAPI>();
+		for (final Map.Entry<String, Symbol> entry : matches.entrySet()) {
+			final Symbol symbol = entry.getValue();
+			if (!fileapis.containsKey(symbol.module))
+				fileapis.put(symbol.module, getFileAPI(symbol.module));
+			final LuaFileAPI fileapi = fileapis.get(symbol.module);
+
+			// Variable is gone when module changed since it was read, the table learns it on next update
+			final Item globalvar = fileapi != null ? fileapi.getGlobalvars().get(symbol.name) : null;
+			if (globalvar != null)
+				found.put(entry.getKey(), new Definition(symbol.module, globalvar));
+		}
+		return new ArrayList<Definition>(found.values());
+	}
+
+	/**
+	 * Records names of global variables of a new AST of a module, the table of its project reads them on next update.
+	 */
+	public static void moduleParsed(final ISourceModule module, final LuaSourceRoot root) {
+		final GlobalSymbolTable table;
+		synchronized (TABLES) {
+			table = TABLES.get(module.getScriptProject());
+		}
+		if (table != null)
+			table.parsedModules.put(module, getGlobalNames(root));
+	}
+
+	private static void removeTable(final IScriptProject project) {
+		final GlobalSymbolTable table;
+		synchronized (TABLES) {
+			table = TABLES.remove(project);
+		}
+		if (table != null)
+			table.job.cancel();
+	}
+
+	private static String getKey(final String name, final ISourceModule module) {
+		return name.toLowerCase() + SEPARATOR + name + SEPARATOR + LuaUtils.getModuleFullName(module);
+	}
+
+	private static LuaFileAPI getFileAPI(final ISourceModule module) {
+		final LuaSourceRoot root = LuaASTModelUtils.getLuaSourceRoot(module);
+		return root != null ? root.getFileapi() : null;
+	}
+
+	private static List<String> getGlobalNames(final LuaSourceRoot root) {
+		final LuaFileAPI fileapi = root != null ? root.getFileapi() : null;
+		if (fileapi == null)
+			return new ArrayList<String>();
+		return new ArrayList<String>(fileapi.getGlobalvars().keySet());
+	}
+
+	/**
+	 * Applies new ASTs, and schedules the job when modules changed or are not all read. Caller holds table monitor.
+	 */
+	private void update() {
+		applyParsedModules();
+		if (modificationCount != ModuleIndex.getModificationCount() || !pendingModules.isEmpty())
+			job.schedule();
+	}
+
+	/**
+	 * Reads names of new ASTs of listed modules, names of modules not listed yet are kept until modules are listed. Caller holds table monitor.
+	 */
+	private void applyParsedModules() {
+		final Iterator<Map.Entry<ISourceModule, List<String>>> iterator = parsedModules.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<ISourceModule, List<String>> entry = iterator.next();
+			final ISourceModule module = entry.getKey();
+			if (pendingModules.remove(module) || keysByModule.containsKey(module)) {
+				iterator.remove();
+				removeModule(module);
+				addModule(module, entry.getValue());
+			} else if (modificationCount != -1) {
+				// Not a listed module of this project
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Lists modules, then reads ASTs of modules which were not parsed meanwhile. ASTs are read without holding the table monitor, so lookups
+	 * go on with the modules read so far.
+	 */
+	private void build(final IProgressMonitor monitor) {
+		final long currentModificationCount = ModuleIndex.getModificationCount();
+		boolean listed;
+		synchronized (this) {
+			listed = modificationCount == currentModificationCount;
+		}
+		if (!listed) {
+			final Collection<IModuleSource> modules;
+			try {
+				modules = ModuleIndex.getModules(project);
+			} catch (final ModelException e) {
+				Activator.logWarning("Unable to list modules for global symbols.", e); //$NON-NLS-1$
+				return;
+			}
+			synchronized (this) {
+				updateModules(modules);
+				modificationCount = currentModificationCount;
+				applyParsedModules();
+			}
+		}
+
+		while (!monitor.isCanceled()) {
+			final ISourceModule module;
+			synchronized (this) {
+				if (pendingModules.isEmpty())
+					return;
+				module = pendingModules.iterator().next();
+			}
+			final List<String> names = getGlobalNames(LuaASTModelUtils.getLuaSourceRoot(module));
+			synchronized (this) {
+				// A parse ending meanwhile is applied on next update, the AST read here is at least as old
+				if (pendingModules.remove(module))
+					addModule(module, names);
+			}
+		}
+	}
+
+	/**
+	 * Queues added modules and forgets removed ones. Caller holds table monitor.
+	 */
+	private void updateModules(final Collection<IModuleSource> modules) {
+		final Set<ISourceModule> sourceModules = new HashSet<ISourceModule>();
+		for (final IModuleSource module : modules) {
+			if (!(module instanceof ISourceModule))
+				continue;
+			final ISourceModule sourceModule = (ISourceModule) module;
+			sourceModules.add(sourceModule);
+			if (!keysByModule.containsKey(sourceModule))
+				pendingModules.add(sourceModule);
+		}
+
+		pendingModules.retainAll(sourceModules);
+		for (final ISourceModule module : new ArrayList<ISourceModule>(keysByModule.keySet()))
+			if (!sourceModules.contains(module))
+				removeModule(module);
+	}
+
+	private void addModule(final ISourceModule module, final List<String> names) {
+		final List<String> keys = new ArrayList<String>(names.size());
+		for (final String name : names) {
+			final String key = getKey(name, module);
+			symbols.put(key, new Symbol(name, module));
+			keys.add(key);
+		}
+		keysByModule.put(module, keys);
+	}
+
+	private void removeModule(final ISourceModule module) {
+		final List<String> keys = keysByModule.remove(module);
+		if (keys != null)
+			for (final String key : keys)
+				symbols.remove(key);
+	}
+}
@@ -10,8 +10,6 @@
  *******************************************************************************/
 package org.eclipse.koneki.ldt.core.internal.ast.models;
 
-import java.util.List;
-
 import org.eclipse.dltk.ast.ASTNode;
 import org.eclipse.dltk.ast.declarations.Declaration;
 import org.eclipse.dltk.ast.declarations.ModuleDeclaration;
@@ -97,11 +95,9 @@ public final class LuaASTModelUtils {
 			LuaSourceRoot luaSourceRoot = getLuaSourceRoot((ISourceModule) parent);
 			try {
 				if (Flags.isPrivate(field.getFlags())) {
-					List<LocalVar> localVars = luaSourceRoot.getInternalContent().getContent().getLocalVars();
-					for (LocalVar localVar : localVars) {
-						if (localVar.getVar().getName().equals(field.getElementName()))
-							return localVar.getVar();
-					}
+					LocalVar localVar = luaSourceRoot.getScopeIndex().getRootLocalVar(field.getElementName());
+					if (localVar != null)
+						return localVar.getVar();
 				} else {
 
 					return luaSourceRoot.getFileapi().getGlobalvars().get(field.getElementName());
@@ -128,11 +124,9 @@ public final class LuaASTModelUtils {
 			LuaSourceRoot luaSourceRoot = getLuaSourceRoot((ISourceModule) parent);
 			try {
 				if (Flags.isPrivate(method.getFlags())) {
-					List<LocalVar> localVars = luaSourceRoot.getInternalContent().getContent().getLocalVars();
-					for (LocalVar localVar : localVars) {
-						if (localVar.getVar().getName().equals(method.getElementName()))
-							return localVar.getVar();
-					}
+					LocalVar localVar = luaSourceRoot.getScopeIndex().getRootLocalVar(method.getElementName());
+					if (localVar != null)
+						return localVar.getVar();
 				} else {
 
 					return luaSourceRoot.getFileapi().getGlobalvars().get(method.getElementName());
@@ -16,11 +16,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.eclipse.dltk.ast.ASTNode;
-import org.eclipse.dltk.ast.ASTVisitor;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.preferences.IPreferencesService;
 import org.eclipse.dltk.core.ISourceModule;
 import org.eclipse.koneki.ldt.core.LuaUtils;
-import org.eclipse.koneki.ldt.core.internal.Activator;
+import org.eclipse.koneki.ldt.core.internal.LuaLanguageToolkit;
+import org.eclipse.koneki.ldt.core.internal.PreferenceInitializer;
 import org.eclipse.koneki.ldt.core.internal.ast.models.api.ExprTypeRef;
 import org.eclipse.koneki.ldt.core.internal.ast.models.api.ExternalTypeRef;
 import org.eclipse.koneki.ldt.core.internal.ast.models.api.FunctionTypeDef;
@@ -48,72 +49,29 @@ public final class LuaASTUtils {
 	private LuaASTUtils() {
 	}
 
-	private static class ClosestItemVisitor extends ASTVisitor {
-		private Item result = null;
-		private int position;
-
-		private String identifierName;
-
-		public ClosestItemVisitor(int position, String identifierName) {
-			super();
-			this.position = position;
-			this.identifierName = identifierName;
-		}
-
-		public Item getResult() {
-			return result;
-		}
-
-		@Override
-		public boolean visit(ASTNode node) throws Exception {
-			if (node instanceof LocalVar)
-				return false;
-
-			// we go down util we found the closer block.
-			if (node instanceof Block) {
-				if (node.sourceStart() <= position && position <= node.sourceEnd()) {
-					return true;
-				}
-				return false;
-			}
-			return false;
-		}
-
-		@Override
-		public boolean endvisit(ASTNode node) throws Exception {
-			if (result == null && node instanceof Block) {
-				// we go up only on the parent block
-				List<LocalVar> localVars = ((Block) node).getLocalVars();
-				for (LocalVar localVar : localVars) {
-					Item item = localVar.getVar();
-					if (item.getName().equals(identifierName)) {
-						result = item;
-					}
-				}
-				return true;
-			}
-			return false;
-		}
-	};
-
 	public static Item getClosestLocalVar(final LuaSourceRoot luaSourceRoot, final String identifierName, final int position) {
-		// traverse the root block on the file with this visitor
-		try {
-			ClosestItemVisitor closestItemVisitor = new ClosestItemVisitor(position, identifierName);
-			luaSourceRoot.getInternalContent().getContent().traverse(closestItemVisitor);
-			return closestItemVisitor.getResult();
-			// CHECKSTYLE:OFF
-		} catch (Exception e) {
-			// CHECKSTYLE:ON
-			Activator.logError("unable to collect local var", e); //$NON-NLS-1$
-		}
-		return null;
+		final LocalVar localVar = luaSourceRoot.getScopeIndex().getClosestLocalVar(identifierName, position);
+		return localVar != null ? localVar.getVar() : null;
 	}
 
+	/**
+	 * Resolutions are cached, see {@link TypeResolutionCache}.
+	 */
 	public static TypeResolution resolveType(ISourceModule sourceModule, TypeRef typeRef) {
-		if (typeRef instanceof PrimitiveTypeRef)
+		if (typeRef == null || typeRef instanceof PrimitiveTypeRef)
 			return null;
 
+		final TypeResolutionCache.Frame frame = TypeResolutionCache.enter(sourceModule, typeRef, 0);
+		if (frame.isDone())
+			return frame.getResolution();
+		try {
+			return frame.setResolution(resolveTypeRef(sourceModule, typeRef));
+		} finally {
+			frame.exit();
+		}
+	}
+
+	private static TypeResolution resolveTypeRef(ISourceModule sourceModule, TypeRef typeRef) {
 		if (typeRef instanceof InternalTypeRef) {
 			return resolveType(sourceModule, (InternalTypeRef) typeRef);
 		}
@@ -134,7 +92,7 @@ public final class LuaASTUtils {
 	}
 
 	public static TypeResolution resolveType(ISourceModule sourceModule, InternalTypeRef internalTypeRef) {
-		LuaSourceRoot luaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(sourceModule);
+		LuaSourceRoot luaSourceRoot = getLuaSourceRoot(sourceModule);
 		TypeDef typeDef = luaSourceRoot.getFileapi().getTypes().get(internalTypeRef.getTypeName());
 		return new TypeResolution(sourceModule, typeDef);
 	}
@@ -143,7 +101,7 @@ public final class LuaASTUtils {
 		ISourceModule externalSourceModule = LuaUtils.getSourceModule(externalTypeRef.getModuleName(), sourceModule.getScriptProject());
 		if (externalSourceModule == null)
 			return null;
-		LuaSourceRoot luaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(externalSourceModule);
+		LuaSourceRoot luaSourceRoot = getLuaSourceRoot(externalSourceModule);
 		TypeDef typeDef = luaSourceRoot.getFileapi().getTypes().get(externalTypeRef.getTypeName());
 		return new TypeResolution(externalSourceModule, typeDef);
 	}
@@ -153,7 +111,7 @@ public final class LuaASTUtils {
 		if (referencedSourceModule == null)
 			return null;
 
-		LuaSourceRoot luaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(referencedSourceModule);
+		LuaSourceRoot luaSourceRoot = getLuaSourceRoot(referencedSourceModule);
 		LuaFileAPI fileapi = luaSourceRoot.getFileapi();
 		if (fileapi != null) {
 			ArrayList<Return> returns = fileapi.getReturns();
@@ -180,7 +138,24 @@ public final class LuaASTUtils {
 		return resolveType(sourceModule, expr, 1);
 	}
 
+	/**
+	 * Resolutions are cached, see {@link TypeResolutionCache}.
+	 */
 	public static TypeResolution resolveType(ISourceModule sourceModule, LuaExpression expr, int returnposition) {
+		if (expr == null)
+			return null;
+
+		final TypeResolutionCache.Frame frame = TypeResolutionCache.enter(sourceModule, expr, returnposition);
+		if (frame.isDone())
+			return frame.getResolution();
+		try {
+			return frame.setResolution(resolveExpression(sourceModule, expr, returnposition));
+		} finally {
+			frame.exit();
+		}
+	}
+
+	private static TypeResolution resolveExpression(ISourceModule sourceModule, LuaExpression expr, int returnposition) {
 		if (expr instanceof Identifier) {
 			Definition definition = getDefinition(sourceModule, expr);
 			// resolve the type of the definition
@@ -259,66 +234,20 @@ public final class LuaASTUtils {
 	}
 
 	public static Collection<Item> getLocalVars(LuaSourceRoot luaSourceRoot, final int offset, final String start) {
-		// the localVars collected, indexed by var name;
+		// the localVars collected, indexed by var name, innermost ones hide others
 		final Map<String, Item> collectedLocalVars = new HashMap<String, Item>();
-
-		// the visitor which will collect local vars and store it in the map.
-		ASTVisitor localvarCollector = new ASTVisitor() {
-			@Override
-			public boolean visit(ASTNode node) throws Exception {
-				// we go down util we found the closer block.
-				if (node instanceof Block) {
-					if (node.sourceStart() <= offset && offset <= node.sourceEnd()) {
-						return true;
-					}
-					return false;
-				}
-				return false;
-			}
-
-			@Override
-			public boolean endvisit(ASTNode node) throws Exception {
-				if (node instanceof Block) {
-					// we go up only on all the parent block which
-					List<LocalVar> localVars = ((Block) node).getLocalVars();
-					for (LocalVar localVar : localVars) {
-						Item item = localVar.getVar();
-						if (!collectedLocalVars.containsKey(item.getName())
-								&& (start == null || item.getName().toLowerCase().startsWith(start.toLowerCase()))) {
-							collectedLocalVars.put(item.getName(), item);
-						}
-					}
-					return true;
-				}
-				return false;
+		final String lowerCaseStart = start == null ? null : start.toLowerCase();
+		for (LocalVar localVar : luaSourceRoot.getScopeIndex().getVisibleLocalVars(offset)) {
+			Item item = localVar.getVar();
+			if (!collectedLocalVars.containsKey(item.getName()) && (lowerCaseStart == null || item.getName().toLowerCase().startsWith(lowerCaseStart))) {
+				collectedLocalVars.put(item.getName(), item);
 			}
-		};
-
-		// traverse the root block on the file with this visitor
-		try {
-			luaSourceRoot.getInternalContent().getContent().traverse(localvarCollector);
-			// CHECKSTYLE:OFF
-		} catch (Exception e) {
-			// CHECKSTYLE:ON
-			Activator.logError("unable to collect local var", e); //$NON-NLS-1$
 		}
-
 		return collectedLocalVars.values();
 	}
 
 	public static LuaExpression getLuaExpressionAt(LuaSourceRoot luaSourceRoot, final int startOffset, final int endOffset) {
-		// traverse the root block on the file with this visitor
-		try {
-			MatchNodeVisitor matchNodeVisitor = new MatchNodeVisitor(startOffset, endOffset, LuaExpression.class);
-			luaSourceRoot.getInternalContent().getContent().traverse(matchNodeVisitor);
-			return (LuaExpression) matchNodeVisitor.getNode();
-
-			// CHECKSTYLE:OFF
-		} catch (Exception e) {
-			// CHECKSTYLE:ON
-			Activator.logError("unable to get expression at", e); //$NON-NLS-1$
-		}
-		return null;
+		return luaSourceRoot.getExpressionIndex().getExpressionAt(startOffset, endOffset);
 	}
 
 	public static class Definition {
@@ -381,32 +310,29 @@ public final class LuaASTUtils {
 	}
 
 	public static List<Definition> getAllGlobalVarsDefinition(ISourceModule sourceModule, String start) {
+		return getAllGlobalVarsDefinition(sourceModule, start, getGlobalCompletionLimit());
+	}
+
+	/**
+	 * @param limit
+	 *            Maximum count of global vars of other modules, <code>0</code> for no limit. Global vars of given module are always returned.
+	 */
+	public static List<Definition> getAllGlobalVarsDefinition(ISourceModule sourceModule, String start, int limit) {
 		final List<Definition> definitions = new ArrayList<Definition>();
 
-		// global vars defined preloaded module.
+		// global vars defined in modules of the project, preloaded module included.
 		// ----------------------------------------
-		// get preloaded module
-		ISourceModule preloadedSourceModule = getPreloadSourceModule(sourceModule);
-		if (preloadedSourceModule != null) {
-			// get lua source root
-			LuaSourceRoot preloadedLuaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(preloadedSourceModule);
-			if (preloadedLuaSourceRoot != null) {
-
-				// global var which start with 'start'
-				for (Item globalvar : preloadedLuaSourceRoot.getFileapi().getGlobalvars().values()) {
-					if (start == null || start.isEmpty() || globalvar.getName().toLowerCase().startsWith(start.toLowerCase()))
-						definitions.add(new Definition(preloadedSourceModule, globalvar));
-				}
-			}
-		}
+		if (sourceModule != null && sourceModule.getScriptProject() != null)
+			definitions.addAll(GlobalSymbolTable.find(sourceModule.getScriptProject(), start, sourceModule, limit));
 
 		// global vars defined in current module.
 		// ----------------------------------------
-		LuaSourceRoot currentluaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(sourceModule);
+		LuaSourceRoot currentluaSourceRoot = getLuaSourceRoot(sourceModule);
 		if (currentluaSourceRoot != null) {
 			// global var which start with 'start'
+			final String lowerCaseStart = start == null ? null : start.toLowerCase();
 			for (Item globalvar : currentluaSourceRoot.getFileapi().getGlobalvars().values()) {
-				if (start == null || start.isEmpty() || globalvar.getName().toLowerCase().startsWith(start.toLowerCase()))
+				if (lowerCaseStart == null || lowerCaseStart.isEmpty() || globalvar.getName().toLowerCase().startsWith(lowerCaseStart))
 					definitions.add(new Definition(sourceModule, globalvar));
 			}
 		}
@@ -414,6 +340,14 @@ public final class LuaASTUtils {
 		return definitions;
 	}
 
+	private static int getGlobalCompletionLimit() {
+		final IPreferencesService preferences = Platform.getPreferencesService();
+		if (preferences == null)
+			return PreferenceInitializer.GLOBAL_COMPLETION_LIMIT_DEFAULT;
+		return preferences.getInt(LuaLanguageToolkit.getDefault().getPreferenceQualifier(), PreferenceInitializer.GLOBAL_COMPLETION_LIMIT,
+				PreferenceInitializer.GLOBAL_COMPLETION_LIMIT_DEFAULT, null);
+	}
+
 	public static Definition getGlobalVarDefinition(ISourceModule sourceModule, String varname) {
 		// SEARCH IN PRELOADED SOURCE MODULE
 		Definition definition = getGlobalVarDefinitionInPreloadedSourceModule(sourceModule, varname);
@@ -435,7 +369,7 @@ public final class LuaASTUtils {
 			return null;
 
 		// get luasourceroot
-		LuaSourceRoot preloadedLuaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(preloadedSourceModule);
+		LuaSourceRoot preloadedLuaSourceRoot = getLuaSourceRoot(preloadedSourceModule);
 		if (preloadedLuaSourceRoot == null)
 			return null;
 
@@ -449,7 +383,7 @@ public final class LuaASTUtils {
 
 	public static Definition getInternalGlobalVarDefinition(ISourceModule sourceModule, String varname) {
 		// get luasourceroot
-		LuaSourceRoot luaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(sourceModule);
+		LuaSourceRoot luaSourceRoot = getLuaSourceRoot(sourceModule);
 		if (luaSourceRoot == null)
 			return null;
 
@@ -493,7 +427,7 @@ public final class LuaASTUtils {
 	}
 
 	public static TypeDef resolveTypeLocaly(ISourceModule sourceModuile, Item item) {
-		LuaSourceRoot luaSourceRoot = LuaASTModelUtils.getLuaSourceRoot(sourceModuile);
+		LuaSourceRoot luaSourceRoot = getLuaSourceRoot(sourceModuile);
 		if (luaSourceRoot != null)
 			return resolveTypeLocaly(luaSourceRoot.getFileapi(), item);
 		return null;
@@ -523,6 +457,14 @@ public final class LuaASTUtils {
 		return luaFileAPI.getTypes().get(typename) == recordTypeDef;
 	}
 
+	/**
+	 * @return AST of given module, recorded as a dependency of the type resolution in progress
+	 */
+	private static LuaSourceRoot getLuaSourceRoot(ISourceModule sourceModule) {
+		TypeResolutionCache.dependsOn(sourceModule);
+		return LuaASTModelUtils.getLuaSourceRoot(sourceModule);
+	}
+
 	public static TypeRef getModuleReturnType(LuaFileAPI luaFileAPI) {
 		ArrayList<Return> returns = luaFileAPI.getReturns();
 		if (returns.isEmpty())
@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.dltk.core.DLTKCore;
+import org.eclipse.dltk.core.ElementChangedEvent;
+import org.eclipse.dltk.core.IElementChangedListener;
+import org.eclipse.dltk.core.IModelElement;
+import org.eclipse.dltk.core.IModelElementDelta;
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.koneki.ldt.core.internal.ast.models.LuaASTUtils.TypeResolution;
+
+/**
+ * Type resolutions of {@link LuaASTUtils} by project, keyed by module and type reference or expression, so chained expressions such as
+ * <code>a.b.c:d().e</code> are not resolved again on each completion, hover or selection.
+ * <p>
+ * A resolution depends on modules whose AST it read. When a module is parsed again, only resolutions depending on it are dropped, once before
+ * parse and once its new AST is stored, as resolutions done meanwhile read the previous AST. Resolutions also depend on which module a name
+ * designates, so adding or removing modules, or changing build paths, drops all resolutions.
+ * <p>
+ * Resolutions in progress are tracked by thread, a type reference met again while it is resolved is a cycle, it resolves to <code>null</code>.
+ * <p>
+ * A cache holds at most {@link #MAX_ENTRIES} resolutions, least recently used ones are dropped first. Invalidations are only kept while a
+ * resolution started before them is in progress.
+ */
+public final class TypeResolutionCache {
+
+	/** Maximum count of resolutions cached by project */
+	private static final int MAX_ENTRIES = 10000;
+
+	/** Caches by project */
+	private static final Map<IScriptProject, TypeResolutionCache> CACHES = new HashMap<IScriptProject, TypeResolutionCache>();
+
+	/** Incremented on each invalidation. Guarded by {@link #CACHES}. */
+	private static long generation;
+
+	/** Generation of last invalidation of each module, a resolution started before may have read an outdated AST. Guarded by {@link #CACHES}. */
+	private static final Map<ISourceModule, Long> invalidations = new HashMap<ISourceModule, Long>();
+
+	/** Generation of last invalidation of all modules. Guarded by {@link #CACHES}. */
+	private static long clearGeneration;
+
+	/** Count of cacheable resolutions in progress by start generation, oldest first. Guarded by {@link #CACHES}. */
+	private static final TreeMap<Long, Integer> running = new TreeMap<Long, Integer>();
+
+	/** Resolutions in progress on current thread, innermost last */
+	private static final ThreadLocal<List<Frame>> FRAMES = new ThreadLocal<List<Frame>>() {
+		@Override
+		protected List<Frame> initialValue() {
+			return new ArrayList<Frame>();
+		}
+	};
+
+	private static IElementChangedListener changedListener = new IElementChangedListener() {
+		@Override
+		public void elementChanged(final ElementChangedEvent event) {
+			processDelta(event.getDelta());
+		}
+
+		private void processDelta(final IModelElementDelta delta) {
+			final int type = delta.getElement().getElementType();
+			if (type == IModelElement.SOURCE_MODULE) {
+				// Content changes are handled on parse
+				if (delta.getKind() != IModelElementDelta.CHANGED)
+					clear();
+				return;
+			}
+
+			// As for modules, only content changes of parents can be ignored
+			final int ignoredFlags = IModelElementDelta.F_CHILDREN | IModelElementDelta.F_CONTENT;
+			if (type != IModelElement.SCRIPT_MODEL
+					&& (delta.getKind() != IModelElementDelta.CHANGED || (delta.getFlags() & ~ignoredFlags) != 0)) {
+				clear();
+				return;
+			}
+			for (final IModelElementDelta child : delta.getAffectedChildren())
+				processDelta(child);
+		}
+	};
+	static {
+		DLTKCore.addElementChangedListener(changedListener);
+	}
+
+	/** Least recently used first */
+	private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, TypeResolutionCache.Entry> eldest) {
+			if (size() <= MAX_ENTRIES)
+				return false;
+			removeDependents(eldest.getKey(), eldest.getValue());
+			return true;
+		}
+	};
+
+	/** Keys of entries depending on each module */
+	private final Map<ISourceModule, Set<Key>> dependents = new HashMap<ISourceModule, Set<Key>>();
+
+	private TypeResolutionCache() {
+	}
+
+	/**
+	 * Starts resolution of given type reference or expression of a module.
+	 *
+	 * @param position
+	 *            Position of the resolved value among values returned by an expression, <code>0</code> for a type reference
+	 * @return Frame already resolved when resolution is cached or is a cycle, else a frame to resolve and to exit
+	 */
+	static Frame enter(final ISourceModule module, final Object node, final int position) {
+		final List<Frame> frames = FRAMES.get();
+		final Key key = new Key(module, node, position);
+
+		// A resolution in progress is a cycle, resolutions nested in it are incomplete
+		for (int i = frames.size() - 1; i >= 0; i--) {
+			if (frames.get(i).key.equals(key)) {
+				for (int j = i + 1; j < frames.size(); j++)
+					frames.get(j).cacheable = false;
+				return new Frame(key, null, null, true);
+			}
+		}
+
+		final IScriptProject project = module != null ? module.getScriptProject() : null;
+		TypeResolutionCache cache = null;
+		long startGeneration = 0;
+		if (project != null) {
+			synchronized (CACHES) {
+				cache = CACHES.get(project);
+				if (cache == null) {
+					cache = new TypeResolutionCache();
+					CACHES.put(project, cache);
+				}
+				final Entry entry = cache.entries.get(key);
+				if (entry != null) {
+					// Enclosing resolution depends on modules read by the cached one
+					if (!frames.isEmpty())
+						frames.get(frames.size() - 1).dependencies.addAll(entry.dependencies);
+					return new Frame(key, null, entry.resolution, true);
+				}
+				startGeneration = generation;
+				final Long start = Long.valueOf(startGeneration);
+				final Integer count = running.get(start);
+				running.put(start, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+			}
+		}
+
+		final Frame frame = new Frame(key, cache, null, false);
+		frame.startGeneration = startGeneration;
+		if (module != null)
+			frame.dependencies.add(module);
+		frames.add(frame);
+		return frame;
+	}
+
+	/**
+	 * Records that resolution in progress on current thread reads AST of given module.
+	 */
+	static void dependsOn(final ISourceModule module) {
+		final List<Frame> frames = FRAMES.get();
+		if (module != null && !frames.isEmpty())
+			frames.get(frames.size() - 1).dependencies.add(module);
+	}
+
+	/**
+	 * Drops resolutions depending on given module, as its AST is about to change or has just changed. It is called on both, as resolutions
+	 * started while the module is parsed still read its previous AST.
+	 */
+	public static void moduleChanged(final ISourceModule module) {
+		synchronized (CACHES) {
+			generation++;
+			if (!running.isEmpty())
+				invalidations.put(module, Long.valueOf(generation));
+			for (final TypeResolutionCache cache : CACHES.values()) {
+				final Set<Key> keys = cache.dependents.remove(module);
+				if (keys != null)
+					for (final Key key : keys)
+						cache.removeDependents(key, cache.entries.remove(key));
+			}
+		}
+	}
+
+	/**
+	 * Drops all resolutions, as modules or build paths changed.
+	 */
+	public static void clear() {
+		synchronized (CACHES) {
+			generation++;
+			clearGeneration = generation;
+			invalidations.clear();
+			CACHES.clear();
+		}
+	}
+
+	/**
+	 * Ends a resolution started at given generation, invalidations older than resolutions still in progress are dropped. Caller holds
+	 * {@link #CACHES}.
+	 */
+	private static void finished(final long startGeneration) {
+		final Long start = Long.valueOf(startGeneration);
+		final int count = running.get(start).intValue();
+		if (count > 1) {
+			running.put(start, Integer.valueOf(count - 1));
+			return;
+		}
+		running.remove(start);
+		if (running.isEmpty()) {
+			invalidations.clear();
+			return;
+		}
+
+		// Only resolutions started before an invalidation check it
+		final long oldest = running.firstKey().longValue();
+		if (oldest > startGeneration) {
+			final Iterator<Long> iterator = invalidations.values().iterator();
+			while (iterator.hasNext())
+				if (iterator.next().longValue() <= oldest)
+					iterator.remove();
+		}
+	}
+
+	/**
+	 * Forgets modules on which a removed entry depends, so they do not keep its key. Caller holds {@link #CACHES}.
+	 */
+	private void removeDependents(final Key key, final Entry entry) {
+		if (entry == null)
+			return;
+		for (final ISourceModule dependency : entry.dependencies) {
+			final Set<Key> keys = dependents.get(dependency);
+			if (keys != null && keys.remove(key) && keys.isEmpty())
+				dependents.remove(dependency);
+		}
+	}
+
+	/**
+	 * Caches a resolution unless a module it depends on was invalidated since it started. Caller holds {@link #CACHES}.
+	 */
+	private void put(final Frame frame) {
+		if (clearGeneration > frame.startGeneration)
+			return;
+		for (final ISourceModule dependency : frame.dependencies) {
+			final Long invalidation = invalidations.get(dependency);
+			if (invalidation != null && invalidation.longValue() > frame.startGeneration)
+				return;
+		}
+
+		removeDependents(frame.key, entries.put(frame.key, new Entry(frame.resolution, frame.dependencies)));
+		for (final ISourceModule dependency : frame.dependencies) {
+			Set<Key> keys = dependents.get(dependency);
+			if (keys == null) {
+				keys = new HashSet<Key>();
+				dependents.put(dependency, keys);
+			}
+			keys.add(frame.key);
+		}
+	}
+
+	/**
+	 * Resolution of a type reference or of an expression, in progress or already done.
+	 */
+	static final class Frame {
+		private final Key key;
+		private final TypeResolutionCache cache;
+		private final boolean done;
+		private final Set<ISourceModule> dependencies = new HashSet<ISourceModule>();
+		private TypeResolution resolution;
+		private boolean resolved;
+		private boolean cacheable = true;
+		private long startGeneration;
+
+		private Frame(final Key key, final TypeResolutionCache cache, final TypeResolution resolution, final boolean done) {
+			this.key = key;
+			this.cache = cache;
+			this.resolution = resolution;
+			this.done = done;
+		}
+
+		/**
+		 * @return Whether resolution is known already, it is then {@link #getResolution()} and the frame must not be exited
+		 */
+		boolean isDone() {
+			return done;
+		}
+
+		TypeResolution getResolution() {
+			return resolution;
+		}
+
+		/**
+		 * @return Given resolution
+		 */
+		TypeResolution setResolution(final TypeResolution typeResolution) {
+			resolution = typeResolution;
+			resolved = true;
+			return typeResolution;
+		}
+
+		/**
+		 * Ends resolution, caching it when it completed. Enclosing resolution depends on modules read by this one.
+		 */
+		void exit() {
+			final List<Frame> frames = FRAMES.get();
+			frames.remove(frames.size() - 1);
+			if (!frames.isEmpty())
+				frames.get(frames.size() - 1).dependencies.addAll(dependencies);
+			if (cache != null) {
+				synchronized (CACHES) {
+					if (resolved && cacheable)
+						cache.put(this);
+					finished(startGeneration);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Module and type reference or expression, nodes of an AST are compared by identity as they are only meaningful in their AST.
+	 */
+	private static final class Key {
+		private final ISourceModule module;
+		private final Object node;
+		private final int position;
+
+		private Key(final ISourceModule module, final Object node, final int position) {
+			this.module = module;
+			this.node = node;
+			this.position = position;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			final Key other = (Key) obj;
+			return node == other.node && position == other.position && (module == null ? other.module == null : module.equals(other.module));
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(node) * 31 + position;
+		}
+	}
+
+	private static final class Entry {
+		private final TypeResolution resolution;
+		private final Set<ISourceModule> dependencies;
+
+		private Entry(final TypeResolution resolution, final Set<ISourceModule> dependencies) {
+			this.resolution = resolution;
+			this.dependencies = dependencies;
+		}
+	}
+}
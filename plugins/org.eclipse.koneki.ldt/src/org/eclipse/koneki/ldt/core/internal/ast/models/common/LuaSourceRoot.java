@@ -24,7 +24,9 @@ import org.eclipse.dltk.compiler.problem.DefaultProblemIdentifier;
 import org.eclipse.dltk.compiler.problem.IProblemIdentifier;
 import org.eclipse.dltk.compiler.problem.ProblemSeverity;
 import org.eclipse.koneki.ldt.core.internal.ast.models.api.LuaFileAPI;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.ExpressionIndex;
 import org.eclipse.koneki.ldt.core.internal.ast.models.file.LuaInternalContent;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.ScopeIndex;
 
 /**
  * The Root AST Node of a lua source file.
@@ -35,6 +37,10 @@ public class LuaSourceRoot extends ModuleDeclaration {
 	private LuaFile luaFile;
 	private boolean error;
 
+	/** Built on first use, ASTs are not modified once parsed */
+	private volatile ScopeIndex scopeIndex;
+	private volatile ExpressionIndex expressionIndex;
+
 	public LuaSourceRoot(final int sourceLength) {
 		super(sourceLength);
 		luaFile = new LuaFile();
@@ -79,6 +85,32 @@ public class LuaSourceRoot extends ModuleDeclaration {
 
 	public void setInternalContent(final LuaInternalContent content) {
 		luaFile.setInternalContent(content);
+		scopeIndex = null;
+		expressionIndex = null;
+	}
+
+	/**
+	 * @return Index of blocks and local vars of internal content
+	 */
+	public ScopeIndex getScopeIndex() {
+		ScopeIndex index = scopeIndex;
+		if (index == null) {
+			index = ScopeIndex.build(getInternalContent().getContent());
+			scopeIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * @return Index of expressions of internal content by offset
+	 */
+	public ExpressionIndex getExpressionIndex() {
+		ExpressionIndex index = expressionIndex;
+		if (index == null) {
+			index = ExpressionIndex.build(getInternalContent().getContent());
+			expressionIndex = index;
+		}
+		return index;
 	}
 
 	@Override
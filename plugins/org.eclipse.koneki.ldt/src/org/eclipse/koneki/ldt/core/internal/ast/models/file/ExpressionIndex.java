@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.models.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.dltk.ast.ASTNode;
+import org.eclipse.dltk.ast.ASTVisitor;
+import org.eclipse.koneki.ldt.core.internal.Activator;
+
+/**
+ * Expressions of a file sorted by start offset, along with the enclosing expression of each, so the innermost expression covering a range is
+ * found with a binary search instead of a walk through the whole AST. Expressions are nested or disjoint: expressions covering a range are
+ * the last expression starting before it and its ancestors.
+ * <p>
+ * The index is immutable, it is valid as long as offsets of its AST do not change.
+ */
+public final class ExpressionIndex {
+
+	private final NestedRanges<LuaExpression> expressions;
+
+	private ExpressionIndex(final NestedRanges<LuaExpression> expressions) {
+		this.expressions = expressions;
+	}
+
+	/**
+	 * Indexes expressions of given block and of blocks nested in it.
+	 */
+	public static ExpressionIndex build(final Block root) {
+		final List<LuaExpression> collected = new ArrayList<LuaExpression>();
+		if (root != null) {
+			try {
+				root.traverse(new ASTVisitor() {
+					@Override
+					public boolean visitGeneral(final ASTNode node) throws Exception {
+						if (node instanceof LuaExpression)
+							collected.add((LuaExpression) node);
+						return true;
+					}
+				});
+				// CHECKSTYLE:OFF
+			} catch (final Exception e) {
+				// CHECKSTYLE:ON
+				Activator.logError("unable to index expressions", e); //$NON-NLS-1$
+			}
+		}
+
+		// An expression comes before a nested one with the same range as it is visited first
+		return new ExpressionIndex(new NestedRanges<LuaExpression>(collected.toArray(new LuaExpression[collected.size()])));
+	}
+
+	/**
+	 * @return Innermost expression starting at or before given start and ending at or after given end, <code>null</code> if there is none
+	 */
+	public LuaExpression getExpressionAt(final int start, final int end) {
+		final int position = expressions.getInnermost(start, end);
+		return position >= 0 ? expressions.get(position) : null;
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.models.file;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.eclipse.dltk.ast.ASTNode;
+
+/**
+ * Nodes sorted by start offset, along with the enclosing node of each, so the innermost node covering a range is found with a binary search
+ * instead of a walk through an AST. Nodes must be nested or disjoint: nodes covering a range are the last node starting at or before it and its
+ * ancestors. A node ending where another one starts does not enclose it.
+ */
+final class NestedRanges<T extends ASTNode> {
+
+	/** Outer nodes first when they start at the same offset, nodes with the same range keep their order */
+	private static final Comparator<ASTNode> OUTER_FIRST = new Comparator<ASTNode>() {
+		@Override
+		public int compare(final ASTNode node1, final ASTNode node2) {
+			if (node1.sourceStart() != node2.sourceStart())
+				return node1.sourceStart() < node2.sourceStart() ? -1 : 1;
+			if (node1.sourceEnd() != node2.sourceEnd())
+				return node1.sourceEnd() > node2.sourceEnd() ? -1 : 1;
+			return 0;
+		}
+	};
+
+	private final T[] nodes;
+	private final int[] starts;
+
+	/** Index of enclosing node of each node, -1 for outermost ones */
+	private final int[] parents;
+
+	/**
+	 * Sorts given nodes, the array is kept.
+	 */
+	NestedRanges(final T[] nodes) {
+		// Sort is stable, a node comes before a nested one with the same range when it comes first in given array
+		Arrays.sort(nodes, OUTER_FIRST);
+		this.nodes = nodes;
+		starts = new int[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+			starts[i] = nodes[i].sourceStart();
+
+		// Enclosing node is the innermost open node containing it
+		parents = new int[nodes.length];
+		final int[] open = new int[nodes.length];
+		int openCount = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			while (openCount > 0 && nodes[open[openCount - 1]].sourceEnd() < nodes[i].sourceEnd())
+				openCount--;
+			parents[i] = openCount > 0 ? open[openCount - 1] : -1;
+			open[openCount++] = i;
+		}
+	}
+
+	/**
+	 * @return Position of innermost node starting at or before given start and ending at or after given end, -1 if there is none
+	 */
+	int getInnermost(final int start, final int end) {
+		// Last node starting at or before start
+		int i = Arrays.binarySearch(starts, start);
+		if (i < 0) {
+			i = -i - 2;
+		} else {
+			while (i + 1 < starts.length && starts[i + 1] == start)
+				i++;
+		}
+
+		// Climb until a node covers end, its ancestors cover it too
+		while (i >= 0 && nodes[i].sourceEnd() < end)
+			i = parents[i];
+		return i;
+	}
+
+	/**
+	 * @return Position of enclosing node of node at given position, -1 if it is outermost
+	 */
+	int getParent(final int position) {
+		return parents[position];
+	}
+
+	T get(final int position) {
+		return nodes[position];
+	}
+}
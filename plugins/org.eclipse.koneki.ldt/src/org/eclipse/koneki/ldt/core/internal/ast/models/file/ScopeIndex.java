@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.models.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaASTNode;
+
+/**
+ * Blocks of a file sorted by start offset, along with the enclosing block of each, so blocks enclosing an offset are found with a binary search
+ * instead of a walk through the whole block tree. Blocks are nested or disjoint: the last block starting before an offset is either enclosing
+ * it or nested in a block enclosing it, enclosing blocks are its first ancestors containing the offset.
+ * <p>
+ * A local var is visible in its block, and only in its scope when the parser provides it. The index is immutable, it is valid as long as offsets
+ * of its AST do not change.
+ */
+public final class ScopeIndex {
+
+	private static final ScopeIndex EMPTY = new ScopeIndex(new NestedRanges<Block>(new Block[0]));
+
+	private final NestedRanges<Block> blocks;
+
+	/** Local vars of outermost block by name, the first one declared wins */
+	private final Map<String, LocalVar> rootLocalVars = new HashMap<String, LocalVar>();
+
+	private ScopeIndex(final NestedRanges<Block> blocks) {
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Indexes given block and blocks nested in it.
+	 */
+	public static ScopeIndex build(final Block root) {
+		if (root == null)
+			return EMPTY;
+
+		final List<Block> collected = new ArrayList<Block>();
+		collectBlocks(root, collected);
+		final ScopeIndex index = new ScopeIndex(new NestedRanges<Block>(collected.toArray(new Block[collected.size()])));
+		for (final LocalVar localVar : root.getLocalVars())
+			if (!index.rootLocalVars.containsKey(localVar.getVar().getName()))
+				index.rootLocalVars.put(localVar.getVar().getName(), localVar);
+		return index;
+	}
+
+	private static void collectBlocks(final Block block, final List<Block> collected) {
+		collected.add(block);
+		for (final LuaASTNode node : block.getContent())
+			if (node instanceof Block)
+				collectBlocks((Block) node, collected);
+	}
+
+	/**
+	 * @return Blocks containing given offset, innermost first
+	 */
+	public List<Block> getEnclosingBlocks(final int offset) {
+		int position = blocks.getInnermost(offset, offset);
+		if (position < 0)
+			return Collections.emptyList();
+		final List<Block> enclosingBlocks = new ArrayList<Block>();
+		for (; position >= 0; position = blocks.getParent(position))
+			enclosingBlocks.add(blocks.get(position));
+		return enclosingBlocks;
+	}
+
+	/**
+	 * @return Local vars visible at given offset, from innermost block to outermost one, in declaration order in each block
+	 */
+	public List<LocalVar> getVisibleLocalVars(final int offset) {
+		final List<LocalVar> localVars = new ArrayList<LocalVar>();
+		for (final Block block : getEnclosingBlocks(offset))
+			for (final LocalVar localVar : block.getLocalVars())
+				if (isInScope(localVar, offset))
+					localVars.add(localVar);
+		return localVars;
+	}
+
+	/**
+	 * @return Local var with given name visible at given offset, declared last in innermost block, <code>null</code> if there is none
+	 */
+	public LocalVar getClosestLocalVar(final String name, final int offset) {
+		for (final Block block : getEnclosingBlocks(offset)) {
+			final List<LocalVar> localVars = block.getLocalVars();
+			for (int i = localVars.size() - 1; i >= 0; i--) {
+				final LocalVar localVar = localVars.get(i);
+				if (localVar.getVar().getName().equals(name) && isInScope(localVar, offset))
+					return localVar;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return First local var with given name declared in outermost block, <code>null</code> if there is none
+	 */
+	public LocalVar getRootLocalVar(final String name) {
+		return rootLocalVars.get(name);
+	}
+
+	/**
+	 * Scope bounds are not always provided by parser, a local var without them is visible in its whole block.
+	 */
+	private static boolean isInScope(final LocalVar localVar, final int offset) {
+		final int min = localVar.getScopeMinOffset();
+		final int max = localVar.getScopeMaxOffset();
+		if (min < 0 || max <= min)
+			return true;
+		return min <= offset && offset <= max;
+	}
+}
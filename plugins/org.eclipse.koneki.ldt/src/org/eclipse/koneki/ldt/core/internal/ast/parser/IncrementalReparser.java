@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.eclipse.dltk.ast.ASTNode;
+import org.eclipse.dltk.ast.ASTVisitor;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Item;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaASTNode;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LocalVar;
+
+/**
+ * Derives the AST of an edited source from the AST of its previous version, without running Metalua.
+ * <p>
+ * Metalua models are built from the whole file: scopes, occurrences and documentation are resolved across top level statements. So previous
+ * nodes are only reused when the edit can not change them, that is when the damaged region only adds or removes blanks between tokens. In this
+ * case, the AST is the same and only offsets after the damaged region move.
+ * <p>
+ * Other edits of a working copy go through Metalua, which keeps the Metalua AST of its previous version: top level statements out of the damaged
+ * region are reused and only the ones around it are parsed again, see <code>incrementalparser.lua</code>. Models are still built from the whole
+ * file.
+ */
+public final class IncrementalReparser {
+
+	private static final String VERSION = "incremental"; //$NON-NLS-1$
+
+	/** Characters which may form a single operator when they are not separated */
+	private static final String OPERATOR_CHARACTERS = "-=<>~.[]:/"; //$NON-NLS-1$
+
+	private IncrementalReparser() {
+	}
+
+	/**
+	 * @param previousSource
+	 *            source the previous AST was built from
+	 * @param previousAST
+	 *            valid AST of previous source, it is not modified
+	 * @param source
+	 *            edited source
+	 * @return AST of edited source, <code>null</code> when the edit may change AST structure and a full parse is needed
+	 */
+	public static LuaSourceRoot reparse(final String previousSource, final LuaSourceRoot previousAST, final String source) {
+		if (previousSource == null || previousAST == null || previousAST.hasError())
+			return null;
+
+		// Locate damaged region
+		final int previousLength = previousSource.length();
+		final int length = source.length();
+		final int maxCommon = Math.min(previousLength, length);
+		int prefix = 0;
+		while (prefix < maxCommon && previousSource.charAt(prefix) == source.charAt(prefix))
+			prefix++;
+		int suffix = 0;
+		while (suffix < maxCommon - prefix && previousSource.charAt(previousLength - suffix - 1) == source.charAt(length - suffix - 1))
+			suffix++;
+		final int previousEnd = previousLength - suffix;
+		final int end = length - suffix;
+
+		// Nothing changed
+		if (prefix == previousEnd && prefix == end)
+			return previousAST;
+
+		// Only blanks between tokens are allowed to change
+		if (!isBlank(previousSource, prefix, previousEnd) || !isBlank(source, prefix, end))
+			return null;
+		final boolean separated = (prefix < previousEnd && prefix < end) || isSeparator(source, prefix - 1) || isSeparator(source, end)
+				|| !mayMerge(source.charAt(prefix - 1), source.charAt(end));
+		if (!separated || !isCode(previousSource, prefix))
+			return null;
+
+		// Copy previous AST, shifting offsets after damaged region
+		try {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			LuaSourceRootSerializer.write(previousAST, VERSION, output);
+			final LuaSourceRoot root = LuaSourceRootSerializer.read(new ByteArrayInputStream(output.toByteArray()), length, VERSION);
+			final ShiftVisitor shifter = new ShiftVisitor(prefix, previousEnd, end - previousEnd);
+			root.traverse(shifter);
+			for (final Item item : root.getInternalContent().getUnknownglovalvars())
+				shifter.visitGeneral(item);
+			return root;
+			// CHECKSTYLE:OFF
+		} catch (final Exception e) {
+			// CHECKSTYLE:ON
+			return null;
+		}
+	}
+
+	/** Spaces and tabs only, line changes may alter documentation attachment */
+	private static boolean isBlank(final String source, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			final char c = source.charAt(i);
+			if (c != ' ' && c != '\t')
+				return false;
+		}
+		return true;
+	}
+
+	/** Beginning and end of source are separators too */
+	private static boolean isSeparator(final String source, final int position) {
+		return position < 0 || position >= source.length() || Character.isWhitespace(source.charAt(position));
+	}
+
+	/** @return <code>true</code> when given characters may belong to the same token once the blanks between them are removed */
+	private static boolean mayMerge(final char before, final char after) {
+		final boolean beforeIsWord = Character.isLetterOrDigit(before) || before == '_' || before == '.';
+		final boolean afterIsWord = Character.isLetterOrDigit(after) || after == '_' || after == '.';
+		if (beforeIsWord && afterIsWord)
+			return true;
+		return OPERATOR_CHARACTERS.indexOf(before) >= 0 && OPERATOR_CHARACTERS.indexOf(after) >= 0;
+	}
+
+	/**
+	 * Scans Lua source until given position.
+	 *
+	 * @return <code>true</code> if position is out of comments and strings
+	 */
+	private static boolean isCode(final String source, final int position) {
+		int i = 0;
+
+		// Skip shebang line
+		if (source.startsWith("#")) { //$NON-NLS-1$
+			final int lineEnd = source.indexOf('\n');
+			if (lineEnd < 0 || lineEnd >= position)
+				return false;
+			i = lineEnd + 1;
+		}
+
+		while (i < position) {
+			final char c = source.charAt(i);
+			if (c == '-' && i + 1 < source.length() && source.charAt(i + 1) == '-') {
+				// Comment, long or till end of line
+				final int level = longBracketLevel(source, i + 2);
+				final int commentEnd;
+				if (level >= 0) {
+					commentEnd = longBracketEnd(source, i + 2, level);
+				} else {
+					final int lineEnd = source.indexOf('\n', i);
+					commentEnd = lineEnd < 0 ? source.length() : lineEnd;
+				}
+				if (commentEnd >= position)
+					return false;
+				i = commentEnd;
+			} else if (c == '[') {
+				// Long string
+				final int level = longBracketLevel(source, i);
+				if (level >= 0) {
+					final int stringEnd = longBracketEnd(source, i, level);
+					if (stringEnd >= position)
+						return false;
+					i = stringEnd;
+				} else {
+					i++;
+				}
+			} else if (c == '"' || c == '\'') {
+				// Short string
+				int j = i + 1;
+				while (j < source.length() && source.charAt(j) != c && source.charAt(j) != '\n') {
+					if (source.charAt(j) == '\\')
+						j++;
+					j++;
+				}
+				if (j >= position)
+					return false;
+				i = j + 1;
+			} else {
+				i++;
+			}
+		}
+		return true;
+	}
+
+	/** @return level of long bracket opening at given position, -1 if there is none */
+	private static int longBracketLevel(final String source, final int position) {
+		if (position >= source.length() || source.charAt(position) != '[')
+			return -1;
+		int i = position + 1;
+		while (i < source.length() && source.charAt(i) == '=')
+			i++;
+		if (i < source.length() && source.charAt(i) == '[')
+			return i - position - 1;
+		return -1;
+	}
+
+	/** @return position following the long bracket closing the one opened at given position */
+	private static int longBracketEnd(final String source, final int position, final int level) {
+		final StringBuilder closing = new StringBuilder(level + 2);
+		closing.append(']');
+		for (int i = 0; i < level; i++)
+			closing.append('=');
+		closing.append(']');
+		final int closingStart = source.indexOf(closing.toString(), position + level + 2);
+		return closingStart < 0 ? source.length() : closingStart + closing.length();
+	}
+
+	/**
+	 * Moves offsets following damaged region.
+	 */
+	private static class ShiftVisitor extends ASTVisitor {
+		private final int damageStart;
+		private final int damageEnd;
+		private final int delta;
+
+		public ShiftVisitor(final int damageStart, final int damageEnd, final int delta) {
+			this.damageStart = damageStart;
+			this.damageEnd = damageEnd;
+			this.delta = delta;
+		}
+
+		private int shift(final int offset) {
+			if (offset >= damageEnd)
+				return offset + delta;
+			if (offset <= damageStart)
+				return offset;
+			// Inside damaged blanks, it can only be a scope bound
+			return Math.max(damageStart, offset + delta);
+		}
+
+		@Override
+		public boolean visitGeneral(final ASTNode node) throws Exception {
+			if (!(node instanceof LuaASTNode))
+				return true;
+			node.setStart(shift(node.sourceStart()));
+			node.setEnd(shift(node.sourceEnd()));
+			if (node instanceof LocalVar) {
+				final LocalVar localVar = (LocalVar) node;
+				localVar.setScopeMinOffset(shift(localVar.getScopeMinOffset()));
+				localVar.setScopeMaxOffset(shift(localVar.getScopeMaxOffset()));
+			}
+			return true;
+		}
+	}
+}
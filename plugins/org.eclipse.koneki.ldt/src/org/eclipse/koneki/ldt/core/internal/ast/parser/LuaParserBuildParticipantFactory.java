@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.dltk.ast.parser.IModuleDeclaration;
+import org.eclipse.dltk.compiler.problem.ProblemCollector;
+import org.eclipse.dltk.core.IModelElement;
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.dltk.core.ISourceModuleInfoCache.ISourceModuleInfo;
+import org.eclipse.dltk.core.SourceParserUtil;
+import org.eclipse.dltk.core.builder.IBuildChange;
+import org.eclipse.dltk.core.builder.IBuildContext;
+import org.eclipse.dltk.core.builder.IBuildParticipant;
+import org.eclipse.dltk.core.builder.IBuildParticipantExtension;
+import org.eclipse.dltk.core.builder.IBuildParticipantExtension4;
+import org.eclipse.dltk.core.builder.IBuildParticipantFactory;
+import org.eclipse.dltk.core.builder.IBuildState;
+import org.eclipse.dltk.internal.core.ModelManager;
+import org.eclipse.koneki.ldt.core.internal.Activator;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Lua parser build participant, it parses modules of a build in parallel.
+ * <p>
+ * DLTK builder hands modules to participants one after another. So the modules the builder is about to build are parsed ahead, in its order, by
+ * a pool of threads, as many as there are Metalua states available for parsing. Each thread takes the next module to parse as soon as it is
+ * done, so long files do not hold back others. Builder then gets ASTs and problems through DLTK AST cache, a module which is not parsed yet is
+ * waited for. Parses ahead are bounded, so at most a few ASTs wait in memory for builder, and ASTs of modules the builder went past are dropped.
+ * <p>
+ * Modules which were not parsed ahead, or whose content changed meanwhile, are parsed on builder thread, as DLTK parser participant does.
+ */
+public class LuaParserBuildParticipantFactory implements IBuildParticipantFactory {
+
+	/** Count of parses started ahead of builder, by parsing thread */
+	private static final int LOOK_AHEAD_BY_THREAD = 4;
+
+	/** Upper bound of parsing threads, each parse needs a Metalua state */
+	private static final int MAX_THREADS = 8;
+
+	/**
+	 * @see org.eclipse.dltk.core.builder.IBuildParticipantFactory#createBuildParticipant(org.eclipse.dltk.core.IScriptProject)
+	 */
+	@Override
+	public IBuildParticipant createBuildParticipant(final IScriptProject project) throws CoreException {
+		return new LuaParserBuildParticipant(project);
+	}
+
+	/**
+	 * AST and problems of a module parsed ahead, along with parsed source
+	 */
+	private static class ParseResult {
+		private final String source;
+		private final IModuleDeclaration declaration;
+		private final ProblemCollector problems;
+
+		public ParseResult(final String source, final IModuleDeclaration declaration, final ProblemCollector problems) {
+			this.source = source;
+			this.declaration = declaration;
+			this.problems = problems;
+		}
+	}
+
+	private static class LuaParserBuildParticipant implements IBuildParticipant, IBuildParticipantExtension, IBuildParticipantExtension4 {
+		private final IScriptProject project;
+
+		/** Only set during builds of several modules */
+		private ExecutorService executor;
+
+		/** Modules of current build in builder order, along with their position in it */
+		private List<ISourceModule> modules;
+		private final Map<IModelElement, Integer> positions = new HashMap<IModelElement, Integer>();
+
+		/** Position of next module to parse ahead */
+		private int next;
+
+		/** Parses ahead, in builder order */
+		private final Map<IModelElement, Future<ParseResult>> parsing = new LinkedHashMap<IModelElement, Future<ParseResult>>();
+		private int lookAhead;
+
+		public LuaParserBuildParticipant(final IScriptProject project) {
+			this.project = project;
+		}
+
+		/**
+		 * @see org.eclipse.dltk.core.builder.IBuildParticipantExtension#beginBuild(int)
+		 */
+		@Override
+		public boolean beginBuild(final int buildType) {
+			return true;
+		}
+
+		/**
+		 * Starts parsing ahead the modules builder is about to build, in its order.
+		 * 
+		 * @see org.eclipse.dltk.core.builder.IBuildParticipantExtension4#prepare(org.eclipse.dltk.core.builder.IBuildChange,
+		 *      org.eclipse.dltk.core.builder.IBuildState)
+		 */
+		@Override
+		public void prepare(final IBuildChange buildChange, final IBuildState buildState) throws CoreException {
+			final List<ISourceModule> changedModules = buildChange.getSourceModules(IBuildChange.DEFAULT);
+			if (changedModules.size() < 2)
+				return;
+
+			modules = changedModules;
+			for (int i = 0; i < modules.size(); i++)
+				positions.put(modules.get(i), Integer.valueOf(i));
+			next = 0;
+			final int threads = Math.min(Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS), modules.size());
+			executor = Executors.newFixedThreadPool(threads, new ParserThreadFactory(project.getElementName()));
+			lookAhead = threads * LOOK_AHEAD_BY_THREAD;
+			submitPending();
+		}
+
+		/**
+		 * @see org.eclipse.dltk.core.builder.IBuildParticipantExtension4#recordDependencies(org.eclipse.dltk.core.builder.IBuildContext)
+		 */
+		@Override
+		public void recordDependencies(final IBuildContext context) throws CoreException {
+			// Parsing does not make modules depend on each other
+		}
+
+		/**
+		 * An AST parsed ahead goes to DLTK AST cache along with its problems, so builder and other readers get it from there.
+		 * 
+		 * @see org.eclipse.dltk.core.builder.IBuildParticipant#build(org.eclipse.dltk.core.builder.IBuildContext)
+		 */
+		@Override
+		public void build(final IBuildContext context) throws CoreException {
+			final ParseResult result = takeResult(context.getSourceModule());
+			if (context.get(IBuildContext.ATTR_MODULE_DECLARATION) != null)
+				return;
+
+			if (result != null && sameContent(result.source, context.getContents())) {
+				final ISourceModuleInfo info = ModelManager.getModelManager().getSourceModuleInfoCache().get(context.getSourceModule());
+				SourceParserUtil.putModuleToCache(info, result.declaration, result.problems);
+			}
+			context.set(IBuildContext.ATTR_MODULE_DECLARATION, SourceParserUtil.parse(context.getSourceModule(), context.getProblemReporter()));
+		}
+
+		/**
+		 * @see org.eclipse.dltk.core.builder.IBuildParticipantExtension#endBuild(org.eclipse.core.runtime.IProgressMonitor)
+		 */
+		@Override
+		public void endBuild(final IProgressMonitor monitor) {
+			if (executor == null)
+				return;
+			for (final Future<ParseResult> future : parsing.values())
+				future.cancel(false);
+			parsing.clear();
+			positions.clear();
+			modules = null;
+			executor.shutdown();
+			executor = null;
+		}
+
+		/**
+		 * Builder reached given module, parses ahead of modules it went past are dropped, they would wait in memory until end of build.
+		 * 
+		 * @return Result of given module parsed ahead, <code>null</code> if it was not parsed ahead or if parse failed
+		 */
+		private ParseResult takeResult(final ISourceModule module) {
+			if (executor == null)
+				return null;
+			final Integer position = positions.get(module);
+			if (position == null)
+				return null;
+
+			Future<ParseResult> future = null;
+			final Iterator<Map.Entry<IModelElement, Future<ParseResult>>> iterator = parsing.entrySet().iterator();
+			while (future == null && iterator.hasNext()) {
+				final Map.Entry<IModelElement, Future<ParseResult>> entry = iterator.next();
+				if (positions.get(entry.getKey()).intValue() > position.intValue())
+					break;
+				iterator.remove();
+				if (entry.getKey().equals(module))
+					future = entry.getValue();
+				else
+					entry.getValue().cancel(false);
+			}
+			next = Math.max(next, position.intValue() + 1);
+			submitPending();
+			if (future == null)
+				return null;
+
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return future.get();
+					} catch (final InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} catch (final ExecutionException e) {
+				Activator.logWarning(NLS.bind("Unable to parse file {0} ahead.", module.getElementName()), e.getCause()); //$NON-NLS-1$
+				return null;
+			} finally {
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Starts parsing next modules, until look ahead is reached.
+		 */
+		private void submitPending() {
+			while (parsing.size() < lookAhead && next < modules.size()) {
+				final ISourceModule module = modules.get(next++);
+				parsing.put(module, executor.submit(new Callable<ParseResult>() {
+					@Override
+					public ParseResult call() throws Exception {
+						final String source = module.getSourceContents();
+						final ProblemCollector problems = new ProblemCollector();
+						final IModuleDeclaration declaration = new LuaSourceParser().parse(module, problems);
+						return new ParseResult(source, declaration, problems);
+					}
+				}));
+			}
+		}
+
+		private static boolean sameContent(final String source, final char[] contents) {
+			if (contents == null || source.length() != contents.length)
+				return false;
+			for (int i = 0; i < contents.length; i++)
+				if (source.charAt(i) != contents[i])
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * Creates daemon threads, named after built project
+	 */
+	private static class ParserThreadFactory implements ThreadFactory {
+		private final String projectName;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public ParserThreadFactory(final String projectName) {
+			this.projectName = projectName;
+		}
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, NLS.bind("Lua parser {0} of {1}", count.incrementAndGet(), projectName)); //$NON-NLS-1$
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -10,11 +10,17 @@
  *******************************************************************************/
 package org.eclipse.koneki.ldt.core.internal.ast.parser;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.preferences.IPreferencesService;
 import org.eclipse.dltk.ast.ASTNode;
+import org.eclipse.dltk.ast.ASTVisitor;
 import org.eclipse.dltk.ast.parser.AbstractSourceParser;
 import org.eclipse.dltk.ast.parser.IModuleDeclaration;
 import org.eclipse.dltk.compiler.env.IModuleSource;
@@ -27,9 +33,15 @@ import org.eclipse.dltk.core.ElementChangedEvent;
 import org.eclipse.dltk.core.IElementChangedListener;
 import org.eclipse.dltk.core.IModelElement;
 import org.eclipse.dltk.core.IModelElementDelta;
+import org.eclipse.dltk.core.ISourceModule;
 import org.eclipse.koneki.ldt.core.internal.Activator;
+import org.eclipse.koneki.ldt.core.internal.LuaLanguageToolkit;
+import org.eclipse.koneki.ldt.core.internal.PreferenceInitializer;
+import org.eclipse.koneki.ldt.core.internal.ast.models.GlobalSymbolTable;
 import org.eclipse.koneki.ldt.core.internal.ast.models.LuaDLTKModelUtils;
+import org.eclipse.koneki.ldt.core.internal.ast.models.TypeResolutionCache;
 import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.ParseMetrics.Phase;
 import org.eclipse.osgi.util.NLS;
 
 /**
@@ -39,19 +51,28 @@ import org.eclipse.osgi.util.NLS;
  */
 public class LuaSourceParser extends AbstractSourceParser {
 
-	private static ModelsBuilderLuaModule astBuilder = new ModelsBuilderLuaModule();
+	private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	/** Several files can be parsed at the same time, each parse leases its own Metalua state */
+	private static ModelsBuilderLuaModulePool astBuilders = new ModelsBuilderLuaModulePool();
+
+	/**
+	 * Parses in progress by module, a parse is canceled when a newer one of the same source starts. A working copy equals its primary module but
+	 * has its own source, their parses are tracked apart.
+	 */
+	private static ConcurrentMap<IModelElement, IProgressMonitor> runningParses = new ConcurrentHashMap<IModelElement, IProgressMonitor>();
+	private static ConcurrentMap<IModelElement, IProgressMonitor> runningWorkingCopyParses = new ConcurrentHashMap<IModelElement, IProgressMonitor>();
 
 	// BEGIN CACHE MANAGEMENT
 	// TODO DLTK has already a cache system but it can be used to keep the last valid AST.
 	// so we have to cache system.
 	// Ideally, the parser should manage file with syntax errors..
-	private static Map<IModelElement, IModuleDeclaration> cache = new Hashtable<IModelElement, IModuleDeclaration>();
+	// Weight of an AST is its count of nodes, ASTs of editors are pinned, others are only softly referenced once over budget.
+	private static WeightedLRUCache<IModelElement, CachedAST> cache = new WeightedLRUCache<IModelElement, CachedAST>(getCacheBudget());
 	private static IElementChangedListener changedListener = new IElementChangedListener() {
 		public void elementChanged(ElementChangedEvent event) {
-			synchronized (LuaSourceParser.class) {
-				IModelElementDelta delta = event.getDelta();
-				processDelta(delta);
-			}
+			IModelElementDelta delta = event.getDelta();
+			processDelta(delta);
 		}
 
 		private void processDelta(IModelElementDelta delta) {
@@ -65,7 +86,7 @@ public class LuaSourceParser extends AbstractSourceParser {
 			}
 			if (delta.getFlags() == IModelElementDelta.F_REMOVED_FROM_BUILDPATH) {
 				if (delta.getAffectedChildren().length == 0) {
-					for (IModelElement sourcemodule : new ArrayList<IModelElement>(cache.keySet())) {
+					for (IModelElement sourcemodule : cache.keys()) {
 						if (LuaDLTKModelUtils.isAncestor(sourcemodule, element)) {
 							cache.remove(sourcemodule);
 						}
@@ -85,6 +106,90 @@ public class LuaSourceParser extends AbstractSourceParser {
 		DLTKCore.addElementChangedListener(changedListener);
 	}
 
+	/**
+	 * Last valid AST of a module, along with its source when it may be edited.
+	 */
+	private static class CachedAST {
+		private final LuaSourceRoot root;
+		private final String source;
+
+		public CachedAST(final LuaSourceRoot root, final String source) {
+			this.root = root;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Counts nodes of an AST, it is the weight of the AST in cache
+	 */
+	private static class NodeCounter extends ASTVisitor {
+		private int count;
+
+		@Override
+		public boolean visitGeneral(final ASTNode node) throws Exception {
+			count++;
+			return true;
+		}
+	}
+
+	private static long getCacheBudget() {
+		return getLongPreference(PreferenceInitializer.AST_CACHE_BUDGET, PreferenceInitializer.AST_CACHE_BUDGET_DEFAULT);
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} value after which a parse starting now is aborted, <code>Long.MAX_VALUE</code> when there is no limit
+	 */
+	private static long getParseDeadline(final long start) {
+		final long timeout = getLongPreference(PreferenceInitializer.PARSE_TIMEOUT, PreferenceInitializer.PARSE_TIMEOUT_DEFAULT);
+		if (timeout <= 0)
+			return Long.MAX_VALUE;
+		return start + TimeUnit.MILLISECONDS.toNanos(timeout);
+	}
+
+	/**
+	 * @return Bytes a Metalua state may hold after a parse, <code>0</code> when there is no limit
+	 */
+	private static long getParserMemoryLimit() {
+		final long megabytes = getLongPreference(PreferenceInitializer.PARSER_MEMORY_LIMIT, PreferenceInitializer.PARSER_MEMORY_LIMIT_DEFAULT);
+		return Math.max(0, megabytes) * BYTES_PER_MEGABYTE;
+	}
+
+	private static long getLongPreference(final String key, final long defaultValue) {
+		final IPreferencesService preferences = Platform.getPreferencesService();
+		if (preferences == null)
+			return defaultValue;
+		return preferences.getLong(LuaLanguageToolkit.getDefault().getPreferenceQualifier(), key, defaultValue, null);
+	}
+
+	/**
+	 * Caches last valid AST of a module. ASTs of working copies, opened in editors, are pinned as they are the fallback when source becomes
+	 * invalid.
+	 */
+	private static void cache(final IModelElement element, final LuaSourceRoot root, final String source) {
+		final boolean workingCopy = isWorkingCopy(element);
+		final NodeCounter counter = new NodeCounter();
+		try {
+			root.traverse(counter);
+			// CHECKSTYLE:OFF
+		} catch (final Exception e) {
+			// CHECKSTYLE:ON
+			Activator.logWarning("Unable to weigh AST.", e); //$NON-NLS-1$
+		}
+		cache.put(element, new CachedAST(root, workingCopy ? source : null), counter.count, workingCopy);
+		if (element instanceof ISourceModule) {
+			// Types resolved on previous AST while this one was built are outdated too
+			TypeResolutionCache.moduleChanged((ISourceModule) element);
+			GlobalSymbolTable.moduleParsed((ISourceModule) element, root);
+		}
+	}
+
+	/**
+	 * @return Cache of last valid ASTs, it provides hit, miss and eviction counts
+	 */
+	public static WeightedLRUCache<IModelElement, ?> getCache() {
+		return cache;
+	}
+
 	// END CACHE MANAGEMENT
 
 	public LuaSourceParser() {
@@ -102,65 +207,154 @@ public class LuaSourceParser extends AbstractSourceParser {
 	public IModuleDeclaration parse(IModuleSource input, IProblemReporter reporter) {
 		LuaSourceRoot module = new LuaSourceRoot(input.getSourceContents().length());
 
-		synchronized (LuaSourceParser.class) {
-			try {
+		if (input.getModelElement() != null) {
+			// Types resolved on the AST about to be replaced are outdated
+			if (input.getModelElement() instanceof ISourceModule)
+				TypeResolutionCache.moduleChanged((ISourceModule) input.getModelElement());
 
-				// Build AST
-				final String source = input.getSourceContents();
-				module = astBuilder.buildAST(source);
+			// Apply edits which can not change AST structure on previous AST
+			final CachedAST previous = cache.get(input.getModelElement());
+			if (previous != null && previous.source != null) {
+				final LuaSourceRoot reparsed = IncrementalReparser.reparse(previous.source, previous.root, input.getSourceContents());
+				if (reparsed != null) {
+					cache(input.getModelElement(), reparsed, input.getSourceContents());
+					return reparsed;
+				}
+			}
 
-				/*
-				 * Handle encoding shifts
-				 */
+			// Use AST stored on disk when source did not change, working copies are never stored
+			final LuaSourceRootDiskCache diskCache = LuaSourceRootDiskCache.getDefault();
+			if (diskCache != null && !isWorkingCopy(input.getModelElement())) {
+				final LuaSourceRoot stored = diskCache.load(input.getSourceContents());
+				if (stored != null) {
+					cache(input.getModelElement(), stored, input.getSourceContents());
+					return stored;
+				}
+			}
+		}
 
-				// Compute encoding shifts
-				final OffsetFixer fixer = new OffsetFixer(source);
+		// A newer parse of a module makes older ones useless, cancel them
+		final IProgressMonitor monitor = new NullProgressMonitor();
+		if (input.getModelElement() != null) {
+			final IProgressMonitor stale = getRunningParses(input.getModelElement()).put(input.getModelElement(), monitor);
+			if (stale != null)
+				stale.setCanceled(true);
+		}
 
-				// Fix AST
-				if (module != null)
-					module.traverse(new EncodingVisitor(fixer));
+		// Time spent waiting for a Metalua state is part of parse latency
+		final ParseMetrics metrics = ParseMetrics.getDefault();
+		final int sourceLength = input.getSourceContents().length();
+		final long parseStart = System.nanoTime();
+		final long deadline = getParseDeadline(parseStart);
+		final String key = getBuildKey(input.getModelElement());
+		final ModelsBuilderLuaModule astBuilder = astBuilders.acquire(key);
+		metrics.record(Phase.QUEUE, sourceLength, System.nanoTime() - parseStart, 0);
+		try {
+			// Parse may have been canceled while waiting
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
 
-				// Fix problems
-				if (reporter instanceof ProblemCollector) {
-					for (final IProblem problem : ((ProblemCollector) reporter).getProblems()) {
-						problem.setSourceStart(fixer.getCharacterPosition(problem.getSourceStart()));
-						problem.setSourceEnd(fixer.getCharacterPosition(problem.getSourceEnd()));
-					}
+			// Compute encoding shifts
+			final String source = input.getSourceContents();
+			final long offsetsStart = System.nanoTime();
+			final OffsetFixer fixer = new OffsetFixer(source);
+			metrics.record(Phase.OFFSETS, sourceLength, System.nanoTime() - offsetsStart, 0);
+
+			// Build AST, offsets are fixed while nodes are created
+			astBuilder.setMemoryLimit(getParserMemoryLimit());
+			module = astBuilder.buildAST(source, fixer, monitor, deadline, key);
+
+			// Fix problems
+			if (reporter instanceof ProblemCollector && !fixer.isIdentity()) {
+				for (final IProblem problem : ((ProblemCollector) reporter).getProblems()) {
+					problem.setSourceStart(fixer.getCharacterPosition(problem.getSourceStart()));
+					problem.setSourceEnd(fixer.getCharacterPosition(problem.getSourceEnd()));
 				}
 			}
-			// CHECKSTYLE:OFF
-			catch (final Exception e) {
-				// CHECKSTYLE:ON
-				Activator.logWarning(NLS.bind("Unable to parse file {0}.", input.getFileName()), e); //$NON-NLS-1$
-				// the module is probably on error.
-				if (module == null)
-					module = new LuaSourceRoot(input.getSourceContents().length());
-				module.setProblem(1, 1, 0, "This file probably contains a syntax error."); //$NON-NLS-1$
-			}
+		} catch (final OperationCanceledException e) {
+			if (!monitor.isCanceled())
+				Activator.logWarning(NLS.bind("Parse of file {0} timed out.", input.getFileName())); //$NON-NLS-1$
+			return getLastValidAST(input);
+		}
+		// CHECKSTYLE:OFF
+		catch (final Exception e) {
+			// CHECKSTYLE:ON
+			Activator.logWarning(NLS.bind("Unable to parse file {0}.", input.getFileName()), e); //$NON-NLS-1$
+			// the module is probably on error.
+			if (module == null)
+				module = new LuaSourceRoot(input.getSourceContents().length());
+			module.setProblem(1, 1, 0, "This file probably contains a syntax error."); //$NON-NLS-1$
+		} finally {
+			astBuilders.release(astBuilder);
+			if (input.getModelElement() != null)
+				getRunningParses(input.getModelElement()).remove(input.getModelElement(), monitor);
+			metrics.record(Phase.TOTAL, sourceLength, System.nanoTime() - parseStart, 0);
+		}
 
-			// Deal with errors on Lua side
-			if (module != null) {
-				// if module contains a syntax error
-				if (module.hasError()) {
-					// add error to repoter
-					final DefaultProblem problem = module.getProblem();
-					problem.setOriginatingFileName(input.getFileName());
-					reporter.reportProblem(problem);
-
-					// use AST in cache
-					if (input.getModelElement() != null) {
-						final LuaSourceRoot cached = (LuaSourceRoot) cache.get(input.getModelElement());
-						if (cached != null) {
-							cached.setError(true);
-							return cached;
-						}
-					}
-				} else if (input.getModelElement() != null) {
-					// if there are no error, put the new AST in cache
-					cache.put(input.getModelElement(), module);
+		// Deal with errors on Lua side
+		if (module != null) {
+			// if module contains a syntax error
+			if (module.hasError()) {
+				// add error to repoter
+				final DefaultProblem problem = module.getProblem();
+				problem.setOriginatingFileName(input.getFileName());
+				reporter.reportProblem(problem);
+
+				// use AST in cache
+				if (input.getModelElement() != null) {
+					final CachedAST cached = cache.get(input.getModelElement());
+					if (cached != null)
+						return withError(cached.root);
 				}
+			} else if (input.getModelElement() != null) {
+				// if there are no error, put the new AST in cache
+				cache(input.getModelElement(), module, input.getSourceContents());
+
+				// store it on disk too, unless it is just a transient state of an edited source
+				final LuaSourceRootDiskCache diskCache = LuaSourceRootDiskCache.getDefault();
+				if (diskCache != null && !isWorkingCopy(input.getModelElement()))
+					diskCache.store(input.getSourceContents(), module);
 			}
 		}
 		return module;
 	}
+
+	/**
+	 * @return Last valid AST of parsed module when there is one, else an empty AST
+	 */
+	private static LuaSourceRoot getLastValidAST(final IModuleSource input) {
+		if (input.getModelElement() != null) {
+			final CachedAST cached = cache.get(input.getModelElement());
+			if (cached != null)
+				return cached.root;
+		}
+		return new LuaSourceRoot(input.getSourceContents().length());
+	}
+
+	/**
+	 * @return Root sharing models of given one, flagged as erroneous. Given root stays valid, it is still the base of next incremental parse.
+	 */
+	private static LuaSourceRoot withError(final LuaSourceRoot root) {
+		final LuaSourceRoot copy = new LuaSourceRoot(root.sourceEnd());
+		copy.setLuaFileApi(root.getFileapi());
+		copy.setInternalContent(root.getInternalContent());
+		copy.setError(true);
+		return copy;
+	}
+
+	/**
+	 * @return Key under which Metalua keeps AST of given module, so next parse only parses statements around edited region. Only working
+	 *         copies are edited, other modules have none.
+	 */
+	private static String getBuildKey(final IModelElement element) {
+		return isWorkingCopy(element) ? element.getHandleIdentifier() : null;
+	}
+
+	private static ConcurrentMap<IModelElement, IProgressMonitor> getRunningParses(final IModelElement element) {
+		return isWorkingCopy(element) ? runningWorkingCopyParses : runningParses;
+	}
+
+	private static boolean isWorkingCopy(final IModelElement element) {
+		return element instanceof ISourceModule && ((ISourceModule) element).isWorkingCopy();
+	}
 }
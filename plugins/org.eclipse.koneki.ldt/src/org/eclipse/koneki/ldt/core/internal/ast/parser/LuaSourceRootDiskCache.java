@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.preferences.IPreferencesService;
+import org.eclipse.koneki.ldt.core.internal.Activator;
+import org.eclipse.koneki.ldt.core.internal.LuaLanguageToolkit;
+import org.eclipse.koneki.ldt.core.internal.PreferenceInitializer;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Keeps valid {@link LuaSourceRoot}s on disk, in plug-in state location, so unchanged sources do not have to go through Metalua again after a
+ * restart.
+ * <p>
+ * Entries are keyed by a digest of source content. The version of the parser which built an AST is stored along with it, entries built by another
+ * version are ignored and overwritten, the whole cache is dropped when it is opened by a new parser version.
+ * <p>
+ * Entries are bounded by their total size, least recently used ones are deleted when a store exceeds it. Use is tracked through entry
+ * modification time.
+ */
+public class LuaSourceRootDiskCache {
+
+	private static final String CACHE_FOLDER = "ast"; //$NON-NLS-1$
+	private static final String ENTRY_EXTENSION = ".ast"; //$NON-NLS-1$
+	private static final String VERSION_FILE = "version"; //$NON-NLS-1$
+	private static final String DIGEST_ALGORITHM = "SHA-1"; //$NON-NLS-1$
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+	private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	/** Eviction deletes entries until their size is below this part of maximum size, so it does not happen on each store */
+	private static final double EVICTION_RATIO = 0.75;
+
+	/** Cache of plug-in state location, resolved on first use once plug-in is started. Guarded by class. */
+	private static LuaSourceRootDiskCache defaultCache;
+	private static boolean defaultResolved;
+
+	private final File folder;
+	private final String parserVersion;
+	private final long maxSize;
+
+	/** Bytes of entries, -1 until they are measured. Guarded by this. */
+	private long size = -1;
+
+	/**
+	 * @param folder
+	 *            where entries are stored
+	 * @param parserVersion
+	 *            version of parser producing cached ASTs, an entry is valid only if its version matches this one
+	 * @param maxSize
+	 *            bytes entries may take, <code>0</code> for no limit
+	 */
+	public LuaSourceRootDiskCache(final File folder, final String parserVersion, final long maxSize) {
+		this.folder = folder;
+		this.parserVersion = parserVersion;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return Cache located in plug-in state location, <code>null</code> while plug-in is not started or when its state location is unavailable
+	 */
+	public static synchronized LuaSourceRootDiskCache getDefault() {
+		if (!defaultResolved && Activator.getDefault() != null) {
+			defaultCache = createDefault();
+			defaultResolved = true;
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * @return Cache located in plug-in state location, <code>null</code> when plug-in is not started.
+	 */
+	private static LuaSourceRootDiskCache createDefault() {
+		final Activator plugin = Activator.getDefault();
+		if (plugin == null)
+			return null;
+		try {
+			final File folder = plugin.getStateLocation().append(CACHE_FOLDER).toFile();
+			final String version = plugin.getBundle().getVersion().toString() + '/' + LuaSourceRootSerializer.FORMAT_VERSION;
+			final LuaSourceRootDiskCache diskCache = new LuaSourceRootDiskCache(folder, version, getMaxSizePreference());
+			diskCache.purgeIfOutdated();
+			return diskCache;
+			// CHECKSTYLE:OFF
+		} catch (final RuntimeException e) {
+			// CHECKSTYLE:ON
+			Activator.logWarning("Unable to locate AST cache folder.", e); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	private static long getMaxSizePreference() {
+		final IPreferencesService preferences = Platform.getPreferencesService();
+		if (preferences == null)
+			return PreferenceInitializer.AST_DISK_CACHE_SIZE_DEFAULT * BYTES_PER_MEGABYTE;
+		final long megabytes = preferences.getLong(LuaLanguageToolkit.getDefault().getPreferenceQualifier(),
+				PreferenceInitializer.AST_DISK_CACHE_SIZE, PreferenceInitializer.AST_DISK_CACHE_SIZE_DEFAULT, null);
+		return Math.max(0, megabytes) * BYTES_PER_MEGABYTE;
+	}
+
+	/**
+	 * @return AST previously stored for the given source, <code>null</code> if there is none valid for current parser
+	 */
+	public LuaSourceRoot load(final String source) {
+		final File entry = getEntry(source);
+		if (entry == null || !entry.isFile())
+			return null;
+
+		InputStream input = null;
+		try {
+			input = new BufferedInputStream(new FileInputStream(entry));
+			final LuaSourceRoot root = LuaSourceRootSerializer.read(input, source.length(), parserVersion);
+
+			// Entry is used, it is among the last to be evicted
+			if (root != null)
+				entry.setLastModified(System.currentTimeMillis());
+			return root;
+		} catch (final IOException e) {
+			// Corrupted entry, it will be replaced on next store
+			Activator.logWarning(NLS.bind("Unable to read cached AST {0}.", entry.getName()), e); //$NON-NLS-1$
+			return null;
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * Stores given AST as the one of given source. AST must be free of errors.
+	 */
+	public void store(final String source, final LuaSourceRoot root) {
+		final File entry = getEntry(source);
+		if (entry == null || (!folder.isDirectory() && !folder.mkdirs()))
+			return;
+
+		// Write in a temporary file first, so a concurrent read never sees a partial entry
+		File temporary = null;
+		OutputStream output = null;
+		try {
+			temporary = File.createTempFile(entry.getName(), null, folder);
+			output = new BufferedOutputStream(new FileOutputStream(temporary));
+			LuaSourceRootSerializer.write(root, parserVersion, output);
+			output.close();
+			output = null;
+			if (!temporary.renameTo(entry)) {
+				// Some platforms do not rename over an existing file
+				if (entry.delete() || !entry.exists())
+					temporary.renameTo(entry);
+			}
+			stored(entry.length());
+		} catch (final IOException e) {
+			Activator.logWarning(NLS.bind("Unable to cache AST {0}.", entry.getName()), e); //$NON-NLS-1$
+		} finally {
+			IOUtils.closeQuietly(output);
+			if (temporary != null && temporary.exists())
+				temporary.delete();
+		}
+	}
+
+	/**
+	 * Accounts for a stored entry, evicting least recently used entries when maximum size is exceeded. Size of a replaced entry is counted
+	 * twice, it is fixed on eviction as entries are measured again.
+	 */
+	private synchronized void stored(final long length) {
+		if (maxSize <= 0)
+			return;
+		if (size < 0)
+			size = measure(listEntries());
+		else
+			size += length;
+		if (size > maxSize)
+			evict();
+	}
+
+	/**
+	 * Deletes least recently used entries until they take less than {@link #EVICTION_RATIO} of maximum size. Caller holds this monitor.
+	 */
+	private void evict() {
+		final File[] entries = listEntries();
+		final long[] lastModified = new long[entries.length];
+		for (int i = 0; i < entries.length; i++)
+			lastModified[i] = entries[i].lastModified();
+		final Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = Integer.valueOf(i);
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer index1, final Integer index2) {
+				final long time1 = lastModified[index1.intValue()];
+				final long time2 = lastModified[index2.intValue()];
+				return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+			}
+		});
+
+		long remaining = measure(entries);
+		final long target = (long) (maxSize * EVICTION_RATIO);
+		for (int i = 0; i < order.length && remaining > target; i++) {
+			final File entry = entries[order[i].intValue()];
+			final long length = entry.length();
+			if (entry.delete() || !entry.exists())
+				remaining -= length;
+		}
+		size = remaining;
+	}
+
+	private File[] listEntries() {
+		final File[] entries = folder.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File file) {
+				return file.getName().endsWith(ENTRY_EXTENSION) && file.isFile();
+			}
+		});
+		return entries != null ? entries : new File[0];
+	}
+
+	private static long measure(final File[] entries) {
+		long total = 0;
+		for (final File entry : entries)
+			total += entry.length();
+		return total;
+	}
+
+	/**
+	 * Deletes all entries when they were not written by current parser version.
+	 */
+	public synchronized void purgeIfOutdated() {
+		final File versionFile = new File(folder, VERSION_FILE);
+		try {
+			if (versionFile.isFile() && parserVersion.equals(FileUtils.readFileToString(versionFile, "UTF-8"))) //$NON-NLS-1$
+				return;
+			size = -1;
+			if (folder.exists())
+				FileUtils.deleteDirectory(folder);
+			if (folder.mkdirs())
+				FileUtils.writeStringToFile(versionFile, parserVersion, "UTF-8"); //$NON-NLS-1$
+		} catch (final IOException e) {
+			Activator.logWarning("Unable to clean AST cache.", e); //$NON-NLS-1$
+		}
+	}
+
+	private File getEntry(final String source) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			final byte[] hash = digest.digest(source.getBytes("UTF-8")); //$NON-NLS-1$
+			final StringBuilder name = new StringBuilder(hash.length * 2 + ENTRY_EXTENSION.length());
+			for (final byte b : hash) {
+				name.append(HEX[(b >> 4) & 0xf]);
+				name.append(HEX[b & 0xf]);
+			}
+			name.append(ENTRY_EXTENSION);
+			return new File(folder, name.toString());
+		} catch (final NoSuchAlgorithmException e) {
+			return null;
+		} catch (final UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+}
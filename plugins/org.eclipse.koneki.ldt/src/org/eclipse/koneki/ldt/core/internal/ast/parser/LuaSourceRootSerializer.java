@@ -0,0 +1,541 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.dltk.ast.ASTNode;
+import org.eclipse.dltk.ast.ASTVisitor;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.ExprTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.ExternalTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.FunctionTypeDef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.InternalTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Item;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.LuaFileAPI;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.ModuleTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Parameter;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.PrimitiveTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.RecordTypeDef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Return;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.TypeDef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.TypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaASTNode;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Block;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Call;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Identifier;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Index;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Invoke;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LocalVar;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LuaExpression;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LuaInternalContent;
+
+/**
+ * Compact binary form of a valid {@link LuaSourceRoot}, {@link LuaFileAPI} and {@link LuaInternalContent} included.
+ * <p>
+ * Expressions are numbered in the order they are written. {@link Item} occurrences and {@link ExprTypeRef} expressions are written as those
+ * numbers and resolved once the whole tree is read.
+ */
+public final class LuaSourceRootSerializer {
+
+	/** Increment on each change of the binary layout */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int MAGIC = 0x4C444141; // LDAA
+
+	private static final int NULL = -1;
+
+	// Node tags
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_BLOCK = 1;
+	private static final byte TAG_IDENTIFIER = 2;
+	private static final byte TAG_INDEX = 3;
+	private static final byte TAG_CALL = 4;
+	private static final byte TAG_INVOKE = 5;
+
+	// Type definition tags
+	private static final byte TAG_RECORD = 1;
+	private static final byte TAG_FUNCTION = 2;
+
+	// Type reference tags
+	private static final byte TAG_EXTERNAL_TYPEREF = 1;
+	private static final byte TAG_INTERNAL_TYPEREF = 2;
+	private static final byte TAG_MODULE_TYPEREF = 3;
+	private static final byte TAG_EXPR_TYPEREF = 4;
+	private static final byte TAG_PRIMITIVE_TYPEREF = 5;
+
+	private static final String CHARSET = "UTF-8"; //$NON-NLS-1$
+
+	private LuaSourceRootSerializer() {
+	}
+
+	/**
+	 * Writes given AST, it should be free of errors.
+	 *
+	 * @param root
+	 *            AST to write
+	 * @param parserVersion
+	 *            version of the parser which produced the AST, it has to match on read
+	 */
+	public static void write(final LuaSourceRoot root, final String parserVersion, final OutputStream outputStream) throws IOException {
+		final Writer writer = new Writer(new DataOutputStream(outputStream));
+		writer.writeRoot(root, parserVersion);
+		writer.out.flush();
+	}
+
+	/**
+	 * @param sourceLength
+	 *            length of the source the AST was built from
+	 * @param parserVersion
+	 *            version of the current parser
+	 * @return AST read, <code>null</code> when data were written by another parser or format version
+	 */
+	public static LuaSourceRoot read(final InputStream inputStream, final int sourceLength, final String parserVersion) throws IOException {
+		return new Reader(new DataInputStream(inputStream)).readRoot(sourceLength, parserVersion);
+	}
+
+	private static final class Writer {
+
+		private final DataOutputStream out;
+		private final Map<LuaExpression, Integer> expressionIds = new IdentityHashMap<LuaExpression, Integer>();
+
+		private Writer(final DataOutputStream out) {
+			this.out = out;
+		}
+
+		private void writeRoot(final LuaSourceRoot root, final String parserVersion) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(parserVersion);
+
+			// Number expressions in the same order they are written, so references can be written as numbers
+			final LuaInternalContent internalContent = root.getInternalContent();
+			try {
+				internalContent.traverse(new ASTVisitor() {
+					@Override
+					public boolean visitGeneral(final ASTNode node) throws Exception {
+						if (node instanceof LuaExpression)
+							expressionIds.put((LuaExpression) node, expressionIds.size());
+						return true;
+					}
+				});
+				// CHECKSTYLE:OFF
+			} catch (final Exception e) {
+				// CHECKSTYLE:ON
+				throw new IOException(e.getMessage());
+			}
+
+			// Internal content first, it defines expressions
+			writeBlock(internalContent.getContent());
+			writeItems(internalContent.getUnknownglovalvars());
+
+			// Then API
+			final LuaFileAPI fileapi = root.getFileapi();
+			writeString(fileapi.getDocumentation());
+			writeItems(fileapi.getGlobalvars().values());
+			writeReturns(fileapi.getReturns());
+			out.writeInt(fileapi.getTypes().size());
+			for (final Entry<String, TypeDef> entry : fileapi.getTypes().entrySet()) {
+				writeString(entry.getKey());
+				writeTypeDef(entry.getValue());
+			}
+		}
+
+		private void writeRange(final ASTNode node) throws IOException {
+			out.writeInt(node.sourceStart());
+			out.writeInt(node.sourceEnd());
+		}
+
+		private void writeBlock(final Block block) throws IOException {
+			writeRange(block);
+			out.writeInt(block.getContent().size());
+			for (final LuaASTNode node : block.getContent())
+				writeNode(node);
+			out.writeInt(block.getLocalVars().size());
+			for (final LocalVar localVar : block.getLocalVars()) {
+				writeRange(localVar);
+				out.writeInt(localVar.getScopeMinOffset());
+				out.writeInt(localVar.getScopeMaxOffset());
+				writeItem(localVar.getVar());
+			}
+		}
+
+		private void writeNode(final LuaASTNode node) throws IOException {
+			if (node instanceof Block) {
+				out.writeByte(TAG_BLOCK);
+				writeBlock((Block) node);
+			} else if (node instanceof Identifier) {
+				out.writeByte(TAG_IDENTIFIER);
+				writeRange(node);
+			} else if (node instanceof Index) {
+				final Index index = (Index) node;
+				out.writeByte(TAG_INDEX);
+				writeRange(index);
+				writeString(index.getRight());
+				writeNode(index.getLeft());
+			} else if (node instanceof Call) {
+				final Call call = (Call) node;
+				out.writeByte(TAG_CALL);
+				writeRange(call);
+				writeNode(call.getFunction());
+			} else if (node instanceof Invoke) {
+				final Invoke invoke = (Invoke) node;
+				out.writeByte(TAG_INVOKE);
+				writeRange(invoke);
+				writeString(invoke.getFunctionName());
+				writeNode(invoke.getRecord());
+			} else {
+				out.writeByte(TAG_NULL);
+			}
+		}
+
+		private void writeItems(final Collection<Item> items) throws IOException {
+			out.writeInt(items.size());
+			for (final Item item : items)
+				writeItem(item);
+		}
+
+		private void writeItem(final Item item) throws IOException {
+			writeString(item.getName());
+			writeString(item.getDocumentation());
+			writeRange(item);
+			writeTypeRef(item.getType());
+			out.writeInt(item.getOccurrences().size());
+			for (final Identifier occurrence : item.getOccurrences())
+				writeExpressionId(occurrence);
+		}
+
+		private void writeExpressionId(final LuaExpression expression) throws IOException {
+			final Integer id = expression == null ? null : expressionIds.get(expression);
+			out.writeInt(id == null ? NULL : id);
+		}
+
+		private void writeTypeRef(final TypeRef typeRef) throws IOException {
+			if (typeRef instanceof ExternalTypeRef) {
+				out.writeByte(TAG_EXTERNAL_TYPEREF);
+				writeString(((ExternalTypeRef) typeRef).getModuleName());
+				writeString(((ExternalTypeRef) typeRef).getTypeName());
+			} else if (typeRef instanceof InternalTypeRef) {
+				out.writeByte(TAG_INTERNAL_TYPEREF);
+				writeString(((InternalTypeRef) typeRef).getTypeName());
+			} else if (typeRef instanceof ModuleTypeRef) {
+				out.writeByte(TAG_MODULE_TYPEREF);
+				writeString(((ModuleTypeRef) typeRef).getModuleName());
+				out.writeInt(((ModuleTypeRef) typeRef).getReturnPosition());
+			} else if (typeRef instanceof ExprTypeRef) {
+				out.writeByte(TAG_EXPR_TYPEREF);
+				out.writeInt(((ExprTypeRef) typeRef).getReturnPosition());
+				writeExpressionId(((ExprTypeRef) typeRef).getExpression());
+			} else if (typeRef instanceof PrimitiveTypeRef) {
+				out.writeByte(TAG_PRIMITIVE_TYPEREF);
+				writeString(((PrimitiveTypeRef) typeRef).getTypeName());
+			} else {
+				out.writeByte(TAG_NULL);
+			}
+		}
+
+		private void writeReturns(final List<Return> returns) throws IOException {
+			out.writeInt(returns.size());
+			for (final Return ret : returns) {
+				out.writeInt(ret.getTypes().size());
+				for (final TypeRef typeRef : ret.getTypes())
+					writeTypeRef(typeRef);
+			}
+		}
+
+		private void writeTypeDef(final TypeDef typeDef) throws IOException {
+			if (typeDef instanceof RecordTypeDef) {
+				final RecordTypeDef record = (RecordTypeDef) typeDef;
+				out.writeByte(TAG_RECORD);
+				writeString(record.getName());
+				writeString(record.getDocumentation());
+				writeRange(record);
+				writeItems(record.getFields().values());
+			} else if (typeDef instanceof FunctionTypeDef) {
+				final FunctionTypeDef function = (FunctionTypeDef) typeDef;
+				out.writeByte(TAG_FUNCTION);
+				writeString(function.getDocumentation());
+				writeRange(function);
+				out.writeInt(function.getParameters().size());
+				for (final Parameter parameter : function.getParameters()) {
+					writeString(parameter.getName());
+					writeTypeRef(parameter.getType());
+					writeString(parameter.getDescription());
+				}
+				writeReturns(function.getReturns());
+			} else {
+				out.writeByte(TAG_NULL);
+			}
+		}
+
+		private void writeString(final String string) throws IOException {
+			if (string == null) {
+				out.writeInt(NULL);
+			} else {
+				final byte[] bytes = string.getBytes(CHARSET);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+
+	private static final class Reader {
+
+		private final DataInputStream in;
+		private final List<LuaExpression> expressions = new ArrayList<LuaExpression>();
+
+		// References are resolved once all expressions are read
+		private final List<Item> pendingItems = new ArrayList<Item>();
+		private final List<int[]> pendingOccurrences = new ArrayList<int[]>();
+		private final List<ExprTypeRef> pendingTypeRefs = new ArrayList<ExprTypeRef>();
+		private final List<Integer> pendingTypeRefExpressions = new ArrayList<Integer>();
+
+		private Reader(final DataInputStream in) {
+			this.in = in;
+		}
+
+		private LuaSourceRoot readRoot(final int sourceLength, final String parserVersion) throws IOException {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !parserVersion.equals(readString()))
+				return null;
+
+			final LuaSourceRoot root = new LuaSourceRoot(sourceLength, true);
+
+			// Internal content
+			final LuaInternalContent internalContent = new LuaInternalContent();
+			internalContent.setContent(readBlock());
+			final int unknownGlobalVarCount = in.readInt();
+			for (int i = 0; i < unknownGlobalVarCount; i++)
+				internalContent.addUnknownGlobalVar(readItem());
+
+			// API
+			final LuaFileAPI fileapi = new LuaFileAPI();
+			fileapi.setDocumentation(readString());
+			final int globalVarCount = in.readInt();
+			for (int i = 0; i < globalVarCount; i++)
+				fileapi.addGlobalVar(readItem());
+			for (final Return ret : readReturns())
+				fileapi.addReturns(ret);
+			final int typeCount = in.readInt();
+			for (int i = 0; i < typeCount; i++) {
+				final String typeName = readString();
+				fileapi.addType(typeName, readTypeDef());
+			}
+
+			resolveReferences();
+			root.setLuaFileApi(fileapi);
+			root.setInternalContent(internalContent);
+			return root;
+		}
+
+		private void resolveReferences() throws IOException {
+			for (int i = 0; i < pendingItems.size(); i++) {
+				final Item item = pendingItems.get(i);
+				for (final int id : pendingOccurrences.get(i)) {
+					final LuaExpression occurrence = getExpression(id);
+					if (occurrence instanceof Identifier)
+						item.addOccurrence((Identifier) occurrence);
+				}
+			}
+			for (int i = 0; i < pendingTypeRefs.size(); i++)
+				pendingTypeRefs.get(i).setExpression(getExpression(pendingTypeRefExpressions.get(i)));
+		}
+
+		private LuaExpression getExpression(final int id) throws IOException {
+			if (id == NULL)
+				return null;
+			if (id < 0 || id >= expressions.size())
+				throw new IOException("Invalid expression reference " + id); //$NON-NLS-1$
+			return expressions.get(id);
+		}
+
+		private void readRange(final ASTNode node) throws IOException {
+			node.setStart(in.readInt());
+			node.setEnd(in.readInt());
+		}
+
+		private Block readBlock() throws IOException {
+			final Block block = new Block();
+			readRange(block);
+			final int contentCount = in.readInt();
+			for (int i = 0; i < contentCount; i++) {
+				final LuaASTNode node = readNode();
+				if (node != null)
+					block.addContent(node);
+			}
+			final int localVarCount = in.readInt();
+			for (int i = 0; i < localVarCount; i++) {
+				final int start = in.readInt();
+				final int end = in.readInt();
+				final int scopeMin = in.readInt();
+				final int scopeMax = in.readInt();
+				final LocalVar localVar = new LocalVar(readItem(), scopeMin, scopeMax);
+				localVar.setStart(start);
+				localVar.setEnd(end);
+				block.addLocalVar(localVar);
+			}
+			return block;
+		}
+
+		private LuaASTNode readNode() throws IOException {
+			final byte tag = in.readByte();
+			switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_BLOCK:
+				return readBlock();
+			case TAG_IDENTIFIER:
+				final Identifier identifier = new Identifier();
+				expressions.add(identifier);
+				readRange(identifier);
+				return identifier;
+			case TAG_INDEX:
+				final Index index = new Index();
+				expressions.add(index);
+				readRange(index);
+				index.setRight(readString());
+				index.setLeft((LuaExpression) readNode());
+				return index;
+			case TAG_CALL:
+				final Call call = new Call();
+				expressions.add(call);
+				readRange(call);
+				call.setFunction((LuaExpression) readNode());
+				return call;
+			case TAG_INVOKE:
+				final Invoke invoke = new Invoke();
+				expressions.add(invoke);
+				readRange(invoke);
+				invoke.setFunctionName(readString());
+				invoke.setRecord((LuaExpression) readNode());
+				return invoke;
+			default:
+				throw new IOException("Unknown node tag " + tag); //$NON-NLS-1$
+			}
+		}
+
+		private List<Item> readItems() throws IOException {
+			final int count = in.readInt();
+			final List<Item> items = new ArrayList<Item>(count);
+			for (int i = 0; i < count; i++)
+				items.add(readItem());
+			return items;
+		}
+
+		private Item readItem() throws IOException {
+			final Item item = new Item();
+			item.setName(readString());
+			item.setDocumentation(readString());
+			readRange(item);
+			final TypeRef type = readTypeRef();
+			if (type != null)
+				item.setType(type);
+			final int[] occurrences = new int[in.readInt()];
+			for (int i = 0; i < occurrences.length; i++)
+				occurrences[i] = in.readInt();
+			if (occurrences.length > 0) {
+				pendingItems.add(item);
+				pendingOccurrences.add(occurrences);
+			}
+			return item;
+		}
+
+		private TypeRef readTypeRef() throws IOException {
+			final byte tag = in.readByte();
+			switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_EXTERNAL_TYPEREF:
+				final String moduleName = readString();
+				return new ExternalTypeRef(moduleName, readString());
+			case TAG_INTERNAL_TYPEREF:
+				return new InternalTypeRef(readString());
+			case TAG_MODULE_TYPEREF:
+				final String module = readString();
+				return new ModuleTypeRef(module, in.readInt());
+			case TAG_EXPR_TYPEREF:
+				final ExprTypeRef exprTypeRef = new ExprTypeRef(in.readInt());
+				final int expressionId = in.readInt();
+				if (expressionId != NULL) {
+					pendingTypeRefs.add(exprTypeRef);
+					pendingTypeRefExpressions.add(expressionId);
+				}
+				return exprTypeRef;
+			case TAG_PRIMITIVE_TYPEREF:
+				return new PrimitiveTypeRef(readString());
+			default:
+				throw new IOException("Unknown type reference tag " + tag); //$NON-NLS-1$
+			}
+		}
+
+		private List<Return> readReturns() throws IOException {
+			final int count = in.readInt();
+			final List<Return> returns = new ArrayList<Return>(count);
+			for (int i = 0; i < count; i++) {
+				final Return ret = new Return();
+				final int typeCount = in.readInt();
+				for (int j = 0; j < typeCount; j++)
+					ret.addType(readTypeRef());
+				returns.add(ret);
+			}
+			return returns;
+		}
+
+		private TypeDef readTypeDef() throws IOException {
+			final byte tag = in.readByte();
+			switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_RECORD:
+				final RecordTypeDef record = new RecordTypeDef();
+				record.setName(readString());
+				record.setDocumentation(readString());
+				readRange(record);
+				for (final Item field : readItems())
+					record.addField(field);
+				return record;
+			case TAG_FUNCTION:
+				final FunctionTypeDef function = new FunctionTypeDef();
+				function.setDocumentation(readString());
+				readRange(function);
+				final int parameterCount = in.readInt();
+				for (int i = 0; i < parameterCount; i++) {
+					final String name = readString();
+					final TypeRef type = readTypeRef();
+					function.addParameter(new Parameter(name, type, readString()));
+				}
+				for (final Return ret : readReturns())
+					function.addReturn(ret);
+				return function;
+			default:
+				throw new IOException("Unknown type definition tag " + tag); //$NON-NLS-1$
+			}
+		}
+
+		private String readString() throws IOException {
+			final int length = in.readInt();
+			if (length == NULL)
+				return null;
+			final byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, CHARSET);
+		}
+	}
+}
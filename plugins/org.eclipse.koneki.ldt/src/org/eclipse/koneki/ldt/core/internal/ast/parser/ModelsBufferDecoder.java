@@ -0,0 +1,384 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.ExprTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.ExternalTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.FunctionTypeDef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.InternalTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Item;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.LuaFileAPI;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.ModuleTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Parameter;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.PrimitiveTypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.RecordTypeDef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Return;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.TypeDef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.TypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaASTNode;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Block;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Call;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Identifier;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Index;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Invoke;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LocalVar;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LuaExpression;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LuaInternalContent;
+
+/**
+ * Builds {@link LuaSourceRoot} from the buffer produced by <code>javamodelsbuffer.lua</code>, so a whole model goes from Lua to Java at once.
+ * <p>
+ * The buffer is a list of commands, each of them is an opcode followed by its arguments. Commands creating an object give it the next id, objects
+ * are then referred to by id, <code>0</code> stands for <code>null</code>.
+ * <p>
+ * Lua offsets are byte based, they are converted to character based offsets as nodes are created.
+ */
+public final class ModelsBufferDecoder {
+
+	// Opcodes, they must be kept in sync with javamodelsbuffer.lua
+	private static final int NEW_SOURCE_ROOT = 1;
+	private static final int SET_PROBLEM = 2;
+	private static final int ADD_CONTENT = 3;
+	private static final int NEW_INTERNAL_MODEL = 10;
+	private static final int NEW_IDENTIFIER = 11;
+	private static final int NEW_INDEX = 12;
+	private static final int NEW_CALL = 13;
+	private static final int NEW_INVOKE = 14;
+	private static final int NEW_BLOCK = 15;
+	private static final int BLOCK_ADD_CONTENT = 16;
+	private static final int NEW_LOCAL_VAR = 17;
+	private static final int ADD_LOCAL_VAR = 18;
+	private static final int ADD_UNKNOWN_GLOBAL_VAR = 19;
+	private static final int NEW_ITEM = 20;
+	private static final int ADD_OCCURRENCE = 21;
+	private static final int NEW_EXTERNAL_TYPE_REF = 22;
+	private static final int NEW_INTERNAL_TYPE_REF = 23;
+	private static final int NEW_MODULE_TYPE_REF = 24;
+	private static final int NEW_EXPR_TYPE_REF = 25;
+	private static final int NEW_PRIMITIVE_TYPE_REF = 26;
+	private static final int SET_EXPRESSION = 27;
+	private static final int NEW_RECORD_TYPE_DEF = 28;
+	private static final int ADD_FIELD = 29;
+	private static final int NEW_FUNCTION_TYPE_DEF = 30;
+	private static final int ADD_PARAM = 31;
+	private static final int NEW_RETURN = 32;
+	private static final int ADD_TYPE = 33;
+	private static final int FUNCTION_ADD_RETURN = 34;
+	private static final int NEW_FILE_API = 35;
+	private static final int ADD_GLOBAL_VAR = 36;
+	private static final int FILE_API_ADD_RETURN = 37;
+	private static final int ADD_TYPE_DEF = 38;
+
+	private static final char SEPARATOR = '\1';
+	private static final char ESCAPE = '\2';
+	private static final char ESCAPED_NIL = 'n';
+
+	private final String buffer;
+	private final OffsetFixer fixer;
+	private final int charactersLength;
+	private int position;
+
+	/** Objects created so far, index is object id */
+	private final List<Object> objects = new ArrayList<Object>();
+
+	private ModelsBufferDecoder(final String buffer, final OffsetFixer fixer) {
+		this.buffer = buffer;
+		this.fixer = fixer;
+		this.charactersLength = fixer.getCharactersLength();
+		objects.add(null);
+	}
+
+	/**
+	 * @param buffer
+	 *            model produced by <code>javamodelsbuffer.lua</code>
+	 * @param fixer
+	 *            converts Lua offsets of parsed source to character offsets
+	 * @return model described by buffer
+	 * @throws IllegalArgumentException
+	 *             when buffer is malformed
+	 */
+	public static LuaSourceRoot decode(final String buffer, final OffsetFixer fixer) {
+		final ModelsBufferDecoder decoder = new ModelsBufferDecoder(buffer, fixer);
+		decoder.decodeAll();
+		if (decoder.objects.size() < 2 || !(decoder.objects.get(1) instanceof LuaSourceRoot))
+			throw new IllegalArgumentException("Model buffer does not start with a source root."); //$NON-NLS-1$
+		return (LuaSourceRoot) decoder.objects.get(1);
+	}
+
+	// CHECKSTYLE:OFF Cyclomatic complexity, one case per command
+	private void decodeAll() {
+		// CHECKSTYLE:ON
+		while (position < buffer.length()) {
+			final int opcode = readInteger();
+			switch (opcode) {
+			case NEW_SOURCE_ROOT:
+				objects.add(new LuaSourceRoot(readInteger(), true));
+				break;
+			case SET_PROBLEM: {
+				final LuaSourceRoot root = readObject(LuaSourceRoot.class);
+				final int line = readInteger();
+				final int column = readInteger();
+				final int offset = readInteger();
+				root.setProblem(line, column, offset, readString());
+				break;
+			}
+			case ADD_CONTENT: {
+				final LuaSourceRoot root = readObject(LuaSourceRoot.class);
+				root.setLuaFileApi(readObject(LuaFileAPI.class));
+				root.setInternalContent(readObject(LuaInternalContent.class));
+				break;
+			}
+			case NEW_INTERNAL_MODEL: {
+				final LuaInternalContent content = new LuaInternalContent();
+				content.setContent(readObject(Block.class));
+				objects.add(content);
+				break;
+			}
+			case NEW_IDENTIFIER:
+				objects.add(readRange(new Identifier()));
+				break;
+			case NEW_INDEX: {
+				final Index index = readRange(new Index());
+				index.setLeft(readObject(LuaExpression.class));
+				index.setRight(readString());
+				objects.add(index);
+				break;
+			}
+			case NEW_CALL: {
+				final Call call = readRange(new Call());
+				call.setFunction(readObject(LuaExpression.class));
+				objects.add(call);
+				break;
+			}
+			case NEW_INVOKE: {
+				final Invoke invoke = readRange(new Invoke());
+				invoke.setFunctionName(readString());
+				invoke.setRecord(readObject(LuaExpression.class));
+				objects.add(invoke);
+				break;
+			}
+			case NEW_BLOCK:
+				objects.add(readRange(new Block()));
+				break;
+			case BLOCK_ADD_CONTENT: {
+				final Block block = readObject(Block.class);
+				final LuaASTNode node = readObject(LuaASTNode.class);
+				if (node != null)
+					block.addContent(node);
+				break;
+			}
+			case NEW_LOCAL_VAR: {
+				final Item item = readObject(Item.class);
+				final int scopeMin = fixer.getCharacterPosition(readInteger());
+				final int scopeMax = fixer.getCharacterPosition(readInteger());
+				objects.add(new LocalVar(item, scopeMin, scopeMax));
+				break;
+			}
+			case ADD_LOCAL_VAR: {
+				final Block block = readObject(Block.class);
+				block.addLocalVar(readObject(LocalVar.class));
+				break;
+			}
+			case ADD_UNKNOWN_GLOBAL_VAR: {
+				final LuaInternalContent content = readObject(LuaInternalContent.class);
+				content.addUnknownGlobalVar(readObject(Item.class));
+				break;
+			}
+			case NEW_ITEM: {
+				final Item item = new Item();
+				item.setName(readString());
+				item.setDocumentation(readString());
+				readRange(item);
+				final TypeRef type = readObject(TypeRef.class);
+				if (type != null)
+					item.setType(type);
+				objects.add(item);
+				break;
+			}
+			case ADD_OCCURRENCE: {
+				final Item item = readObject(Item.class);
+				final Object occurrence = objects.get(readId());
+				if (occurrence instanceof Identifier)
+					item.addOccurrence((Identifier) occurrence);
+				break;
+			}
+			case NEW_EXTERNAL_TYPE_REF: {
+				final String moduleName = readString();
+				objects.add(new ExternalTypeRef(moduleName, readString()));
+				break;
+			}
+			case NEW_INTERNAL_TYPE_REF:
+				objects.add(new InternalTypeRef(readString()));
+				break;
+			case NEW_MODULE_TYPE_REF: {
+				final String moduleName = readString();
+				objects.add(new ModuleTypeRef(moduleName, readInteger()));
+				break;
+			}
+			case NEW_EXPR_TYPE_REF:
+				objects.add(new ExprTypeRef(readInteger()));
+				break;
+			case NEW_PRIMITIVE_TYPE_REF:
+				objects.add(new PrimitiveTypeRef(readString()));
+				break;
+			case SET_EXPRESSION: {
+				final Item item = readObject(Item.class);
+				((ExprTypeRef) item.getType()).setExpression(readObject(LuaExpression.class));
+				break;
+			}
+			case NEW_RECORD_TYPE_DEF: {
+				final RecordTypeDef record = new RecordTypeDef();
+				record.setName(readString());
+				record.setDocumentation(readString());
+				objects.add(readRange(record));
+				break;
+			}
+			case ADD_FIELD: {
+				final RecordTypeDef record = readObject(RecordTypeDef.class);
+				record.addField(readObject(Item.class));
+				break;
+			}
+			case NEW_FUNCTION_TYPE_DEF:
+				objects.add(new FunctionTypeDef());
+				break;
+			case ADD_PARAM: {
+				final FunctionTypeDef function = readObject(FunctionTypeDef.class);
+				final String name = readString();
+				final TypeRef type = readObject(TypeRef.class);
+				function.addParameter(new Parameter(name, type, readString()));
+				break;
+			}
+			case NEW_RETURN:
+				objects.add(new Return());
+				break;
+			case ADD_TYPE: {
+				final Return ret = readObject(Return.class);
+				ret.addType(readObject(TypeRef.class));
+				break;
+			}
+			case FUNCTION_ADD_RETURN: {
+				final FunctionTypeDef function = readObject(FunctionTypeDef.class);
+				function.addReturn(readObject(Return.class));
+				break;
+			}
+			case NEW_FILE_API: {
+				final LuaFileAPI fileAPI = new LuaFileAPI();
+				final String documentation = readString();
+				if (documentation != null)
+					fileAPI.setDocumentation(documentation);
+				objects.add(fileAPI);
+				break;
+			}
+			case ADD_GLOBAL_VAR: {
+				final LuaFileAPI fileAPI = readObject(LuaFileAPI.class);
+				fileAPI.addGlobalVar(readObject(Item.class));
+				break;
+			}
+			case FILE_API_ADD_RETURN: {
+				final LuaFileAPI fileAPI = readObject(LuaFileAPI.class);
+				fileAPI.addReturns(readObject(Return.class));
+				break;
+			}
+			case ADD_TYPE_DEF: {
+				final LuaFileAPI fileAPI = readObject(LuaFileAPI.class);
+				final String typeName = readString();
+				fileAPI.addType(typeName, readObject(TypeDef.class));
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown model buffer opcode " + opcode + '.'); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Reads Lua source range of a node and sets it as character offsets.
+	 */
+	private <T extends LuaASTNode> T readRange(final T node) {
+		node.setStart(fixer.getCharacterPosition(readInteger()));
+
+		// Keep irrelevant ends untouched, it can happen for scope purposes
+		final int end = readInteger();
+		final int characterEnd = fixer.getCharacterPosition(end);
+		node.setEnd(characterEnd <= charactersLength ? characterEnd : end);
+		return node;
+	}
+
+	private int readId() {
+		final int id = readInteger();
+		if (id < 0 || id >= objects.size())
+			throw new IllegalArgumentException("Unknown model buffer object " + id + '.'); //$NON-NLS-1$
+		return id;
+	}
+
+	private <T> T readObject(final Class<T> type) {
+		final Object object = objects.get(readId());
+		if (object != null && !type.isInstance(object))
+			throw new IllegalArgumentException("Model buffer object is not a " + type.getSimpleName() + '.'); //$NON-NLS-1$
+		return type.cast(object);
+	}
+
+	private int readInteger() {
+		final int end = tokenEnd();
+		int i = position;
+		final boolean negative = i < end && buffer.charAt(i) == '-';
+		if (negative)
+			i++;
+		if (i == end)
+			throw new IllegalArgumentException("Model buffer integer expected at " + position + '.'); //$NON-NLS-1$
+		int value = 0;
+		for (; i < end; i++) {
+			final int digit = buffer.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new IllegalArgumentException("Model buffer integer expected at " + position + '.'); //$NON-NLS-1$
+			value = value * 10 + digit;
+		}
+		position = end + 1;
+		return negative ? -value : value;
+	}
+
+	private String readString() {
+		final int end = tokenEnd();
+		final int start = position;
+		position = end + 1;
+
+		// Fast path, nothing escaped
+		int escape = start;
+		while (escape < end && buffer.charAt(escape) != ESCAPE)
+			escape++;
+		if (escape == end)
+			return buffer.substring(start, end);
+		if (end - start == 2 && escape == start && buffer.charAt(start + 1) == ESCAPED_NIL)
+			return null;
+
+		final StringBuilder value = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			final char c = buffer.charAt(i);
+			if (c == ESCAPE && i + 1 < end) {
+				i++;
+				// Escaped characters are encoded with their code, '0' for NUL
+				value.append((char) (buffer.charAt(i) - '0'));
+			} else {
+				value.append(c);
+			}
+		}
+		return value.toString();
+	}
+
+	private int tokenEnd() {
+		final int end = buffer.indexOf(SEPARATOR, position);
+		return end < 0 ? buffer.length() : end;
+	}
+}
@@ -13,14 +13,21 @@ package org.eclipse.koneki.ldt.core.internal.ast.parser;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.koneki.ldt.core.internal.Activator;
 import org.eclipse.koneki.ldt.core.internal.ast.models.APIModelFactory;
-import org.eclipse.koneki.ldt.core.internal.ast.models.InternalModelFactory;
-import org.eclipse.koneki.ldt.core.internal.ast.models.ModelFactory;
 import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.ParseMetrics.Phase;
 import org.eclipse.koneki.ldt.metalua.AbstractMetaLuaModule;
 
+import com.naef.jnlua.ConfinedLuaState;
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaArguments;
+import com.naef.jnlua.LuaException;
+import com.naef.jnlua.LuaMemoryAllocationException;
 import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaType;
 
 public class ModelsBuilderLuaModule extends AbstractMetaLuaModule {
 
@@ -32,33 +39,264 @@ public class ModelsBuilderLuaModule extends AbstractMetaLuaModule {
 	public static final String INTERNAL_MODEL_BUILDER = "models/internalmodelbuilder";//$NON-NLS-1$
 	public static final String INTERNAL_MODEL_BUILDER_SCRIPT = INTERNAL_MODEL_BUILDER + ".mlua";//$NON-NLS-1$
 
+	private static final int BYTES_PER_KILOBYTE = 1024;
+
 	private LuaState lua = null;
 
-	public synchronized LuaSourceRoot buildAST(final String string) {
+	/** Bytes Lua state may hold after a build, <code>0</code> for no limit */
+	private long memoryLimit;
+
+	/** Key of last source built with a key, Lua state keeps its AST so that its next build only parses edited statements */
+	private volatile String lastKey;
+
+	/** Records Lua phases of current build, see javamodelsbuilder.lua */
+	private final PhaseRecorder recorder = new PhaseRecorder();
+
+	/**
+	 * Called from Lua at the end of each phase with its name and current Lua heap size in kilobytes. Phase duration and heap growth since
+	 * previous call are recorded in {@link ParseMetrics}.
+	 */
+	private static class PhaseRecorder implements JavaFunction {
+		private int sourceLength;
+		private long lastNanos;
+		private double lastKilobytes;
+		private final LuaArguments arguments = new LuaArguments(LuaType.STRING, LuaType.NUMBER);
+
+		public void start(final int length) {
+			sourceLength = length;
+			lastNanos = System.nanoTime();
+			lastKilobytes = -1;
+		}
+
+		@Override
+		public int invoke(final LuaState l) {
+			final long now = System.nanoTime();
+			l.checkArguments(arguments);
+			final String name = arguments.getString(1);
+			final double kilobytes = arguments.getNumber(2);
+			final Phase phase = Phase.fromLuaName(name);
+			if (phase != null) {
+				// Heap shrinks when garbage is collected during phase, allocation is unknown then
+				final long allocated = lastKilobytes < 0 || kilobytes < lastKilobytes ? 0 : (long) ((kilobytes - lastKilobytes) * BYTES_PER_KILOBYTE);
+				ParseMetrics.getDefault().record(phase, sourceLength, now - lastNanos, allocated);
+			}
+			lastKilobytes = kilobytes;
+			lastNanos = System.nanoTime();
+			return 0;
+		}
+	}
+
+	/** Tells Lua whether current build has to be aborted, see javamodelsbuilder.lua */
+	private final InterruptionGuard guard = new InterruptionGuard();
+
+	/**
+	 * Called from a Lua count hook during build. Once it answered <code>true</code>, it keeps doing so until next build, as Metalua may catch the
+	 * error raised by the hook.
+	 */
+	private static class InterruptionGuard implements JavaFunction {
+		private IProgressMonitor monitor;
+		private long deadline;
+		private boolean interrupted;
+
+		public void start(final IProgressMonitor progressMonitor, final long deadlineNanos) {
+			monitor = progressMonitor;
+			deadline = deadlineNanos;
+			interrupted = false;
+		}
+
+		public boolean isInterrupted() {
+			return interrupted;
+		}
+
+		@Override
+		public int invoke(final LuaState l) {
+			if (!interrupted)
+				interrupted = (monitor != null && monitor.isCanceled()) || System.nanoTime() - deadline > 0;
+			l.pushBoolean(interrupted);
+			return 1;
+		}
+	}
+
+	/**
+	 * @param string
+	 *            Lua source to parse
+	 * @param fixer
+	 *            converts Lua offsets of given source to character offsets
+	 */
+	public LuaSourceRoot buildAST(final String string, final OffsetFixer fixer) {
+		return buildAST(string, fixer, null, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Builds AST, aborting as soon as given monitor is canceled or given deadline is over. An aborted build leaves this module reusable.
+	 * 
+	 * @param string
+	 *            Lua source to parse
+	 * @param fixer
+	 *            converts Lua offsets of given source to character offsets
+	 * @param monitor
+	 *            checked during build, may be <code>null</code>
+	 * @param deadline
+	 *            {@link System#nanoTime()} value after which build is aborted, <code>Long.MAX_VALUE</code> for none
+	 * @throws OperationCanceledException
+	 *             when build was aborted
+	 */
+	public LuaSourceRoot buildAST(final String string, final OffsetFixer fixer, final IProgressMonitor monitor, final long deadline) {
+		return buildAST(string, fixer, monitor, deadline, null);
+	}
+
+	/**
+	 * Builds AST, aborting as soon as given monitor is canceled or given deadline is over. An aborted build leaves this module reusable.
+	 * <p>
+	 * When a key is given, the AST is kept in Lua state. Next build with the same key reuses its top level statements outside of the edited
+	 * region, only the others go through Metalua again.
+	 * 
+	 * @param string
+	 *            Lua source to parse
+	 * @param fixer
+	 *            converts Lua offsets of given source to character offsets
+	 * @param monitor
+	 *            checked during build, may be <code>null</code>
+	 * @param deadline
+	 *            {@link System#nanoTime()} value after which build is aborted, <code>Long.MAX_VALUE</code> for none
+	 * @param key
+	 *            identifies built source among successive builds, may be <code>null</code>
+	 * @throws OperationCanceledException
+	 *             when build was aborted
+	 */
+	public synchronized LuaSourceRoot buildAST(final String string, final OffsetFixer fixer, final IProgressMonitor monitor, final long deadline,
+			final String key) {
 		if (lua == null)
 			lua = loadLuaModule();
+		lua.setMemoryLimit(memoryLimit);
+
+		// State is leased by one thread at a time, take it over from previous one
+		final ConfinedLuaState confined = lua instanceof ConfinedLuaState ? (ConfinedLuaState) lua : null;
+		if (confined != null)
+			confined.transferOwnership(Thread.currentThread());
 
-		pushLuaModule(lua);
-		lua.getField(-1, "build"); //$NON-NLS-1$
-		lua.pushString(string);
-		lua.call(1, 1);
-		LuaSourceRoot luaSourceRoot = lua.checkJavaObject(-1, LuaSourceRoot.class);
-		lua.pop(2);
+		// Whole model is transfered at once in a buffer
+		final String buffer;
+		final int top = lua.getTop();
+		final boolean guarded = monitor != null || deadline != Long.MAX_VALUE;
+		boolean discard = false;
+		try {
+			pushLuaModule(lua);
+			lua.getField(-1, "build"); //$NON-NLS-1$
+			lua.pushString(string);
+			lua.pushJavaFunction(recorder);
+			recorder.start(string.length());
+			if (guarded) {
+				lua.pushJavaFunction(guard);
+				guard.start(monitor, deadline);
+			} else {
+				lua.pushNil();
+			}
+			if (key != null)
+				lua.pushString(key);
+			else
+				lua.pushNil();
+			lua.call(4, 1);
+			if (guarded && guard.isInterrupted())
+				throw new OperationCanceledException();
+			buffer = lua.checkString(-1);
+			if (key != null)
+				lastKey = key;
+			ParseMetrics.getDefault().recordLuaMemory(lua.getMemoryUsage(), lua.getPeakMemoryUsage());
+		} catch (final LuaMemoryAllocationException e) {
+			// Garbage collection did not bring state back under its limit, next build starts from a fresh one
+			discard = true;
+			throw e;
+		} catch (final LuaException e) {
+			if (guard.isInterrupted())
+				throw new OperationCanceledException();
+			throw e;
+		} finally {
+			try {
+				// Leave state as it was, even after an error, hook included. A discarded state is still over its limit, any call would fail.
+				if (!discard) {
+					lua.setTop(top);
+					if (guarded)
+						removeHook();
+				}
+			} finally {
+				guard.start(null, Long.MAX_VALUE);
+				try {
+					if (discard)
+						discardLuaState();
+				} finally {
+					// Released last, only owner may close state
+					if (confined != null)
+						confined.transferOwnership(null);
+				}
+			}
+		}
+		final long decodingStart = System.nanoTime();
+		LuaSourceRoot luaSourceRoot = ModelsBufferDecoder.decode(buffer, fixer);
+		ParseMetrics.getDefault().record(Phase.MODEL_DECODING, string.length(), System.nanoTime() - decodingStart, 0);
 
 		// lua.close();
 
 		return luaSourceRoot;
 	}
 
+	/**
+	 * @param memoryLimit
+	 *            bytes Lua state may hold after a build, <code>0</code> for no limit. When a build exceeds it, it fails and Lua state is
+	 *            discarded.
+	 */
+	public synchronized void setMemoryLimit(final long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * @return Key of last source built with a key, its AST is kept in Lua state, <code>null</code> if there is none
+	 */
+	public String getLastKey() {
+		return lastKey;
+	}
+
+	/**
+	 * Closes Lua state, next build starts from a fresh one.
+	 */
+	private void discardLuaState() {
+		try {
+			ParseMetrics.getDefault().recordLuaMemory(0, lua.getPeakMemoryUsage());
+			lua.close();
+		} finally {
+			lua = null;
+			lastKey = null;
+		}
+	}
+
+	/**
+	 * Removes interruption hook, which is left in place when a build is aborted or fails.
+	 */
+	private void removeHook() {
+		final int top = lua.getTop();
+		lua.getGlobal("debug"); //$NON-NLS-1$
+		lua.getField(-1, "sethook"); //$NON-NLS-1$
+		lua.call(0, 0);
+		lua.setTop(top);
+	}
+
+	/**
+	 * States are only used under this module lock, by the thread leasing it from {@link ModelsBuilderLuaModulePool}.
+	 * 
+	 * @see org.eclipse.koneki.ldt.metalua.AbstractMetaLuaModule#isThreadConfined()
+	 */
+	@Override
+	protected boolean isThreadConfined() {
+		return true;
+	}
+
 	/**
 	 * @see org.eclipse.koneki.ldt.metalua.AbstractMetaLuaModule#createLuaState()
 	 */
 	@Override
 	protected LuaState createLuaState() {
 		LuaState luaState = super.createLuaState();
-		InternalModelFactory.registerInternalModelFactory(luaState);
 		APIModelFactory.registerAPIModelFactory(luaState);
-		ModelFactory.registerModelFactory(luaState);
 		return luaState;
 	}
 
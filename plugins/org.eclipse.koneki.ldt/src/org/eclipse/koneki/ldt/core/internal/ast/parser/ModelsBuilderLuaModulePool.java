@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of {@link ModelsBuilderLuaModule}s.
+ * <p>
+ * Loading Metalua is time costly and a {@link ModelsBuilderLuaModule} can only build one AST at a time. So modules are created lazily, up to the
+ * pool capacity, and then reused. When all modules are leased, callers wait for one to be released.
+ */
+public class ModelsBuilderLuaModulePool {
+
+	/** Upper bound of pool capacity, each module holds a whole Metalua {@link com.naef.jnlua.LuaState} in memory */
+	private static final int MAX_CAPACITY = 8;
+
+	private final int capacity;
+	private final AtomicInteger created = new AtomicInteger();
+	private final LinkedBlockingQueue<ModelsBuilderLuaModule> idleModules = new LinkedBlockingQueue<ModelsBuilderLuaModule>();
+
+	/**
+	 * Creates a pool sized on available processors.
+	 */
+	public ModelsBuilderLuaModulePool() {
+		this(Math.min(Runtime.getRuntime().availableProcessors(), MAX_CAPACITY));
+	}
+
+	/**
+	 * @param capacity
+	 *            maximum count of {@link ModelsBuilderLuaModule} alive at the same time
+	 */
+	public ModelsBuilderLuaModulePool(final int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Leases a module, it has to be given back using {@link #release(ModelsBuilderLuaModule)}.
+	 * <p>
+	 * An idle module is used when available, else a new one is created if pool capacity allows it. Otherwise, this call blocks until a module is
+	 * released. Interruption does not abort the wait, interrupted status is restored on return.
+	 */
+	public ModelsBuilderLuaModule acquire() {
+		// Fast path, reuse an idle module
+		final ModelsBuilderLuaModule idle = idleModules.poll();
+		if (idle != null)
+			return idle;
+
+		// Create a new module when capacity allows it
+		for (int count = created.get(); count < capacity; count = created.get()) {
+			if (created.compareAndSet(count, count + 1))
+				return new ModelsBuilderLuaModule();
+		}
+
+		// Wait for a module to be released
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return idleModules.take();
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Leases a module, preferring an idle one which last built source of given key, as it only parses statements around edited region.
+	 * 
+	 * @param key
+	 *            key of source about to be built, may be <code>null</code>
+	 * @see #acquire()
+	 */
+	public ModelsBuilderLuaModule acquire(final String key) {
+		if (key != null) {
+			for (final ModelsBuilderLuaModule idle : idleModules)
+				if (key.equals(idle.getLastKey()) && idleModules.remove(idle))
+					return idle;
+		}
+		return acquire();
+	}
+
+	/**
+	 * Gives back a module leased with {@link #acquire()}.
+	 */
+	public void release(final ModelsBuilderLuaModule module) {
+		if (module != null)
+			idleModules.offer(module);
+	}
+
+	/** @return Maximum count of modules this pool can hold. */
+	public int getCapacity() {
+		return capacity;
+	}
+}
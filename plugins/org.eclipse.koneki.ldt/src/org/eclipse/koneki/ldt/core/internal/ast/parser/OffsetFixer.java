@@ -10,83 +10,89 @@
  *******************************************************************************/
 package org.eclipse.koneki.ldt.core.internal.ast.parser;
 
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 /**
  * Lua deals with characters like C does: 8 bit clean. So does Metalua. Eclipse components such as editors handle several {@link Charset}s. Here, we
  * do the matching between Lua offsets and Java charset-aware offsets.
+ * <p>
+ * The JNI uses modified UTF-8 strings to represent various string types. Modified UTF-8 strings are the same as those used by the Java VM. Modified
+ * UTF-8 strings are encoded so that character sequences that contain only non-null ASCII characters can be represented using only one byte per
+ * character, but all Unicode characters can be represented. Null character takes two bytes, others take up to three bytes, surrogates are encoded
+ * separately.
  */
 public class OffsetFixer {
 
-	/**
-	 * Key: byte position (Lua string offset)<br/>
-	 * Value: Difference between byte positions and character positions
-	 */
-	private final TreeMap<Integer, Integer> cache;
-	private final int charactersLength;
-
-	public OffsetFixer(final String src) {
-		/*
-		 * Fetch decoder for charset
-		 * 
-		 * The JNI uses modified UTF-8 strings to represent various string types. Modified UTF-8 strings are the same as those used by the Java VM.
-		 * Modified UTF-8 strings are encoded so that character sequences that contain only non-null ASCII characters can be represented using only
-		 * one byte per character, but all Unicode characters can be represented.
-		 */
-		final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder(); //$NON-NLS-1$
+	private static final int[] NONE = new int[0];
+	private static final int INITIAL_CAPACITY = 16;
 
-		/*
-		 * Build cache
-		 */
-		final CharBuffer source = CharBuffer.wrap(src);
-		cache = new TreeMap<Integer, Integer>();
-		charactersLength = source.length();
+	/** Byte positions (Lua string offsets) following each character encoded with several bytes, in ascending order */
+	private int[] bytePositions = NONE;
 
-		final ByteBuffer byteBuffer = ByteBuffer.allocate(Math.round(encoder.maxBytesPerChar()));
-		final int averageBytesPerChar = Math.round(encoder.averageBytesPerChar());
+	/** Difference between byte positions and character positions, from matching byte position on */
+	private int[] deltas = NONE;
 
-		// Loop over all characters and check if they are encoded with more than one byte
-		int bytePosition = 0;
-		int delta = 0;
-		source.limit(0);
-		while (source.position() < charactersLength) {
+	/** Count of relevant values in arrays above */
+	private int size;
 
-			// Read next character
-			source.limit(source.limit() + 1);
-			encoder.encode(source, byteBuffer, false);
+	private final int charactersLength;
 
-			// Character byte length is longer than a regular character, it is valuable to cache
-			int bytesForCurrentChar = byteBuffer.position();
-			bytePosition += bytesForCurrentChar;
-			if (bytesForCurrentChar > averageBytesPerChar) {
+	public OffsetFixer(final String src) {
+		charactersLength = src.length();
 
-				// Compute difference between encoding character and 8 bit clean
-				delta += bytesForCurrentChar - averageBytesPerChar;
+		// Pure ASCII sources have no shift at all
+		int position = 0;
+		while (position < charactersLength && isSingleByte(src.charAt(position)))
+			position++;
+		if (position == charactersLength)
+			return;
 
-				// Cache byte position and difference with char position
-				cache.put(bytePosition, delta);
+		// Loop over remaining characters and remember where they are encoded with more than one byte
+		bytePositions = new int[INITIAL_CAPACITY];
+		deltas = new int[INITIAL_CAPACITY];
+		int bytePosition = position;
+		int delta = 0;
+		for (; position < charactersLength; position++) {
+			final char c = src.charAt(position);
+			if (isSingleByte(c)) {
+				bytePosition++;
+				continue;
 			}
-			byteBuffer.clear();
+			final int bytesForCurrentChar = c < 0x800 ? 2 : 3;
+			bytePosition += bytesForCurrentChar;
+			delta += bytesForCurrentChar - 1;
+			if (size == bytePositions.length) {
+				bytePositions = Arrays.copyOf(bytePositions, size * 2);
+				deltas = Arrays.copyOf(deltas, size * 2);
+			}
+			bytePositions[size] = bytePosition;
+			deltas[size] = delta;
+			size++;
 		}
 	}
 
+	private static boolean isSingleByte(final char c) {
+		return c != 0 && c < 0x80;
+	}
+
 	public int getCharacterPosition(final int bytePosition) {
+		// No difference associated
+		if (size == 0 || bytePosition < bytePositions[0])
+			return bytePosition;
 
-		// Compute difference from ceiling byte position
-		final Entry<Integer, Integer> floorEntry = cache.floorEntry(bytePosition);
-		if (floorEntry != null)
-			return bytePosition - floorEntry.getValue();
+		// Compute difference from floor byte position
+		final int index = Arrays.binarySearch(bytePositions, 0, size, bytePosition);
+		final int floor = index >= 0 ? index : -index - 2;
+		return bytePosition - deltas[floor];
+	}
 
-		// No difference associated
-		return bytePosition;
+	/** @return <code>true</code> when byte positions and character positions are the same, as in pure ASCII sources. */
+	public boolean isIdentity() {
+		return size == 0;
 	}
 
-	/** @return Length of {@link CharBuffer} from given {@link String}. */
+	/** @return Length of given {@link String} in characters. */
 	public int getCharactersLength() {
 		return charactersLength;
 	}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process registry of parse timings, it allows to tell which phase of a parse is slow.
+ * <p>
+ * For each {@link Phase} and each source size bucket, a {@link Histogram} gathers wall time and memory allocated. Recording is lock free, so it
+ * can stay enabled in production.
+ */
+public final class ParseMetrics {
+
+	/**
+	 * Steps of a parse, Lua ones are named as they are reported by <code>javamodelsbuilder.lua</code>.
+	 */
+	public enum Phase {
+		/** Wait for a Metalua state to be available */
+		QUEUE(null),
+		/** Encoding shifts computation */
+		OFFSETS(null),
+		/** Metalua source to AST */
+		SOURCE_TO_AST("sourcetoast"), //$NON-NLS-1$
+		/** Metalua AST checking */
+		CHECK_AST("checkast"), //$NON-NLS-1$
+		/** API model building, in Lua */
+		API_MODEL("apimodel"), //$NON-NLS-1$
+		/** Internal model building, in Lua */
+		INTERNAL_MODEL("internalmodel"), //$NON-NLS-1$
+		/** Java model encoding, in Lua */
+		MODEL_ENCODING("javamodel"), //$NON-NLS-1$
+		/** Java model transfer and decoding */
+		MODEL_DECODING(null),
+		/** Whole parse, queue included */
+		TOTAL(null);
+
+		private final String luaName;
+
+		private Phase(final String luaName) {
+			this.luaName = luaName;
+		}
+
+		/** @return Phase reported from Lua with given name, <code>null</code> if there is none. */
+		public static Phase fromLuaName(final String name) {
+			for (final Phase phase : values())
+				if (phase.luaName != null && phase.luaName.equals(name))
+					return phase;
+			return null;
+		}
+	}
+
+	/** Upper bounds of source size buckets, in characters, last bucket is unbounded */
+	private static final int[] SIZE_BUCKET_LIMITS = { 4 * 1024, 16 * 1024, 64 * 1024, 256 * 1024 };
+
+	private static final ParseMetrics INSTANCE = new ParseMetrics();
+
+	private final Histogram[][] histograms;
+
+	/** Lua heap size after last parse, and highest Lua heap size sampled, in bytes */
+	private final AtomicLong luaMemory = new AtomicLong();
+	private final AtomicLong peakLuaMemory = new AtomicLong();
+
+	/**
+	 * Durations by power of two of microseconds, with count, sum and maximum.
+	 */
+	public static final class Histogram {
+		private static final int BUCKET_COUNT = 32;
+		private static final long NANOS_PER_MICRO = 1000;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong allocatedBytes = new AtomicLong();
+
+		private Histogram() {
+		}
+
+		private void record(final long nanos, final long allocated) {
+			final long micros = Math.max(0, nanos / NANOS_PER_MICRO);
+			final int bucket = Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(micros));
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			allocatedBytes.addAndGet(allocated);
+			for (long max = maxNanos.get(); nanos > max; max = maxNanos.get())
+				if (maxNanos.compareAndSet(max, nanos))
+					break;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		/** @return Memory allocated by recorded phases, only Lua heap growth is known for Lua phases. */
+		public long getAllocatedBytes() {
+			return allocatedBytes.get();
+		}
+
+		/**
+		 * @param ratio
+		 *            between 0 and 1, <code>0.99</code> for 99th percentile
+		 * @return Upper bound of durations of given ratio of recorded phases, in nanoseconds
+		 */
+		public long getPercentileNanos(final double ratio) {
+			final long target = (long) Math.ceil(getCount() * ratio);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				seen += buckets.get(i);
+				if (seen >= target && seen > 0)
+					return Math.min((1L << i) * NANOS_PER_MICRO, getMaxNanos());
+			}
+			return getMaxNanos();
+		}
+	}
+
+	private ParseMetrics() {
+		histograms = new Histogram[Phase.values().length][SIZE_BUCKET_LIMITS.length + 1];
+		for (int i = 0; i < histograms.length; i++)
+			for (int j = 0; j < histograms[i].length; j++)
+				histograms[i][j] = new Histogram();
+	}
+
+	/** @return Registry shared by all parsers. */
+	public static ParseMetrics getDefault() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param phase
+	 *            step which is over
+	 * @param sourceLength
+	 *            length of parsed source
+	 * @param nanos
+	 *            wall time of step
+	 * @param allocatedBytes
+	 *            memory allocated during step, <code>0</code> when unknown
+	 */
+	public void record(final Phase phase, final int sourceLength, final long nanos, final long allocatedBytes) {
+		histograms[phase.ordinal()][getSizeBucket(sourceLength)].record(nanos, allocatedBytes);
+	}
+
+	/**
+	 * @param bytes
+	 *            Lua heap size of a Metalua state after a parse, <code>0</code> when state was discarded
+	 * @param peakBytes
+	 *            highest Lua heap size of this state so far
+	 */
+	public void recordLuaMemory(final long bytes, final long peakBytes) {
+		luaMemory.set(bytes);
+		for (long peak = peakLuaMemory.get(); peakBytes > peak; peak = peakLuaMemory.get())
+			if (peakLuaMemory.compareAndSet(peak, peakBytes))
+				break;
+	}
+
+	/** @return Lua heap size of last Metalua state used, in bytes. */
+	public long getLuaMemory() {
+		return luaMemory.get();
+	}
+
+	/** @return Highest Lua heap size sampled among Metalua states, in bytes. */
+	public long getPeakLuaMemory() {
+		return peakLuaMemory.get();
+	}
+
+	/**
+	 * @return Metrics of given phase for sources of given size bucket, see {@link #getSizeBucket(int)}
+	 */
+	public Histogram getHistogram(final Phase phase, final int sizeBucket) {
+		return histograms[phase.ordinal()][sizeBucket];
+	}
+
+	/** @return Count of source size buckets. */
+	public static int getSizeBucketCount() {
+		return SIZE_BUCKET_LIMITS.length + 1;
+	}
+
+	/** @return Index of size bucket sources of given length belong to. */
+	public static int getSizeBucket(final int sourceLength) {
+		int bucket = 0;
+		while (bucket < SIZE_BUCKET_LIMITS.length && sourceLength >= SIZE_BUCKET_LIMITS[bucket])
+			bucket++;
+		return bucket;
+	}
+
+	/**
+	 * @return One line per phase and size bucket having records, with count, mean, 99th percentile and maximum in microseconds, then Lua
+	 *         heap sizes.
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder summary = new StringBuilder();
+		for (final Phase phase : Phase.values()) {
+			for (int bucket = 0; bucket < getSizeBucketCount(); bucket++) {
+				final Histogram histogram = getHistogram(phase, bucket);
+				final long count = histogram.getCount();
+				if (count == 0)
+					continue;
+				summary.append(phase.name()).append(" <"); //$NON-NLS-1$
+				summary.append(bucket < SIZE_BUCKET_LIMITS.length ? Integer.toString(SIZE_BUCKET_LIMITS[bucket]) : "inf"); //$NON-NLS-1$
+				summary.append(": count=").append(count); //$NON-NLS-1$
+				summary.append(" mean=").append(histogram.getTotalNanos() / count / Histogram.NANOS_PER_MICRO); //$NON-NLS-1$
+				summary.append(" p99=").append(histogram.getPercentileNanos(0.99) / Histogram.NANOS_PER_MICRO); //$NON-NLS-1$
+				summary.append(" max=").append(histogram.getMaxNanos() / Histogram.NANOS_PER_MICRO); //$NON-NLS-1$
+				summary.append(" allocated=").append(histogram.getAllocatedBytes()).append('\n'); //$NON-NLS-1$
+			}
+		}
+		summary.append("LUA_MEMORY: last=").append(getLuaMemory()).append(" peak=").append(getPeakLuaMemory()).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+		return summary.toString();
+	}
+}
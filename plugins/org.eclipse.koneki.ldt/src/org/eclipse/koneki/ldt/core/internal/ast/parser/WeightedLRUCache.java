@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.internal.ast.parser;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Cache bounded by the total weight of its values, least recently used values are evicted first.
+ * <p>
+ * Values within the weight budget are strongly referenced, they are the working set. Evicted values are only softly referenced, so they remain
+ * available until the garbage collector needs their memory. Pinned values are never evicted and do not count in the budget.
+ * <p>
+ * Hits, misses and evictions are counted, {@link #toString()} gives a summary of them.
+ */
+public class WeightedLRUCache<K, V> {
+
+	/** Strongly referenced values, from least to most recently used */
+	private final LinkedHashMap<K, StrongEntry<V>> workingSet = new LinkedHashMap<K, StrongEntry<V>>(16, 0.75f, true);
+
+	/** Evicted values, until they are collected */
+	private final Map<K, SoftEntry<K, V>> evicted = new HashMap<K, SoftEntry<K, V>>();
+	private final ReferenceQueue<V> collected = new ReferenceQueue<V>();
+
+	private final long budget;
+	private long weight;
+	private long pinnedWeight;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	private static class StrongEntry<V> {
+		private final V value;
+		private final int weight;
+		private final boolean pinned;
+
+		public StrongEntry(final V value, final int weight, final boolean pinned) {
+			this.value = value;
+			this.weight = weight;
+			this.pinned = pinned;
+		}
+	}
+
+	private static class SoftEntry<K, V> extends SoftReference<V> {
+		private final K key;
+
+		public SoftEntry(final K key, final V value, final ReferenceQueue<V> queue) {
+			super(value, queue);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * @param budget
+	 *            maximum total weight of values strongly referenced, pinned ones excluded
+	 */
+	public WeightedLRUCache(final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return value cached for given key, <code>null</code> if there is none or if it has been collected
+	 */
+	public synchronized V get(final K key) {
+		purgeCollected();
+		final StrongEntry<V> strong = workingSet.get(key);
+		if (strong != null) {
+			hitCount++;
+			return strong.value;
+		}
+		final SoftEntry<K, V> soft = evicted.get(key);
+		if (soft != null) {
+			final V value = soft.get();
+			if (value != null) {
+				hitCount++;
+				return value;
+			}
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Caches a value, replacing the one cached for the same key.
+	 *
+	 * @param weight
+	 *            cost of value, such as its count of nodes
+	 * @param pinned
+	 *            when <code>true</code>, value stays strongly referenced until it is removed or replaced
+	 */
+	public synchronized void put(final K key, final V value, final int weight, final boolean pinned) {
+		purgeCollected();
+		remove(key);
+		workingSet.put(key, new StrongEntry<V>(value, weight, pinned));
+		if (pinned)
+			pinnedWeight += weight;
+		else
+			this.weight += weight;
+		evictOverBudget();
+	}
+
+	/**
+	 * Drops value cached for given key, if any.
+	 */
+	public synchronized void remove(final K key) {
+		final StrongEntry<V> strong = workingSet.remove(key);
+		if (strong != null) {
+			if (strong.pinned)
+				pinnedWeight -= strong.weight;
+			else
+				weight -= strong.weight;
+		}
+		evicted.remove(key);
+	}
+
+	/**
+	 * @return Snapshot of keys which may have a cached value.
+	 */
+	public synchronized List<K> keys() {
+		purgeCollected();
+		final List<K> keys = new ArrayList<K>(workingSet.size() + evicted.size());
+		keys.addAll(workingSet.keySet());
+		keys.addAll(evicted.keySet());
+		return keys;
+	}
+
+	/**
+	 * Softly references least recently used values until working set fits in budget.
+	 */
+	private void evictOverBudget() {
+		final Iterator<Entry<K, StrongEntry<V>>> iterator = workingSet.entrySet().iterator();
+		while (weight > budget && iterator.hasNext()) {
+			final Entry<K, StrongEntry<V>> entry = iterator.next();
+			final StrongEntry<V> strong = entry.getValue();
+			if (!strong.pinned) {
+				iterator.remove();
+				weight -= strong.weight;
+				evicted.put(entry.getKey(), new SoftEntry<K, V>(entry.getKey(), strong.value, collected));
+				evictionCount++;
+			}
+		}
+	}
+
+	/**
+	 * Forgets keys of values reclaimed by the garbage collector.
+	 */
+	@SuppressWarnings("unchecked")
+	private void purgeCollected() {
+		for (SoftEntry<K, V> entry = (SoftEntry<K, V>) collected.poll(); entry != null; entry = (SoftEntry<K, V>) collected.poll()) {
+			// Key may have been cached again meanwhile
+			if (evicted.get(entry.key) == entry)
+				evicted.remove(entry.key);
+		}
+	}
+
+	/** @return Count of lookups which found a value. */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return Count of lookups which found no value. */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/** @return Count of values moved out of working set. */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/** @return Total weight of values strongly referenced, pinned ones included. */
+	public synchronized long getWeight() {
+		return weight + pinnedWeight;
+	}
+
+	/** @return Maximum total weight of values strongly referenced, pinned ones excluded. */
+	public long getBudget() {
+		return budget;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "hits: " + hitCount + ", misses: " + missCount + ", evictions: " + evictionCount + ", weight: " + getWeight() + "/" + budget //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+				+ ", working set: " + workingSet.size() + ", evicted: " + evicted.size(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -15,9 +15,11 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ TestExpressions.class, TestLuaBinaryOperations.class, TestLuaSourceParser.class, TestModuleDeclaration.class,
-		TestMultipleParsing.class, TestSourceElementRequestVisitor.class, TestStatements.class, TestTables.class, TestUnaryOperations.class,
-		TestVisitor.class })
+@SuiteClasses({ TestExpressionIndex.class, TestExpressions.class, TestGlobalSymbolTable.class, TestIncrementalReparser.class,
+		TestLuaBinaryOperations.class, TestLuaSourceParser.class, TestLuaSourceRootDiskCache.class, TestLuaSourceRootSerializer.class,
+		TestModelsBuilderLuaModule.class, TestModuleDeclaration.class, TestModuleIndex.class, TestMultipleParsing.class, TestScopeIndex.class,
+		TestSourceElementRequestVisitor.class, TestStatements.class, TestTables.class, TestTypeResolutionCache.class, TestUnaryOperations.class,
+		TestVisitor.class, TestWeightedLRUCache.class })
 public class AllASTTests {
 
 }
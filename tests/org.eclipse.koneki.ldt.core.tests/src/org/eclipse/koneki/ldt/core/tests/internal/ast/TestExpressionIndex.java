@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import junit.framework.TestCase;
+
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaASTNode;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Block;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Call;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.ExpressionIndex;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Identifier;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Index;
+
+/**
+ * Checks that the innermost expression covering a range is found, as a walk through the AST would find it.
+ */
+public class TestExpressionIndex extends TestCase {
+
+	private static <T extends LuaASTNode> T at(final T node, final int start, final int end) {
+		node.setStart(start);
+		node.setEnd(end);
+		return node;
+	}
+
+	private static Identifier identifier(final int start, final int end) {
+		return at(new Identifier(), start, end);
+	}
+
+	/**
+	 * @return <code>left.right(...)</code> call, added to given block
+	 */
+	private static Call call(final Block block, final int start, final int end, final Identifier left, final int indexEnd) {
+		final Index index = at(new Index(), left.sourceStart(), indexEnd);
+		index.setLeft(left);
+		index.setRight("right"); //$NON-NLS-1$
+		final Call call = at(new Call(), start, end);
+		call.setFunction(index);
+		block.addContent(call);
+		return call;
+	}
+
+	public void testInnermostExpression() {
+		final Block root = at(new Block(), 0, 100);
+		final Identifier left = identifier(0, 2);
+		final Call call = call(root, 0, 10, left, 6);
+		final ExpressionIndex index = ExpressionIndex.build(root);
+
+		assertSame(left, index.getExpressionAt(0, 2));
+		assertSame(left, index.getExpressionAt(1, 1));
+		assertSame(call.getFunction(), index.getExpressionAt(1, 5));
+		assertSame(call.getFunction(), index.getExpressionAt(3, 6));
+		assertSame(call, index.getExpressionAt(1, 8));
+		assertSame(call, index.getExpressionAt(7, 10));
+		assertNull(index.getExpressionAt(5, 11));
+		assertNull(index.getExpressionAt(20, 20));
+	}
+
+	public void testNestedBlocks() {
+		final Block root = at(new Block(), 0, 100);
+		final Block child = at(new Block(), 20, 60);
+		root.addContent(child);
+		final Identifier left = identifier(30, 32);
+		call(child, 30, 40, left, 36);
+		final ExpressionIndex index = ExpressionIndex.build(root);
+
+		assertSame(left, index.getExpressionAt(31, 31));
+		assertNull(index.getExpressionAt(25, 25));
+	}
+
+	public void testTouchingExpressions() {
+		final Block root = at(new Block(), 0, 100);
+		final Identifier first = identifier(0, 5);
+		final Identifier second = identifier(5, 10);
+		root.addContent(first);
+		root.addContent(second);
+		final ExpressionIndex index = ExpressionIndex.build(root);
+
+		assertSame(first, index.getExpressionAt(0, 0));
+		assertSame(first, index.getExpressionAt(4, 4));
+		assertSame(second, index.getExpressionAt(5, 5));
+		assertSame(second, index.getExpressionAt(10, 10));
+		assertNull(index.getExpressionAt(4, 6));
+	}
+
+	public void testSameRangeExpressions() {
+		final Block root = at(new Block(), 0, 100);
+		final Identifier left = identifier(0, 10);
+		final Call call = call(root, 0, 10, left, 10);
+
+		// Expressions visited first are outer ones
+		final ExpressionIndex index = ExpressionIndex.build(root);
+		assertSame(left, index.getExpressionAt(0, 10));
+		assertNotSame(call, index.getExpressionAt(5, 5));
+	}
+
+	public void testEmpty() {
+		assertNull(ExpressionIndex.build(null).getExpressionAt(0, 0));
+		assertNull(ExpressionIndex.build(at(new Block(), 0, 10)).getExpressionAt(0, 0));
+	}
+}
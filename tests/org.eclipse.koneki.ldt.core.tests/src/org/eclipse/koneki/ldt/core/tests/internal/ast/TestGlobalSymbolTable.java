@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.koneki.ldt.core.internal.ast.models.GlobalSymbolTable;
+import org.eclipse.koneki.ldt.core.internal.ast.models.LuaASTModelUtils;
+import org.eclipse.koneki.ldt.core.internal.ast.models.LuaASTUtils.Definition;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.LuaProjectHelper;
+
+/**
+ * Checks that global variables of all modules of a project are found by prefix, and that the preloaded module is never crowded out by the limit.
+ */
+public class TestGlobalSymbolTable extends TestCase {
+
+	private IScriptProject project;
+
+	@Override
+	protected void setUp() throws Exception {
+		project = LuaProjectHelper.createProject("globalsymboltable"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		LuaProjectHelper.deleteProject(project);
+	}
+
+	/**
+	 * @return Names of global variables found once the table is built
+	 */
+	private List<String> find(final String prefix, final ISourceModule excludedModule, final int limit) throws InterruptedException {
+		// First lookup starts building the table
+		GlobalSymbolTable.find(project, prefix, excludedModule, limit);
+		Job.getJobManager().join(GlobalSymbolTable.JOB_FAMILY, null);
+
+		final List<String> names = new ArrayList<String>();
+		for (final Definition definition : GlobalSymbolTable.find(project, prefix, excludedModule, limit))
+			names.add(definition.getItem().getName());
+		return names;
+	}
+
+	public void testPrefix() throws Exception {
+		LuaProjectHelper.createModule(project, "a", "function printall() end\nPrintMode = 1"); //$NON-NLS-1$ //$NON-NLS-2$
+		LuaProjectHelper.createModule(project, "b", "function parse() end\nvalue = 2"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final List<String> names = find("pr", null, 0); //$NON-NLS-1$
+		assertEquals(2, names.size());
+		assertTrue(names.contains("printall")); //$NON-NLS-1$
+		assertTrue(names.contains("PrintMode")); //$NON-NLS-1$
+		assertEquals(4, find(null, null, 0).size());
+	}
+
+	public void testExcludedModule() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "first = 1"); //$NON-NLS-1$ //$NON-NLS-2$
+		LuaProjectHelper.createModule(project, "b", "second = 2"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final List<String> names = find(null, module, 0);
+		assertEquals(1, names.size());
+		assertEquals("second", names.get(0)); //$NON-NLS-1$
+	}
+
+	public void testModuleParsedAgain() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "before = 1"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(1, find("before", null, 0).size()); //$NON-NLS-1$
+
+		// Table reads the AST built by the parser, as a build or an editor would trigger it
+		LuaProjectHelper.setSource(module, "after = 1"); //$NON-NLS-1$
+		LuaASTModelUtils.getLuaSourceRoot(module);
+		assertTrue(find("before", null, 0).isEmpty()); //$NON-NLS-1$
+		assertEquals(1, find("after", null, 0).size()); //$NON-NLS-1$
+	}
+
+	public void testPreloadedModuleBeyondLimit() throws Exception {
+		LuaProjectHelper.createModule(project, "a", "aa = 1\nab = 2\nac = 3"); //$NON-NLS-1$ //$NON-NLS-2$
+		LuaProjectHelper.createModule(project, "global", "function assert() end"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// Variables of other modules sorting first fill the limit
+		final List<String> names = find("a", null, 2); //$NON-NLS-1$
+		assertEquals(3, names.size());
+		assertTrue(names.contains("assert")); //$NON-NLS-1$
+		assertFalse(names.contains("ac")); //$NON-NLS-1$
+	}
+
+	public void testClosedProject() throws Exception {
+		LuaProjectHelper.createModule(project, "a", "first = 1"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(1, find(null, null, 0).size());
+
+		// Table of a closed project is dropped, it is built again once the project is opened
+		project.getProject().close(null);
+		project.getProject().open(null);
+		LuaProjectHelper.createModule(project, "b", "second = 2"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(2, find(null, null, 0).size());
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import junit.framework.TestCase;
+
+import org.eclipse.dltk.compiler.env.ModuleSource;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.IncrementalReparser;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.LuaSourceParserFactory;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.ModelsBuilderLuaModule;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.OffsetFixer;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.DummyReporter;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.TraceVisitor;
+
+/**
+ * Checks that an AST derived from a previous one matches the AST of a full parse, and that edits which may change structure are refused.
+ * Statements reused by Metalua when a source is built again under the same key are checked the same way.
+ */
+public class TestIncrementalReparser extends TestCase {
+
+	private static final String SOURCE = "local a = 1  -- comment\nprint( a )\nlocal s = 'a  b'\n"; //$NON-NLS-1$
+
+	private static LuaSourceRoot parse(final String source) {
+		final LuaSourceRoot root = (LuaSourceRoot) new LuaSourceParserFactory().createSourceParser().parse(new ModuleSource(source),
+				new DummyReporter());
+		assertFalse("Source should be valid", root.hasError()); //$NON-NLS-1$
+		return root;
+	}
+
+	private static void assertReparsed(final String source) throws Exception {
+		final LuaSourceRoot reparsed = IncrementalReparser.reparse(SOURCE, parse(SOURCE), source);
+		assertNotNull("Edit should not need a full parse", reparsed); //$NON-NLS-1$
+		assertEquals("Reparsed AST differs from parsed one", TraceVisitor.trace(parse(source)), TraceVisitor.trace(reparsed)); //$NON-NLS-1$
+	}
+
+	private static void assertRefused(final String source) {
+		assertNull("Edit should need a full parse", IncrementalReparser.reparse(SOURCE, parse(SOURCE), source)); //$NON-NLS-1$
+	}
+
+	public void testUnchanged() {
+		final LuaSourceRoot parsed = parse(SOURCE);
+		assertSame(parsed, IncrementalReparser.reparse(SOURCE, parsed, SOURCE));
+	}
+
+	public void testBlankInsertion() throws Exception {
+		assertReparsed(SOURCE.replace("print( a )", "print(   a )")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testBlankRemoval() throws Exception {
+		assertReparsed(SOURCE.replace("print( a )", "print(a)")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testTokenMerge() {
+		assertRefused(SOURCE.replace("local a", "locala")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testStringAndComment() {
+		assertRefused(SOURCE.replace("'a  b'", "'a b'")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertRefused(SOURCE.replace("-- comment", "--  comment")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testNonBlankEdit() {
+		assertRefused(SOURCE.replace("print( a )", "print( b )")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static LuaSourceRoot build(final ModelsBuilderLuaModule module, final String source, final String key) {
+		final LuaSourceRoot root = module.buildAST(source, new OffsetFixer(source), null, Long.MAX_VALUE, key);
+		assertFalse("Source should be valid", root.hasError()); //$NON-NLS-1$
+		return root;
+	}
+
+	private static void assertRebuilt(final String... sources) throws Exception {
+		final ModelsBuilderLuaModule keyed = new ModelsBuilderLuaModule();
+		final ModelsBuilderLuaModule full = new ModelsBuilderLuaModule();
+		for (final String source : sources) {
+			final String expected = TraceVisitor.trace(build(full, source, null));
+			assertEquals("Rebuilt AST differs from parsed one", expected, TraceVisitor.trace(build(keyed, source, "key"))); //$NON-NLS-1$
+		}
+	}
+
+	public void testStatementEdit() throws Exception {
+		final String edited = SOURCE.replace("print( a )", "print( b, a )"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertRebuilt(SOURCE, edited, SOURCE.replace("print( a )", "local b = a print( b )")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testStatementInsertion() throws Exception {
+		final String table = "local c = {\n f = function() return a end\n}\n"; //$NON-NLS-1$
+		final String inserted = SOURCE.replace("print( a )\n", "print( a )\n" + table); //$NON-NLS-1$ //$NON-NLS-2$
+		assertRebuilt(SOURCE, inserted, inserted + "c.f()\n", SOURCE); //$NON-NLS-1$
+	}
+
+	public void testParenthesizedStatement() throws Exception {
+		// A parenthesis may continue an expression, statement starting with one is parsed along with the edited one
+		assertRebuilt("local a = 1\ndo end\n(g)()\nlocal b = 2\n", "local a = f\ndo end\n(g)()\nlocal b = 2\n"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testInvalidEdit() throws Exception {
+		final ModelsBuilderLuaModule keyed = new ModelsBuilderLuaModule();
+		build(keyed, SOURCE, "key"); //$NON-NLS-1$
+		final String invalid = SOURCE.replace("print( a )", "print( a"); //$NON-NLS-1$ //$NON-NLS-2$
+		final LuaSourceRoot invalidRoot = keyed.buildAST(invalid, new OffsetFixer(invalid), null, Long.MAX_VALUE, "key"); //$NON-NLS-1$
+		assertTrue("Source should be invalid", invalidRoot.hasError()); //$NON-NLS-1$
+		final String fixed = SOURCE.replace("print( a )", "print( a, a )"); //$NON-NLS-1$ //$NON-NLS-2$
+		final String expected = TraceVisitor.trace(build(new ModelsBuilderLuaModule(), fixed, null));
+		assertEquals("Rebuilt AST differs from parsed one", expected, TraceVisitor.trace(build(keyed, fixed, "key"))); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
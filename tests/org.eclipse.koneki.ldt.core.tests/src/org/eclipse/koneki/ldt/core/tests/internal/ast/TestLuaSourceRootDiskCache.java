@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.eclipse.dltk.compiler.env.ModuleSource;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.LuaSourceParserFactory;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.LuaSourceRootDiskCache;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.DummyReporter;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.TraceVisitor;
+
+/**
+ * Checks that ASTs are read back from disk, and that least recently used ones are evicted once cache exceeds its size.
+ */
+public class TestLuaSourceRootDiskCache extends TestCase {
+
+	private static final String VERSION = "test"; //$NON-NLS-1$
+
+	/** Sources of same structure, their entries have the same size */
+	private static final String SOURCE_A = "local a = 1\nreturn a\n"; //$NON-NLS-1$
+	private static final String SOURCE_B = "local b = 1\nreturn b\n"; //$NON-NLS-1$
+	private static final String SOURCE_C = "local c = 1\nreturn c\n"; //$NON-NLS-1$
+
+	private File folder;
+
+	@Override
+	protected void setUp() throws Exception {
+		folder = File.createTempFile("astcache", null); //$NON-NLS-1$
+		assertTrue(folder.delete() && folder.mkdir());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(folder);
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private static LuaSourceRoot parse(final String source) {
+		final LuaSourceRoot root = (LuaSourceRoot) new LuaSourceParserFactory().createSourceParser().parse(new ModuleSource(source),
+				new DummyReporter());
+		assertFalse("Source should be valid", root.hasError()); //$NON-NLS-1$
+		return root;
+	}
+
+	private File[] entries() {
+		return folder.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File file) {
+				return file.getName().endsWith(".ast"); //$NON-NLS-1$
+			}
+		});
+	}
+
+	public void testLoad() throws Exception {
+		final LuaSourceRootDiskCache cache = new LuaSourceRootDiskCache(folder, VERSION, 0);
+		assertNull("Nothing should be cached yet", cache.load(SOURCE_A)); //$NON-NLS-1$
+
+		final LuaSourceRoot parsed = parse(SOURCE_A);
+		cache.store(SOURCE_A, parsed);
+		final LuaSourceRoot loaded = cache.load(SOURCE_A);
+		assertNotNull("AST should be cached", loaded); //$NON-NLS-1$
+		assertEquals("Loaded AST differs from stored one", TraceVisitor.trace(parsed), TraceVisitor.trace(loaded)); //$NON-NLS-1$
+		assertNull("Another source should not be cached", cache.load(SOURCE_B)); //$NON-NLS-1$
+	}
+
+	public void testEviction() throws IOException {
+		// Measure an entry with an unbounded cache
+		final LuaSourceRootDiskCache unbounded = new LuaSourceRootDiskCache(folder, VERSION, 0);
+		unbounded.store(SOURCE_A, parse(SOURCE_A));
+		final long entrySize = entries()[0].length();
+		delete(folder);
+
+		// Third entry exceeds size, eviction goes down to two entries
+		final LuaSourceRootDiskCache cache = new LuaSourceRootDiskCache(folder, VERSION, 3 * entrySize - 1);
+		cache.store(SOURCE_A, parse(SOURCE_A));
+		cache.store(SOURCE_B, parse(SOURCE_B));
+		final long past = System.currentTimeMillis() - 60000;
+		for (final File entry : entries())
+			assertTrue(entry.setLastModified(past));
+		assertNotNull("AST should be cached", cache.load(SOURCE_A)); //$NON-NLS-1$
+
+		cache.store(SOURCE_C, parse(SOURCE_C));
+		assertEquals(2, entries().length);
+		assertNotNull("Recently used entry should be kept", cache.load(SOURCE_A)); //$NON-NLS-1$
+		assertNull("Least recently used entry should be evicted", cache.load(SOURCE_B)); //$NON-NLS-1$
+		assertNotNull("Last stored entry should be kept", cache.load(SOURCE_C)); //$NON-NLS-1$
+	}
+}
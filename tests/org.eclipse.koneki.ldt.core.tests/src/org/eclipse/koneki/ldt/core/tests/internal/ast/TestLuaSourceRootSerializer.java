@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.eclipse.dltk.compiler.env.ModuleSource;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.LuaSourceParserFactory;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.LuaSourceRootSerializer;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.DummyReporter;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.TraceVisitor;
+
+/**
+ * Checks that an AST read back from its binary form is the same as the one which was written.
+ */
+public class TestLuaSourceRootSerializer extends TestCase {
+
+	private static final String VERSION = "test"; //$NON-NLS-1$
+
+	private static final String SOURCE = "--- module doc\n-- @module m\nlocal m = {}\n" //$NON-NLS-1$
+			+ "--- field doc\n-- @field [parent=#m] #string field\nm.field = '\u00e9'\n" //$NON-NLS-1$
+			+ "--- function doc\n-- @function [parent=#m] f\n-- @param #number p\n-- @return #m\nfunction m.f(p) local l = p return m end\n" //$NON-NLS-1$
+			+ "local t = m.f(1) t:f() unknown = t\nreturn m\n"; //$NON-NLS-1$
+
+	private static byte[] write(final LuaSourceRoot root) throws IOException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		LuaSourceRootSerializer.write(root, VERSION, output);
+		return output.toByteArray();
+	}
+
+	public void testRoundTrip() throws Exception {
+		final LuaSourceRoot parsed = (LuaSourceRoot) new LuaSourceParserFactory().createSourceParser().parse(new ModuleSource(SOURCE),
+				new DummyReporter());
+		assertFalse("Source should be valid", parsed.hasError()); //$NON-NLS-1$
+
+		final LuaSourceRoot read = LuaSourceRootSerializer.read(new ByteArrayInputStream(write(parsed)), SOURCE.length(), VERSION);
+		assertNotNull("AST should be read", read); //$NON-NLS-1$
+		assertEquals("Read AST differs from written one", TraceVisitor.trace(parsed), TraceVisitor.trace(read)); //$NON-NLS-1$
+		assertEquals(parsed.getFileapi().getDocumentation(), read.getFileapi().getDocumentation());
+	}
+
+	public void testVersionMismatch() throws Exception {
+		final LuaSourceRoot parsed = (LuaSourceRoot) new LuaSourceParserFactory().createSourceParser().parse(new ModuleSource(SOURCE),
+				new DummyReporter());
+		final LuaSourceRoot read = LuaSourceRootSerializer.read(new ByteArrayInputStream(write(parsed)), SOURCE.length(), VERSION + "2"); //$NON-NLS-1$
+		assertNull("AST from another parser version should be ignored", read); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.ModelsBuilderLuaModule;
+import org.eclipse.koneki.ldt.core.internal.ast.parser.OffsetFixer;
+
+import com.naef.jnlua.LuaMemoryAllocationException;
+
+/**
+ * Checks that a module whose build exceeded its memory limit builds again, from any thread.
+ */
+public class TestModelsBuilderLuaModule extends TestCase {
+
+	private static final String SOURCE = "local a = 1\nreturn a\n"; //$NON-NLS-1$
+
+	private static LuaSourceRoot build(final ModelsBuilderLuaModule module) {
+		// Guarded build, its hook is removed afterwards
+		return module.buildAST(SOURCE, new OffsetFixer(SOURCE), new NullProgressMonitor(), Long.MAX_VALUE, "key"); //$NON-NLS-1$
+	}
+
+	public void testBuildAfterMemoryLimitExceeded() throws InterruptedException {
+		final ModelsBuilderLuaModule module = new ModelsBuilderLuaModule();
+		assertFalse(build(module).hasError());
+
+		// Metalua alone exceeds this limit
+		module.setMemoryLimit(1);
+		try {
+			build(module);
+			fail("Build should exceed memory limit"); //$NON-NLS-1$
+		} catch (final LuaMemoryAllocationException e) {
+			// Expected
+		}
+		assertNull(module.getLastKey());
+
+		// Failed state is released, an other thread builds from a fresh one
+		module.setMemoryLimit(0);
+		final Throwable[] thrown = new Throwable[1];
+		final LuaSourceRoot[] roots = new LuaSourceRoot[1];
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					roots[0] = build(module);
+					// CHECKSTYLE:OFF
+				} catch (final Throwable t) {
+					// CHECKSTYLE:ON
+					thrown[0] = t;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNull(thrown[0]);
+		assertFalse(roots[0].hasError());
+
+		// Owning thread builds again too
+		assertFalse(build(module).hasError());
+	}
+}
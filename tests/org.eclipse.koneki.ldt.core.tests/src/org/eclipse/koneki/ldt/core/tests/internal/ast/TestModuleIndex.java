@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.koneki.ldt.core.LuaUtils;
+import org.eclipse.koneki.ldt.core.internal.ModuleIndex;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.LuaProjectHelper;
+
+/**
+ * Checks that modules are found by full name and by location, and that the index follows added and removed modules.
+ */
+public class TestModuleIndex extends TestCase {
+
+	private IScriptProject project;
+
+	@Override
+	protected void setUp() throws Exception {
+		project = LuaProjectHelper.createProject("moduleindex"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		LuaProjectHelper.deleteProject(project);
+	}
+
+	public void testLookups() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "return {}"); //$NON-NLS-1$ //$NON-NLS-2$
+		project.getProject().getFolder("pkg").create(true, true, null); //$NON-NLS-1$
+		final ISourceModule nested = LuaProjectHelper.createModule(project, "pkg/b", "return {}"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		assertEquals(module, ModuleIndex.getModuleSource(project, "a")); //$NON-NLS-1$
+		assertEquals(nested, ModuleIndex.getModuleSource(project, "pkg.b")); //$NON-NLS-1$
+		assertNull(ModuleIndex.getModuleSource(project, "b")); //$NON-NLS-1$
+		assertEquals(nested, ModuleIndex.getSourceModule(project, LuaUtils.getModuleAbsolutePath(nested)));
+		assertEquals(2, ModuleIndex.getModules(project).size());
+	}
+
+	public void testAddedAndRemovedModules() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "return {}"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(1, ModuleIndex.getModules(project).size());
+
+		// Index is built, changes are applied to it
+		final long modificationCount = ModuleIndex.getModificationCount();
+		final ISourceModule added = LuaProjectHelper.createModule(project, "b", "return {}"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue(ModuleIndex.getModificationCount() > modificationCount);
+		assertEquals(added, ModuleIndex.getModuleSource(project, "b")); //$NON-NLS-1$
+
+		final URI location = LuaUtils.getModuleAbsolutePath(module);
+		module.getResource().delete(true, null);
+		assertNull(ModuleIndex.getModuleSource(project, "a")); //$NON-NLS-1$
+		assertNull(ModuleIndex.getSourceModule(project, location));
+		assertEquals(1, ModuleIndex.getModules(project).size());
+	}
+}
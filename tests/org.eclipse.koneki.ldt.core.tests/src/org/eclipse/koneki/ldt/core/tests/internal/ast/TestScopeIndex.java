@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Item;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Block;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LocalVar;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.ScopeIndex;
+
+/**
+ * Checks blocks enclosing an offset and local vars visible at an offset, as a walk through the block tree would find them.
+ */
+public class TestScopeIndex extends TestCase {
+
+	private static Block block(final Block parent, final int start, final int end) {
+		final Block block = new Block();
+		block.setStart(start);
+		block.setEnd(end);
+		if (parent != null)
+			parent.addContent(block);
+		return block;
+	}
+
+	private static LocalVar local(final Block block, final String name, final int scopeMin, final int scopeMax) {
+		final Item item = new Item();
+		item.setName(name);
+		final LocalVar localVar = new LocalVar(item, scopeMin, scopeMax);
+		block.addLocalVar(localVar);
+		return localVar;
+	}
+
+	public void testNestedBlocks() {
+		final Block root = block(null, 0, 100);
+		final Block child = block(root, 10, 50);
+		final Block grandChild = block(child, 20, 30);
+		final Block other = block(root, 60, 70);
+		final ScopeIndex index = ScopeIndex.build(root);
+
+		assertEquals(Arrays.asList(grandChild, child, root), index.getEnclosingBlocks(25));
+		assertEquals(Arrays.asList(child, root), index.getEnclosingBlocks(40));
+		assertEquals(Arrays.asList(other, root), index.getEnclosingBlocks(65));
+		assertEquals(Arrays.asList(root), index.getEnclosingBlocks(55));
+	}
+
+	public void testBoundaries() {
+		final Block root = block(null, 0, 100);
+		final Block child = block(root, 10, 50);
+		final ScopeIndex index = ScopeIndex.build(root);
+
+		// Both bounds are in block
+		assertEquals(Arrays.asList(child, root), index.getEnclosingBlocks(10));
+		assertEquals(Arrays.asList(child, root), index.getEnclosingBlocks(50));
+		assertEquals(Arrays.asList(root), index.getEnclosingBlocks(9));
+		assertEquals(Arrays.asList(root), index.getEnclosingBlocks(51));
+		assertEquals(Arrays.asList(root), index.getEnclosingBlocks(0));
+		assertEquals(Arrays.asList(root), index.getEnclosingBlocks(100));
+		assertTrue(index.getEnclosingBlocks(-1).isEmpty());
+		assertTrue(index.getEnclosingBlocks(101).isEmpty());
+	}
+
+	public void testTouchingBlocks() {
+		final Block root = block(null, 0, 20);
+		final Block first = block(root, 0, 10);
+		final Block second = block(root, 10, 20);
+		final ScopeIndex index = ScopeIndex.build(root);
+
+		// A block ending where the next one starts does not enclose it
+		assertEquals(Arrays.asList(first, root), index.getEnclosingBlocks(5));
+		assertEquals(Arrays.asList(second, root), index.getEnclosingBlocks(10));
+		assertEquals(Arrays.asList(second, root), index.getEnclosingBlocks(20));
+	}
+
+	public void testSameRangeBlocks() {
+		final Block root = block(null, 0, 100);
+		final Block outer = block(root, 10, 50);
+		final Block inner = block(outer, 10, 50);
+		final ScopeIndex index = ScopeIndex.build(root);
+
+		assertEquals(Arrays.asList(inner, outer, root), index.getEnclosingBlocks(10));
+	}
+
+	public void testShadowedLocalVars() {
+		final Block root = block(null, 0, 100);
+		final LocalVar outer = local(root, "x", 5, 100); //$NON-NLS-1$
+		final Block child = block(root, 10, 50);
+		final LocalVar inner = local(child, "x", 15, 50); //$NON-NLS-1$
+		final LocalVar redeclared = local(child, "x", 30, 50); //$NON-NLS-1$
+		final ScopeIndex index = ScopeIndex.build(root);
+
+		assertNull(index.getClosestLocalVar("x", 2)); //$NON-NLS-1$
+		assertSame(outer, index.getClosestLocalVar("x", 12)); //$NON-NLS-1$
+		assertSame(inner, index.getClosestLocalVar("x", 15)); //$NON-NLS-1$
+		assertSame(redeclared, index.getClosestLocalVar("x", 30)); //$NON-NLS-1$
+		assertSame(redeclared, index.getClosestLocalVar("x", 50)); //$NON-NLS-1$
+		assertSame(outer, index.getClosestLocalVar("x", 51)); //$NON-NLS-1$
+		assertNull(index.getClosestLocalVar("y", 20)); //$NON-NLS-1$
+
+		// Innermost block first, declaration order in each block
+		final List<LocalVar> visible = index.getVisibleLocalVars(35);
+		assertEquals(Arrays.asList(inner, redeclared, outer), visible);
+	}
+
+	public void testLocalVarWithoutScope() {
+		final Block root = block(null, 0, 100);
+		final Block child = block(root, 10, 50);
+		final LocalVar localVar = local(child, "x", -1, -1); //$NON-NLS-1$
+		final ScopeIndex index = ScopeIndex.build(root);
+
+		assertSame(localVar, index.getClosestLocalVar("x", 10)); //$NON-NLS-1$
+		assertNull(index.getClosestLocalVar("x", 60)); //$NON-NLS-1$
+	}
+
+	public void testRootLocalVars() {
+		final Block root = block(null, 0, 100);
+		final LocalVar first = local(root, "x", 5, 100); //$NON-NLS-1$
+		local(root, "x", 40, 100); //$NON-NLS-1$
+		local(block(root, 10, 50), "y", 15, 50); //$NON-NLS-1$
+		final ScopeIndex index = ScopeIndex.build(root);
+
+		assertSame(first, index.getRootLocalVar("x")); //$NON-NLS-1$
+		assertNull(index.getRootLocalVar("y")); //$NON-NLS-1$
+	}
+
+	public void testEmpty() {
+		final ScopeIndex index = ScopeIndex.build(null);
+		assertTrue(index.getEnclosingBlocks(0).isEmpty());
+		assertTrue(index.getVisibleLocalVars(0).isEmpty());
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import junit.framework.TestCase;
+
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.koneki.ldt.core.internal.ast.models.LuaASTModelUtils;
+import org.eclipse.koneki.ldt.core.internal.ast.models.LuaASTUtils;
+import org.eclipse.koneki.ldt.core.internal.ast.models.LuaASTUtils.TypeResolution;
+import org.eclipse.koneki.ldt.core.internal.ast.models.TypeResolutionCache;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.TypeRef;
+import org.eclipse.koneki.ldt.core.internal.ast.models.common.LuaSourceRoot;
+import org.eclipse.koneki.ldt.core.tests.internal.ast.utils.LuaProjectHelper;
+
+/**
+ * Checks that type resolutions are cached until a module they read changes, and that cycles between modules resolve to <code>null</code>.
+ */
+public class TestTypeResolutionCache extends TestCase {
+
+	private IScriptProject project;
+
+	@Override
+	protected void setUp() throws Exception {
+		project = LuaProjectHelper.createProject("typeresolutioncache"); //$NON-NLS-1$
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TypeResolutionCache.clear();
+		LuaProjectHelper.deleteProject(project);
+	}
+
+	/**
+	 * @return Type returned by given module
+	 */
+	private static TypeRef getReturnType(final ISourceModule module) {
+		final LuaSourceRoot root = LuaASTModelUtils.getLuaSourceRoot(module);
+		assertNotNull(root);
+		return LuaASTUtils.getModuleReturnType(root.getFileapi());
+	}
+
+	public void testResolutionCached() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "return require 'b'"); //$NON-NLS-1$ //$NON-NLS-2$
+		LuaProjectHelper.createModule(project, "b", "local b = {}\nreturn b"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final TypeRef returnType = getReturnType(module);
+		final TypeResolution resolution = LuaASTUtils.resolveType(module, returnType);
+		assertNotNull("Module type should resolve to type of required module.", resolution); //$NON-NLS-1$
+		assertSame("Resolution should be cached.", resolution, LuaASTUtils.resolveType(module, returnType)); //$NON-NLS-1$
+	}
+
+	public void testDependencyChanged() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "return require 'b'"); //$NON-NLS-1$ //$NON-NLS-2$
+		final ISourceModule required = LuaProjectHelper.createModule(project, "b", "local b = {}\nreturn b"); //$NON-NLS-1$ //$NON-NLS-2$
+		final ISourceModule unrelated = LuaProjectHelper.createModule(project, "c", "return 1"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final TypeRef returnType = getReturnType(module);
+		final TypeResolution resolution = LuaASTUtils.resolveType(module, returnType);
+
+		// Only resolutions reading the changed module are dropped
+		TypeResolutionCache.moduleChanged(unrelated);
+		assertSame("Resolution should not depend on an unread module.", resolution, LuaASTUtils.resolveType(module, returnType)); //$NON-NLS-1$
+		TypeResolutionCache.moduleChanged(required);
+		assertNotSame("Resolution should depend on required module.", resolution, LuaASTUtils.resolveType(module, returnType)); //$NON-NLS-1$
+	}
+
+	public void testDependencyParsed() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "return require 'b'"); //$NON-NLS-1$ //$NON-NLS-2$
+		final ISourceModule required = LuaProjectHelper.createModule(project, "b", "local b = {}\nreturn b"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final TypeRef returnType = getReturnType(module);
+		final TypeResolution resolution = LuaASTUtils.resolveType(module, returnType);
+
+		// Resolution reads the new AST once required module is parsed again
+		LuaProjectHelper.setSource(required, "local other = {}\nreturn other"); //$NON-NLS-1$
+		final LuaSourceRoot root = LuaASTModelUtils.getLuaSourceRoot(required);
+		final TypeResolution newResolution = LuaASTUtils.resolveType(module, returnType);
+		assertNotSame(resolution, newResolution);
+		assertNotNull(newResolution);
+		assertTrue("Resolution should come from the new AST.", root.getFileapi().getTypes().containsValue(newResolution.getTypeDef())); //$NON-NLS-1$
+	}
+
+	public void testCycle() throws Exception {
+		final ISourceModule module = LuaProjectHelper.createModule(project, "a", "return require 'b'"); //$NON-NLS-1$ //$NON-NLS-2$
+		LuaProjectHelper.createModule(project, "b", "return require 'a'"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// Each module type refers to the other one, resolution ends on the first type met again
+		assertNull(LuaASTUtils.resolveType(module, getReturnType(module)));
+	}
+}
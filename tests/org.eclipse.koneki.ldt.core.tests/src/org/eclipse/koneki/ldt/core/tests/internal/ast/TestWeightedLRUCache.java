@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast;
+
+import junit.framework.TestCase;
+
+import org.eclipse.koneki.ldt.core.internal.ast.parser.WeightedLRUCache;
+
+/**
+ * Checks weight accounting, eviction order and counters of the AST cache.
+ */
+public class TestWeightedLRUCache extends TestCase {
+
+	private static final String A = "a"; //$NON-NLS-1$
+	private static final String B = "b"; //$NON-NLS-1$
+	private static final String C = "c"; //$NON-NLS-1$
+
+	public void testHitAndMiss() {
+		final WeightedLRUCache<String, String> cache = new WeightedLRUCache<String, String>(10);
+		cache.put(A, A, 1, false);
+		assertEquals(A, cache.get(A));
+		assertNull(cache.get(B));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	public void testLeastRecentlyUsedIsEvicted() {
+		final WeightedLRUCache<String, String> cache = new WeightedLRUCache<String, String>(10);
+		cache.put(A, A, 4, false);
+		cache.put(B, B, 4, false);
+		cache.get(A);
+		cache.put(C, C, 4, false);
+		assertEquals("Least recently used value should be evicted", 1, cache.getEvictionCount()); //$NON-NLS-1$
+		assertEquals(8, cache.getWeight());
+
+		// Evicted value is softly referenced, it is still there until memory is needed
+		assertEquals(3, cache.keys().size());
+	}
+
+	public void testPinnedIsNotEvicted() {
+		final WeightedLRUCache<String, String> cache = new WeightedLRUCache<String, String>(5);
+		cache.put(A, A, 4, true);
+		cache.put(B, B, 4, false);
+		cache.put(C, C, 4, false);
+		assertEquals("Only unpinned values should be evicted", 1, cache.getEvictionCount()); //$NON-NLS-1$
+		assertEquals(8, cache.getWeight());
+	}
+
+	public void testReplaceAndRemove() {
+		final WeightedLRUCache<String, String> cache = new WeightedLRUCache<String, String>(10);
+		cache.put(A, A, 4, false);
+		cache.put(A, B, 2, true);
+		assertEquals(B, cache.get(A));
+		assertEquals(2, cache.getWeight());
+		cache.remove(A);
+		assertNull(cache.get(A));
+		assertEquals(0, cache.getWeight());
+		assertTrue(cache.keys().isEmpty());
+	}
+}
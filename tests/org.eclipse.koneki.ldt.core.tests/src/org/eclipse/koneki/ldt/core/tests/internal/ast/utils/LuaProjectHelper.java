@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.dltk.core.DLTKCore;
+import org.eclipse.dltk.core.IScriptProject;
+import org.eclipse.dltk.core.ISourceModule;
+import org.eclipse.koneki.ldt.core.LuaNature;
+
+/**
+ * Creates Lua projects in test workspace, their modules are at project root as projects without build path have their root as source folder.
+ */
+public final class LuaProjectHelper {
+
+	private static final String CHARSET = "UTF-8"; //$NON-NLS-1$
+
+	private LuaProjectHelper() {
+	}
+
+	/**
+	 * Creates an open Lua project, replacing any project with the same name.
+	 */
+	public static IScriptProject createProject(final String name) throws CoreException {
+		final IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(name);
+		if (project.exists())
+			project.delete(true, true, null);
+		project.create(null);
+		project.open(null);
+		final IProjectDescription description = project.getDescription();
+		description.setNatureIds(new String[] { LuaNature.ID });
+		project.setDescription(description, null);
+		return DLTKCore.create(project);
+	}
+
+	/**
+	 * Creates module <code>name</code>.lua at root of given project.
+	 */
+	public static ISourceModule createModule(final IScriptProject project, final String name, final String source) throws CoreException {
+		final IFile file = project.getProject().getFile(name + ".lua"); //$NON-NLS-1$
+		file.create(new ByteArrayInputStream(getBytes(source)), true, null);
+		return DLTKCore.createSourceModuleFrom(file);
+	}
+
+	/**
+	 * Replaces source of given module.
+	 */
+	public static void setSource(final ISourceModule module, final String source) throws CoreException {
+		((IFile) module.getResource()).setContents(new ByteArrayInputStream(getBytes(source)), true, false, null);
+	}
+
+	public static void deleteProject(final IScriptProject project) throws CoreException {
+		project.getProject().delete(true, true, null);
+	}
+
+	private static byte[] getBytes(final String source) {
+		try {
+			return source.getBytes(CHARSET);
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.koneki.ldt.core.tests.internal.ast.utils;
+
+import org.eclipse.dltk.ast.ASTNode;
+import org.eclipse.dltk.ast.ASTVisitor;
+import org.eclipse.koneki.ldt.core.internal.ast.models.api.Item;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.Identifier;
+import org.eclipse.koneki.ldt.core.internal.ast.models.file.LocalVar;
+
+/**
+ * Collects a readable trace of all nodes, with offsets, scopes and resolved definitions, so two ASTs are compared by comparing their traces.
+ */
+public class TraceVisitor extends ASTVisitor {
+
+	private final StringBuilder trace = new StringBuilder();
+
+	/**
+	 * @return Trace of given node and of its descendants
+	 */
+	public static String trace(final ASTNode node) throws Exception {
+		final TraceVisitor visitor = new TraceVisitor();
+		node.traverse(visitor);
+		return visitor.trace.toString();
+	}
+
+	@Override
+	public boolean visitGeneral(final ASTNode node) throws Exception {
+		trace.append(node.getClass().getSimpleName()).append('[').append(node.sourceStart()).append(',').append(node.sourceEnd()).append(']');
+		if (node instanceof Item)
+			trace.append(((Item) node).getName()).append(':').append(((Item) node).getOccurrences().size());
+		if (node instanceof Identifier && ((Identifier) node).getDefinition() != null)
+			trace.append("->").append(((Identifier) node).getDefinition().getName()); //$NON-NLS-1$
+		if (node instanceof LocalVar)
+			trace.append(((LocalVar) node).getScopeMinOffset()).append(',').append(((LocalVar) node).getScopeMaxOffset());
+		trace.append('\n');
+		return true;
+	}
+}
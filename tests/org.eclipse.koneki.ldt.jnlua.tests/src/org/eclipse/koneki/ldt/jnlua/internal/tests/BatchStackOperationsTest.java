@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.koneki.ldt.jnlua.internal.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.naef.jnlua.LuaArguments;
+import com.naef.jnlua.LuaRuntimeException;
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaType;
+
+/**
+ * Ensures batch stack operations of {@link LuaState} behave as the matching operations done one by one.
+ */
+public class BatchStackOperationsTest extends TestCase {
+
+	private LuaState state;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		state = new LuaState();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		state.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testPushValues() {
+		final Object object = new Object();
+		state.pushValues("text", Integer.valueOf(1), Double.valueOf(2.5), Boolean.TRUE, null, object); //$NON-NLS-1$
+		assertEquals(6, state.getTop());
+		assertEquals("text", state.toString(1)); //$NON-NLS-1$
+		assertEquals(1, state.toInteger(2));
+		assertEquals(2.5, state.toNumber(3), 0);
+		assertTrue(state.toBoolean(4));
+		assertTrue(state.isNil(5));
+		assertSame(object, state.toJavaObject(6, Object.class));
+	}
+
+	@Test
+	public void testGetFields() {
+		state.load("return { a = 1, b = 'two' }", "table"); //$NON-NLS-1$ //$NON-NLS-2$
+		state.call(0, 1);
+
+		// Relative index designates the table whatever the count of pushed fields
+		state.getFields(-1, new String[] { "a", "b", "c" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals(4, state.getTop());
+		assertEquals(1, state.toInteger(2));
+		assertEquals("two", state.toString(3)); //$NON-NLS-1$
+		assertTrue(state.isNil(4));
+	}
+
+	@Test
+	public void testTableSizeAndMove() {
+		state.load("return { 1, 2, 3, x = true }", "table"); //$NON-NLS-1$ //$NON-NLS-2$
+		state.call(0, 1);
+		assertEquals(4, state.tableSize(1));
+
+		state.tableMove(1, 1, 2, 3);
+		state.rawGet(1, 4);
+		assertEquals(3, state.toInteger(-1));
+		state.rawGet(1, 2);
+		assertEquals(1, state.toInteger(-1));
+	}
+
+	@Test
+	public void testCheckArguments() {
+		state.pushValues("text", Double.valueOf(3), Boolean.TRUE); //$NON-NLS-1$
+		state.newTable();
+
+		final LuaArguments arguments = new LuaArguments(LuaType.STRING, LuaType.NUMBER, LuaType.BOOLEAN, null);
+		state.checkArguments(arguments);
+		assertEquals("text", arguments.getString(1)); //$NON-NLS-1$
+		assertEquals(3, arguments.getInteger(2));
+		assertTrue(arguments.getBoolean(3));
+
+		try {
+			state.checkArguments(new LuaArguments(LuaType.STRING, LuaType.TABLE));
+			fail("A number should not be accepted as a table"); //$NON-NLS-1$
+		} catch (final LuaRuntimeException e) {
+			// Expected
+		}
+	}
+}
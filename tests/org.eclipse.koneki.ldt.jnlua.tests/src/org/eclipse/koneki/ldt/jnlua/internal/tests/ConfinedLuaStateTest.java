@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.koneki.ldt.jnlua.internal.tests;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.naef.jnlua.ConfinedLuaState;
+import com.naef.jnlua.LuaArguments;
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaState.GcAction;
+import com.naef.jnlua.LuaType;
+
+/**
+ * Ensures a {@link ConfinedLuaState} is only used by its owning thread, whatever the method called.
+ */
+public class ConfinedLuaStateTest extends TestCase {
+
+	/**
+	 * Call on a Lua state, run from an other thread
+	 */
+	private interface StateCall {
+		void run(LuaState state) throws Exception;
+	}
+
+	private ConfinedLuaState state;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		state = new ConfinedLuaState();
+		state.openLibs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (state.getOwner() != Thread.currentThread())
+			state.transferOwnership(Thread.currentThread());
+		state.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Runs given call on an other thread and returns what it threw.
+	 */
+	private Throwable callFromOtherThread(final StateCall call) throws InterruptedException {
+		final Throwable[] thrown = new Throwable[1];
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					call.run(state);
+					// CHECKSTYLE:OFF
+				} catch (final Throwable t) {
+					// CHECKSTYLE:ON
+					thrown[0] = t;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		return thrown[0];
+	}
+
+	private void assertRejected(final String method, final StateCall call) throws InterruptedException {
+		final Throwable thrown = callFromOtherThread(call);
+		assertTrue(method + " should be rejected from an other thread", thrown instanceof IllegalStateException); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testOwnerCalls() {
+		state.load("return ... + 1", "increment"); //$NON-NLS-1$ //$NON-NLS-2$
+		state.pushInteger(41);
+		state.call(1, 1);
+		assertEquals(42, state.toInteger(-1));
+		state.pop(1);
+		assertEquals(0, state.getTop());
+	}
+
+	@Test
+	public void testOtherThreadRejected() throws InterruptedException {
+		state.newTable();
+		state.load("return 1", "one"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// Methods overridden by confined state
+		assertRejected("getTop", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.getTop();
+					}
+				});
+		assertRejected("call", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.call(0, 1);
+					}
+				});
+
+		// Inherited methods
+		assertRejected("load", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.load("return 2", "two"); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+				});
+		assertRejected("dump", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) throws Exception {
+						lua.dump(new ByteArrayOutputStream());
+					}
+				});
+		assertRejected("gc", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.gc(GcAction.COLLECT, 0);
+					}
+				});
+		assertRejected("pushJavaObject", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.pushJavaObject(new Object());
+					}
+				});
+		assertRejected("pushValues", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.pushValues("a", Integer.valueOf(1)); //$NON-NLS-1$
+					}
+				});
+		assertRejected("toJavaObject", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.toJavaObject(1, Object.class);
+					}
+				});
+		assertRejected("getProxy", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.getProxy(1);
+					}
+				});
+		assertRejected("checkArguments", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.checkArguments(new LuaArguments(LuaType.TABLE));
+					}
+				});
+		assertRejected("close", new StateCall() { //$NON-NLS-1$
+					@Override
+					public void run(final LuaState lua) {
+						lua.close();
+					}
+				});
+
+		// Nothing was done by rejected calls
+		assertTrue(state.isOpen());
+		assertEquals(2, state.getTop());
+		assertEquals(0, state.getProxyCount());
+	}
+
+	@Test
+	public void testReleasedStateRejected() throws InterruptedException {
+		state.transferOwnership(null);
+		assertNull(state.getOwner());
+		try {
+			state.getTop();
+			fail("An unowned state should be rejected"); //$NON-NLS-1$
+		} catch (final IllegalStateException e) {
+			// Expected
+		}
+
+		// Any thread may take an unowned state
+		final Throwable thrown = callFromOtherThread(new StateCall() {
+			@Override
+			public void run(final LuaState lua) {
+				((ConfinedLuaState) lua).transferOwnership(Thread.currentThread());
+				lua.pushInteger(1);
+				((ConfinedLuaState) lua).transferOwnership(null);
+			}
+		});
+		assertNull(thrown);
+
+		state.transferOwnership(Thread.currentThread());
+		assertEquals(1, state.toInteger(-1));
+	}
+
+	@Test
+	public void testTransferFromOtherThreadRejected() throws InterruptedException {
+		final Throwable thrown = callFromOtherThread(new StateCall() {
+			@Override
+			public void run(final LuaState lua) {
+				((ConfinedLuaState) lua).transferOwnership(Thread.currentThread());
+			}
+		});
+		assertTrue(thrown instanceof IllegalStateException);
+		assertSame(Thread.currentThread(), state.getOwner());
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.koneki.ldt.jnlua.internal.tests;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.naef.jnlua.script.LuaScriptEngineFactory;
+import com.naef.jnlua.script.LuaStatePool;
+
+/**
+ * Ensures a {@link LuaStatePool} reuses its Lua states and resets them between leases.
+ */
+public class LuaStatePoolTest extends TestCase {
+
+	@Test
+	public void testPrewarm() {
+		final LuaStatePool pool = new LuaStatePool(2, 3);
+		assertEquals(2, pool.getCapacity());
+		assertEquals(2, pool.getSize());
+		assertEquals(2, pool.getIdleCount());
+		assertEquals(2, pool.getCreateCount());
+		assertEquals(0, pool.getLeaseCount());
+	}
+
+	@Test
+	public void testStateReused() throws ScriptException {
+		final LuaStatePool pool = new LuaStatePool(1, 0);
+		final ScriptEngine engine = new LuaScriptEngineFactory(pool).getScriptEngine();
+		engine.eval("return 1"); //$NON-NLS-1$
+		engine.eval("return 2"); //$NON-NLS-1$
+		assertEquals(2, pool.getLeaseCount());
+		assertEquals(1, pool.getCreateCount());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testGlobalsReset() throws ScriptException {
+		final LuaStatePool pool = new LuaStatePool(1, 0);
+		final ScriptEngine engine = new LuaScriptEngineFactory(pool).getScriptEngine();
+		engine.eval("x = 1 print = nil setmetatable(_G, { __index = function () return 2 end })"); //$NON-NLS-1$
+
+		// Same state, with globals as they were before previous lease
+		assertNull(engine.eval("return rawget(_G, 'x')")); //$NON-NLS-1$
+		assertEquals(Boolean.TRUE, engine.eval("return type(print) == 'function'")); //$NON-NLS-1$
+		assertNull(engine.eval("return getmetatable(_G)")); //$NON-NLS-1$
+		assertEquals(1, pool.getCreateCount());
+	}
+
+	@Test
+	public void testInitScriptAddedLater() throws Exception {
+		final LuaStatePool pool = new LuaStatePool(1, 1);
+		final ScriptEngine engine = new LuaScriptEngineFactory(pool).getScriptEngine();
+		engine.eval("return 1"); //$NON-NLS-1$
+
+		// Existing state runs it before its next lease, and keeps it through resets
+		pool.addInitScript("function answer() return 42 end"); //$NON-NLS-1$
+		assertEquals(Double.valueOf(42), ((Invocable) engine).invokeFunction("answer")); //$NON-NLS-1$
+		assertEquals(Double.valueOf(42), ((Invocable) engine).invokeFunction("answer")); //$NON-NLS-1$
+		assertEquals(1, pool.getCreateCount());
+	}
+
+	@Test
+	public void testFailedScriptReleasesState() {
+		final LuaStatePool pool = new LuaStatePool(1, 0);
+		final ScriptEngine engine = new LuaScriptEngineFactory(pool).getScriptEngine();
+		try {
+			engine.eval("error('failure')"); //$NON-NLS-1$
+			fail("Script error should be reported"); //$NON-NLS-1$
+		} catch (final ScriptException e) {
+			// Expected
+		}
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(0, pool.getDiscardCount());
+	}
+}
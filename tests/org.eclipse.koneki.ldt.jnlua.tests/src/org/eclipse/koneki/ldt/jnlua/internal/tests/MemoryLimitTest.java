@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.koneki.ldt.jnlua.internal.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.naef.jnlua.LuaMemoryAllocationException;
+import com.naef.jnlua.LuaState;
+
+/**
+ * Ensures calls exceeding the memory limit of a {@link LuaState} fail and leave its stack as it was before the call.
+ */
+public class MemoryLimitTest extends TestCase {
+
+	/** Builds a table of about one megabyte */
+	private static final String ALLOCATE = "local t = {} for i = 1, 1024 do t[i] = string.rep('x', 1024) .. i end return t"; //$NON-NLS-1$
+
+	private LuaState state;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		state = new LuaState();
+		state.openLibs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		state.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testNoLimit() {
+		state.pushInteger(1);
+		state.load(ALLOCATE, "allocate"); //$NON-NLS-1$
+		state.call(0, 1);
+		assertEquals(2, state.getTop());
+		assertTrue(state.isTable(-1));
+	}
+
+	@Test
+	public void testLimitExceeded() {
+		state.setMemoryLimit(state.getMemoryUsage() + 256 * 1024);
+		state.pushInteger(1);
+		state.load(ALLOCATE, "allocate"); //$NON-NLS-1$
+		try {
+			state.call(0, LuaState.MULTRET);
+			fail("Call should exceed memory limit"); //$NON-NLS-1$
+		} catch (final LuaMemoryAllocationException e) {
+			// Expected
+		}
+
+		// Returned values are popped, so state gets back under its limit
+		assertEquals(1, state.getTop());
+		assertEquals(1, state.toInteger(1));
+		state.gc(LuaState.GcAction.COLLECT, 0);
+		assertTrue(state.getMemoryUsage() <= state.getMemoryLimit());
+	}
+
+	@Test
+	public void testLimitKept() {
+		state.setMemoryLimit(state.getMemoryUsage() + 4 * 1024 * 1024);
+		state.load(ALLOCATE, "allocate"); //$NON-NLS-1$
+		state.call(0, 1);
+		assertEquals(1, state.getTop());
+		assertTrue(state.getPeakMemoryUsage() > 1024 * 1024);
+	}
+}
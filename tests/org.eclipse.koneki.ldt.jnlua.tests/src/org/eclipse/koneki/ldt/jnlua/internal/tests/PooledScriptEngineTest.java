@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.koneki.ldt.jnlua.internal.tests;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.naef.jnlua.LuaValueProxy;
+import com.naef.jnlua.script.LuaScriptEngineFactory;
+import com.naef.jnlua.script.LuaStatePool;
+
+/**
+ * Ensures script engines leasing Lua states from a {@link LuaStatePool} only return values which outlive the lease.
+ */
+public class PooledScriptEngineTest extends TestCase {
+
+	private static final String FUNCTIONS = "function empty() return {} end\n" //$NON-NLS-1$
+			+ "function nested() local t = { name = 'n', list = { 1, 2 } } t.self = t return t end\n" //$NON-NLS-1$
+			+ "function holdsfunction() return { f = print } end\n" //$NON-NLS-1$
+			+ "function add(a, b) return a + b end\n"; //$NON-NLS-1$
+
+	/**
+	 * Implemented by global functions of {@link #FUNCTIONS}.
+	 */
+	public interface Functions {
+		int add(int a, int b);
+
+		Map<?, ?> empty();
+
+		void undefined();
+	}
+
+	private LuaStatePool pool;
+	private ScriptEngine engine;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		// A single state, so each lease reuses the state of the previous one
+		pool = new LuaStatePool(1, 0);
+		pool.addInitScript(FUNCTIONS);
+		engine = new LuaScriptEngineFactory(pool).getScriptEngine();
+	}
+
+	@Test
+	public void testTableSurvivesLease() throws Exception {
+		final Object result = ((Invocable) engine).invokeFunction("empty"); //$NON-NLS-1$
+		assertFalse(result instanceof LuaValueProxy);
+		assertTrue(result instanceof Map);
+
+		// Next lease resets the state the table came from
+		engine.eval("x = 1"); //$NON-NLS-1$
+		assertEquals(2, pool.getLeaseCount());
+		assertTrue(((Map<?, ?>) result).isEmpty());
+	}
+
+	@Test
+	public void testNestedTablesCopied() throws Exception {
+		final Map<?, ?> result = (Map<?, ?>) ((Invocable) engine).invokeFunction("nested"); //$NON-NLS-1$
+		engine.eval("return 1"); //$NON-NLS-1$
+
+		assertEquals("n", result.get("name")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertSame(result, result.get("self")); //$NON-NLS-1$
+		final Map<?, ?> list = (Map<?, ?>) result.get("list"); //$NON-NLS-1$
+		assertEquals(2, list.size());
+		assertEquals(Double.valueOf(2), list.get(Double.valueOf(2)));
+	}
+
+	@Test
+	public void testEvalTable() throws Exception {
+		final Object result = engine.eval("return { 1 }"); //$NON-NLS-1$
+		assertTrue(result instanceof Map);
+		assertFalse(result instanceof LuaValueProxy);
+		assertFalse(result instanceof List);
+	}
+
+	@Test
+	public void testLuaValuesRejected() {
+		try {
+			engine.eval("return function () end"); //$NON-NLS-1$
+			fail("A Lua function should not be returned by a pooled engine"); //$NON-NLS-1$
+		} catch (final ScriptException e) {
+			// Expected
+		}
+		try {
+			((Invocable) engine).invokeFunction("holdsfunction"); //$NON-NLS-1$
+			fail("A Lua function should not be returned by a pooled engine"); //$NON-NLS-1$
+		} catch (final ScriptException e) {
+			// Expected
+		} catch (final NoSuchMethodException e) {
+			fail(e.getMessage());
+		}
+
+		// Lease is released after a rejected result
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testInterface() {
+		final Functions functions = ((Invocable) engine).getInterface(Functions.class);
+		assertEquals(3, functions.add(1, 2));
+		assertTrue(functions.empty().isEmpty());
+		try {
+			functions.undefined();
+			fail("An undefined function should not be invoked"); //$NON-NLS-1$
+		} catch (final UnsupportedOperationException e) {
+			// Expected
+		}
+
+		// Each call leases a state
+		assertEquals(3, pool.getLeaseCount());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testLuaObjectsRejected() throws Exception {
+		final Object table = engine.eval("return {}"); //$NON-NLS-1$
+		try {
+			((Invocable) engine).getInterface(table, Functions.class);
+			fail("A Lua object should not implement an interface of a pooled engine"); //$NON-NLS-1$
+		} catch (final IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			((Invocable) engine).invokeMethod(table, "add", 1, 2); //$NON-NLS-1$
+			fail("A method should not be invoked by a pooled engine"); //$NON-NLS-1$
+		} catch (final ScriptException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Sierra Wireless and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.koneki.ldt.jnlua.internal.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.naef.jnlua.LuaState;
+
+/**
+ * Ensures {@link LuaState#pushByteArray(byte[])} pushes bytes as is, whatever their count and value, as Lua reads them.
+ */
+public class PushByteArrayTest extends TestCase {
+
+	/** Returns length and bytes of its argument */
+	private static final String READ_BYTES = "local s = ... return #s, string.byte(s, 1, -1)"; //$NON-NLS-1$
+
+	private LuaState state;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		state = new LuaState();
+		state.openLibs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		state.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Checks length and bytes of given array once pushed, as string functions of Lua read them.
+	 */
+	private void assertPushed(final byte[] bytes) {
+		state.load(READ_BYTES, "readbytes"); //$NON-NLS-1$
+		state.pushByteArray(bytes);
+		state.call(1, LuaState.MULTRET);
+		try {
+			assertEquals(bytes.length + 1, state.getTop());
+			assertEquals(bytes.length, state.toInteger(1));
+			for (int i = 0; i < bytes.length; i++)
+				assertEquals("byte " + i, bytes[i] & 0xff, state.toInteger(i + 2)); //$NON-NLS-1$
+		} finally {
+			state.setTop(0);
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		assertPushed(new byte[0]);
+	}
+
+	@Test
+	public void testNulAndInvalidUTF8() {
+		// NUL, lone continuation byte, truncated sequence and bytes never valid in UTF-8
+		assertPushed(new byte[] { 'a', 0, 'b', (byte) 0x80, (byte) 0xc3, 0, (byte) 0xfe, (byte) 0xff });
+	}
+
+	@Test
+	public void testLargeArray() {
+		final byte[] bytes = new byte[1500];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) (i * 7);
+		assertPushed(bytes);
+	}
+
+	@Test
+	public void testPushedTwice() {
+		// Chunk prefix depends on the length, it must not leak from one push to the next
+		assertPushed(new byte[] { 1, 2, 3 });
+		assertPushed(new byte[] { 4 });
+	}
+}
@@ -10,13 +10,20 @@
  *******************************************************************************/
 package org.eclipse.koneki.ldt.jnlua.tests;
 
+import org.eclipse.koneki.ldt.jnlua.internal.tests.BatchStackOperationsTest;
 import org.eclipse.koneki.ldt.jnlua.internal.tests.ConcurrencyTest;
+import org.eclipse.koneki.ldt.jnlua.internal.tests.ConfinedLuaStateTest;
+import org.eclipse.koneki.ldt.jnlua.internal.tests.LuaStatePoolTest;
+import org.eclipse.koneki.ldt.jnlua.internal.tests.MemoryLimitTest;
+import org.eclipse.koneki.ldt.jnlua.internal.tests.PooledScriptEngineTest;
+import org.eclipse.koneki.ldt.jnlua.internal.tests.PushByteArrayTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ ConcurrencyTest.class })
+@SuiteClasses({ ConcurrencyTest.class, ConfinedLuaStateTest.class, BatchStackOperationsTest.class, MemoryLimitTest.class,
+		LuaStatePoolTest.class, PooledScriptEngineTest.class, PushByteArrayTest.class })
 public class AllJNLuaTests {
 
 }